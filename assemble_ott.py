@@ -43,6 +43,11 @@ def create_ott(ott_spec):
 
     ott = UnionTaxonomy.newTaxonomy('ott')
 
+    # Reuse alignments from earlier runs when neither the source nor the
+    # part of the union that it can see has changed
+    if os.environ.get('ALIGNMENT_CACHE'):
+        ott.setAlignmentCache(os.environ['ALIGNMENT_CACHE'])
+
     # Would be nice if there were tests for all of these...
     for name in names_of_interest:
         ott.eventLogger.namesOfInterest.add(name)
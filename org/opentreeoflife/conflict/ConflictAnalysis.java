@@ -15,6 +15,7 @@ import org.opentreeoflife.taxa.Taxonomy;
 import org.opentreeoflife.taxa.SourceTaxonomy;
 import org.opentreeoflife.taxa.QualifiedId;
 import org.opentreeoflife.taxa.SimpleMap;
+import org.opentreeoflife.taxa.Traversal;
 import org.opentreeoflife.smasher.Alignment;
 import org.opentreeoflife.smasher.AlignmentByName;
 
@@ -129,6 +130,10 @@ public class ConflictAnalysis {
         this.inputRoot = uniqueRoot(input);
         this.refRoot = uniqueRoot(ref);
 
+        // Many mrca and descendsFrom questions to come
+        input.getTreeIndex();
+        ref.getTreeIndex();
+
         // Populate map and comap
         map = new HashMap<Taxon, Taxon>();
         this.mapTips(this.inputRoot);
@@ -224,24 +229,23 @@ public class ConflictAnalysis {
     // Map tips bidirectionally
     // node is a node in the input tree
 
-    boolean mapTips(Taxon node) {
-        boolean anyMapped = false;
-        if (node.hasChildren()) {
-            for (Taxon child : node.children)
-                anyMapped = mapTips(child) || anyMapped;
-        }
-        if (anyMapped)
-            return true;
-        else {
-            Taxon refnode = this.tipMap.get(node);
-            if (refnode != null
-                && (includeSuppressed || !refnode.isHidden())) {
-                map.put(node, refnode);
-                return true;
-            } else
-                return false;
-        }
-
+    boolean mapTips(Taxon root) {
+        return Traversal.fold(root, new Traversal.Fold<Boolean>() {
+                public Boolean combine(Boolean anyMapped, Boolean mapped) {
+                    return mapped || (anyMapped != null && anyMapped);
+                }
+                public Boolean finish(Taxon node, Boolean anyMapped) {
+                    if (anyMapped != null && anyMapped)
+                        return true;
+                    Taxon refnode = tipMap.get(node);
+                    if (refnode != null
+                        && (includeSuppressed || !refnode.isHidden())) {
+                        map.put(node, refnode);
+                        return true;
+                    } else
+                        return false;
+                }
+            });
     }
 
     boolean induce() {
@@ -265,24 +269,25 @@ public class ConflictAnalysis {
     }
 
     // This runs twice, once in each direction input->ref / ref->input
-    Taxon induce(Taxon node, Taxonomy other, Map<Taxon, Taxon> map) {
-        if (node.children != null) {
-            Taxon mrca = null;
-            for (Taxon child : node.children) {
-                Taxon a = induce(child, other, map);
-                if (a != null)
-                    if (mrca == null)
-                        mrca = a;
+    Taxon induce(Taxon root, Taxonomy other, final Map<Taxon, Taxon> map) {
+        return Traversal.fold(root, new Traversal.Fold<Taxon>() {
+                public Taxon combine(Taxon mrca, Taxon a) {
+                    if (a == null)
+                        return mrca;
+                    else if (mrca == null)
+                        return a;
                     else
-                        mrca = mrca.mrca(a);
-            }
-            if (mrca != null) {
-                map.put(node, mrca);
-                return mrca;
-            }
-            /* fall through - node is a 'virtual tip' */
-        }
-        return map.get(node);
+                        return mrca.mrca(a);
+                }
+                public Taxon finish(Taxon node, Taxon mrca) {
+                    if (mrca != null) {
+                        map.put(node, mrca);
+                        return mrca;
+                    }
+                    /* 'virtual tip' */
+                    return map.get(node);
+                }
+            });
     }
 
     // Set the name of any input node that matches up with a node in the reference tree.
@@ -389,7 +394,7 @@ public class ConflictAnalysis {
             System.err.format("Shouldn't happen 1 %s\n", node);
             return null; // shouldn't happen
         }
-        if (node.mrca(bounce) == node) {  // bounce <= node?
+        if (bounce.descendsFrom(node)) {  // bounce <= node?
 
             Taxon witness = conode;
             if (maximizeWitness)
@@ -419,7 +424,7 @@ public class ConflictAnalysis {
             Taxon back = comap.get(cochild);
             if (back == null)
                 ;
-            else if (back.mrca(node) == node)
+            else if (back.descendsFrom(node))
                 ;               // node includes cochild
             else if (!intersects(node, cochild, comap))
                 ;               // node excludes cochild
@@ -436,34 +441,17 @@ public class ConflictAnalysis {
         Taxon back = comap.get(conode); // image of conode in tree1
         if (back == null)
             return false;
-        int hn = node.getDepth();
-        int hb = back.getDepth();
-        if (hn <= hb) {
-            Taxon b = back;
-            while (hb > hn) {
-                b = b.parent;
-                --hb;
-            }
-            if (b != node)
-                return false;   // node and back are disjoint
-            else
-                return true;    // back descends from node
-        } else {
-            Taxon n = node;
-            while (hn > hb) {
-                n = n.parent;
-                --hn;
-            }
-            if (n != back)
-                return false;    // node and back are disjoint
-            else {
-                // node descends from back.  Uninformative
-                if (conode.children != null)
-                    for (Taxon cochild : conode.children)
-                        if (intersects(node, cochild, comap))
-                            return true;
-                return false;
-            }
+        if (back.descendsFrom(node))
+            return true;        // back descends from node
+        else if (!node.descendsFrom(back))
+            return false;       // node and back are disjoint
+        else {
+            // node descends from back.  Uninformative
+            if (conode.children != null)
+                for (Taxon cochild : conode.children)
+                    if (intersects(node, cochild, comap))
+                        return true;
+            return false;
         }
     }
 
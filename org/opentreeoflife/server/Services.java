@@ -8,6 +8,8 @@ import java.io.BufferedReader;
 import java.io.Reader;
 import java.io.PrintWriter;
 import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.io.OutputStream;
 import java.io.ByteArrayOutputStream;
@@ -33,6 +35,7 @@ import org.opentreeoflife.conflict.ConflictAnalysis;
 import org.opentreeoflife.conflict.Disposition;
 import org.opentreeoflife.conflict.Articulation;
 import org.opentreeoflife.taxa.Taxonomy;
+import org.opentreeoflife.taxa.MappedTaxonomy;
 import org.opentreeoflife.taxa.Taxon;
 import org.opentreeoflife.taxa.Nexson;
 
@@ -66,6 +69,12 @@ public class Services {
         this.referenceTaxonomy = reftax;
         this.syntheticTree = synth;
         this.studyBase = studyBase;
+        if (synth instanceof MappedTaxonomy) {
+            // Read-only; names are filled in as nodes are visited
+            ((MappedTaxonomy)synth).borrowNames(reftax, "ott");
+            System.out.format("| Synthetic tree will take names from OTT\n");
+            return;
+        }
         int count = 0;
         for (Taxon node : synth.taxa())
             if (node.name == null && node.id.startsWith("ott")) {
@@ -265,24 +274,59 @@ public class Services {
 
     public Taxonomy getSourceTree(String studyId, String treeId, boolean useCache)
         throws IOException {
-        JSONObject study = getStudy(studyId, useCache);
-        if (study == null)
-            throw new BadRequest(String.format("Study %s not found", studyId));
-        JSONObject jtree = Nexson.getTrees(study).get(treeId);
-        if (jtree == null)
+        byte[] study = getStudyBytes(studyId, useCache);
+        // Stream through the study picking out just the one tree
+        Nexson.TreeReader reader = new Nexson.TreeReader(treeId);
+        try {
+            reader.parse(new InputStreamReader(new ByteArrayInputStream(study), "UTF-8"));
+        } catch (ParseException e) {
+            System.err.format("** JSON parse exception for study %s\n", studyId);
+            throw new BadRequest(String.format("JSON parse error for study %s (see log)", studyId));
+        }
+        if (!reader.foundNexml())
+            throw new BadRequest(String.format("No 'nexml' element in json data blob for study %s", studyId));
+        cacheStudy(studyId, study);
+        if (!reader.foundTree())
             throw new BadRequest(String.format("Tree %s not found in study %s", treeId, studyId));
-        Map<String, JSONObject> otus = Nexson.getOtus(study);
-        if (otus.size() == 0)
+        if (reader.otuCount() == 0)
             throw new BadRequest(String.format("No OTUs found in study %s", studyId));
-        Taxonomy tree = Nexson.importTree(jtree, otus, treeId);
+        Taxonomy tree = reader.importTree(treeId);
         tree.idspace = studyId;
         return tree;
     }
 
+    // The most recently fetched study is kept (as JSON text, which is
+    // much smaller than the parsed form) for use_cache=true.  Only a
+    // study that has parsed and has its nexml is kept, so a bad
+    // response isn't served again from the cache.
+
     private String singleCachedStudyId = null;
-    private JSONObject singleCachedStudy = null;
+    private byte[] singleCachedStudy = null;
 
     public JSONObject getStudy(String studyId, boolean useCache) throws IOException {
+        byte[] study = getStudyBytes(studyId, useCache);
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(new ByteArrayInputStream(study), "UTF-8"));
+        try {
+            JSONParser parser = new JSONParser();
+            JSONObject envelope = (JSONObject)parser.parse(reader);
+            JSONObject nexson = (JSONObject)envelope.get("data");
+            if (nexson == null)
+                throw new BadRequest(String.format("No 'data' property in response for study %s", studyId));
+            if (nexson.get("nexml") == null)
+                throw new BadRequest(String.format("No 'nexml' element in json data blob for study %s", studyId));
+            cacheStudy(studyId, study);
+            return nexson;  // also "sha" and other stuff
+        } catch (ParseException e) {
+            System.err.format("** JSON parse exception for study %s\n", studyId);
+            throw new BadRequest(String.format("JSON parse error for study %s (see log)", studyId));
+        }
+    }
+
+    // Cached study if there is one, otherwise fetch it (but don't cache
+    // it; see cacheStudy)
+
+    byte[] getStudyBytes(String studyId, boolean useCache) throws IOException {
         if (!useCache)
             singleCachedStudyId = null; // Flush it
         if (studyId.equals(singleCachedStudyId)) {
@@ -292,30 +336,32 @@ public class Services {
             URL url = new URL(studyBase + studyId + "?output_nexml2json=1.2.1");
             HttpURLConnection conn = (HttpURLConnection)(url.openConnection());
             if (conn.getResponseCode() == STATUS_OK) {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"));
+                ByteArrayOutputStream ba = new ByteArrayOutputStream(1 << 16);
+                InputStream in = conn.getInputStream();
                 try {
-                    JSONParser parser = new JSONParser();
-                    JSONObject envelope = (JSONObject)parser.parse(reader);
-                    JSONObject nexson = (JSONObject)envelope.get("data");
-                    if (nexson == null)
-                        throw new BadRequest(String.format("No 'data' property in response to GET %s", url));
-                    if (nexson.get("nexml") == null)
-                        throw new BadRequest(String.format("No 'nexml' element in json data blob from %s", url));
-
-                    // JSONObject sha = (JSONObject)envelope.get("sha");
-                    singleCachedStudyId = studyId;
-                    singleCachedStudy = nexson; // also "sha" and other stuff
-                    System.out.format("Cached %s %s\n", studyId, useCache);
-                    return nexson;
-                } catch (ParseException e) {
-                    System.err.format("** JSON parse exception for study %s\n", studyId);
-                    throw new BadRequest(String.format("JSON parse error for study %s (see log)", studyId));
+                    byte[] buf = new byte[1 << 16];
+                    int n;
+                    while ((n = in.read(buf)) > 0)
+                        ba.write(buf, 0, n);
+                } finally {
+                    in.close();
                 }
+                return ba.toByteArray();
             } else
                 throw new BadRequest(String.format("GET %s yielded %s\n", url, conn.getResponseCode()));
         }
     }
 
+    // Call once study is known to be good
+
+    private void cacheStudy(String studyId, byte[] study) {
+        if (!studyId.equals(singleCachedStudyId)) {
+            singleCachedStudyId = studyId;
+            singleCachedStudy = study;
+            System.out.format("Cached %s\n", studyId);
+        }
+    }
+
     private Map<String, String> getParameters(final URI requestUri) {
         final Map<String, String> parameters = new HashMap<>();
         final String requestQuery = requestUri.getRawQuery();
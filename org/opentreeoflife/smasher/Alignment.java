@@ -28,6 +28,8 @@ import org.opentreeoflife.taxa.Node;
 import org.opentreeoflife.taxa.Taxon;
 import org.opentreeoflife.taxa.Rank;
 import org.opentreeoflife.taxa.Taxonomy;
+import org.opentreeoflife.taxa.TreeIndex;
+import org.opentreeoflife.taxa.Traversal;
 import org.opentreeoflife.taxa.Answer;
 import org.opentreeoflife.taxa.QualifiedId;
 
@@ -417,32 +419,45 @@ public class Alignment {
 	// taxonomy A and a plant Buchnera in taxonomy B).
 
     void assignBrackets() {
-        int seq = 0;
-		for (Taxon uroot : this.target.roots())
-			seq = assignBrackets(uroot, seq);
-		for (Taxon root : this.source.roots())
-            getBracket(root, target);
+        // The target's tree index already has the preorder numbering
+        TreeIndex index = this.target.getTreeIndex();
+        if (index != null) {
+            for (int i = 1; i < index.size(); ++i) {
+                Taxon unode = index.get(i);
+                unode.seq = i;
+                unode.start = i + 1;
+                unode.end = index.end(unode);
+            }
+        } else
+            Traversal.walk(this.target.roots(), new Traversal.Visitor() {
+                    int seq = 0;
+                    // Applied to a target node.  Sets seq, start, end.
+                    public boolean pre(Taxon unode) {
+                        // Only consider names in common ???
+                        unode.seq = seq++;
+                        unode.start = seq;
+                        return true;
+                    }
+                    public void post(Taxon unode) {
+                        unode.end = seq;
+                    }
+                });
+        final Taxonomy target = this.target;
+        Traversal.walk(this.source.roots(), new Traversal.Visitor() {
+                public void post(Taxon node) {
+                    getBracket(node, target);
+                }
+            });
 	}
 
 	static final int NO_SEQ = -8;  // for source nodes
 
-	// Applied to a target node.  Sets seq, start, end recursively.
-	int assignBrackets(Taxon unode, int seq) {
-		// Only consider names in common ???
-		unode.seq = seq++;
-		unode.start = seq;
-		if (unode.children != null)
-			for (Taxon uchild : unode.children)
-				seq = assignBrackets(uchild, seq);
-		unode.end = seq;
-        return seq;
-	}
-
     boolean USE_ALIGNMENT = false;
 
-	// Applied to a source node.  Sets start = smallest sequence number among all descendants,
-    // end = 1 + largest sequence number among all descendants.
-    // Sets seq = sequence number of corresponding target node (if any).
+	// Applied to a source node, after its children.  Sets start =
+    // smallest sequence number among all descendants, end = 1 +
+    // largest sequence number among all descendants.  Sets seq =
+    // sequence number of corresponding target node (if any).
 	void getBracket(Taxon node, Taxonomy target) {
         // would like to do  ...
         Taxon unode;
@@ -458,7 +473,6 @@ public class Alignment {
         int end = -1;
         if (node.children != null) {
             for (Taxon child : node.children) {
-                getBracket(child, target);
                 if (child.start < start) start = child.start;
                 if (child.end > end) end = child.end;
                 if (child.seq != NO_SEQ) {
@@ -0,0 +1,73 @@
+/*
+  Time AlignmentByName.decide, the part of findAlignment that scores
+  candidates, for the nodes of one taxonomy against the union of
+  another: by default GBIF against NCBI (the Asterales test
+  taxonomies), which gives a realistic mix of homonyms, synonym
+  matches, and plain one-candidate names.
+
+  java org.opentreeoflife.smasher.AlignmentBenchmark [target source [trials]]
+
+  Reports time and bytes allocated per decision, overall and for the
+  ambiguous names (more than one candidate) alone.  Nothing is stored
+  or logged, so every trial does the same work.  There's no harness
+  here for warmup or forking; the first trial or two are warmup, so
+  look at the later ones.
+*/
+
+package org.opentreeoflife.smasher;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opentreeoflife.taxa.SourceTaxonomy;
+import org.opentreeoflife.taxa.Taxon;
+import org.opentreeoflife.taxa.Taxonomy;
+
+public class AlignmentBenchmark {
+
+    public static void main(String[] argv) throws Exception {
+        String targetName = (argv.length > 0 ? argv[0] : "t/tax/ncbi_aster/");
+        String sourceName = (argv.length > 1 ? argv[1] : "t/tax/gbif_aster/");
+        int trials = (argv.length > 2 ? Integer.parseInt(argv[2]) : 10);
+
+        SourceTaxonomy targetSource = Taxonomy.getTaxonomy(targetName, "ncbi");
+        SourceTaxonomy source = Taxonomy.getTaxonomy(sourceName, "gbif");
+        UnionTaxonomy union = UnionTaxonomy.newTaxonomy("ott");
+        union.absorb(targetSource);
+
+        AlignmentByName alignment = (AlignmentByName)union.alignment(source);
+        alignment.startStatistics();
+
+        List<Taxon> all = new ArrayList<Taxon>();
+        List<Taxon> ambiguous = new ArrayList<Taxon>();
+        for (Taxon node : source.taxa()) {
+            int n = alignment.getCandidates(node).size();
+            if (n > 0) all.add(node);
+            if (n > 1) ambiguous.add(node);
+        }
+        System.out.format("| %s nodes with candidates, %s with more than one\n",
+                          all.size(), ambiguous.size());
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int trial = 0; trial < trials; ++trial) {
+            for (List<Taxon> nodes : List.of(all, ambiguous)) {
+                long bytes = threads.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                int yes = 0;
+                for (Taxon node : nodes) {
+                    AlignmentByName.Decision d = alignment.decide(node);
+                    if (d != null && d.result.isYes()) ++yes;
+                }
+                long nanos = System.nanoTime() - start;
+                bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+                System.out.format("| trial %s, %s: %s ns, %s bytes per decision (%s yes)\n",
+                                  trial, (nodes == all ? "all" : "ambiguous"),
+                                  nanos / nodes.size(), bytes / nodes.size(), yes);
+            }
+        }
+        alignment.reportStatistics();
+    }
+}
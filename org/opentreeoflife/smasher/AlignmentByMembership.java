@@ -24,6 +24,8 @@ import org.opentreeoflife.taxa.Node;
 import org.opentreeoflife.taxa.Taxon;
 import org.opentreeoflife.taxa.Taxonomy;
 import org.opentreeoflife.taxa.Answer;
+import org.opentreeoflife.taxa.Traversal;
+import org.opentreeoflife.taxa.CandidateIndex;
 
 import java.util.Map;
 import java.util.HashMap;
@@ -60,17 +62,13 @@ public class AlignmentByMembership extends Alignment {
     }
 
     void reallyAlign() {
-        // Invert the name->node map: for each node, store the names by
-        // which it is known.
-        Map<Taxon, Collection<String>> sourceSynonymIndex;
-        Map<Taxon, Collection<String>> targetSynonymIndex;
-
-		sourceSynonymIndex = source.makeSynonymIndex();
-        System.out.println("sourceSynonymIndex: " + sourceSynonymIndex.size());
-		targetSynonymIndex = target.makeSynonymIndex();
-        System.out.println("targetSynonymIndex: " + targetSynonymIndex.size());
+        // Name->node maps, and their inverses: for each node, the names
+        // by which it is known.  Shared with other alignments.
+        CandidateIndex sourceIndex = source.getCandidateIndex();
+        CandidateIndex targetIndex = target.getCandidateIndex();
+
         System.out.println("a"); System.out.flush();
-        halfMap(sourceSynonymIndex, targetSynonymIndex);           // tips and mrcas
+        halfMap(sourceIndex, targetIndex);           // tips and mrcas
         System.out.println("b"); System.out.flush();
         this.alignWith(source.forest, target.forest, "align-forests");
         alignify();                // mutual-mrca
@@ -84,51 +82,47 @@ public class AlignmentByMembership extends Alignment {
     // Should we do member-mapping in one direction, name-mapping
     // in the other?
 
-    void halfMap(Map<Taxon, Collection<String>> sourceSynonymIndex,
-                 Map<Taxon, Collection<String>> targetSynonymIndex) {
+    void halfMap(CandidateIndex sourceIndex, CandidateIndex targetIndex) {
         System.out.println("halfMap");
         System.out.flush();
         for (Taxon node: source.roots())
-            halfMapSubtree(node, target, sourceSynonymIndex, sourceHalfMap);
+            halfMapSubtree(node, sourceIndex, targetIndex, sourceHalfMap);
         System.out.println("sourceHalfMap: " + sourceHalfMap.size());
         for (Taxon unode: target.roots())
-            halfMapSubtree(unode, source, targetSynonymIndex, targetHalfMap);
+            halfMapSubtree(unode, targetIndex, sourceIndex, targetHalfMap);
         System.out.println("targetHalfMap: " + targetHalfMap.size());
     }
 
     // Map tips by name, internal nodes by membership
-    Taxon halfMapSubtree(Taxon node,
-                         Taxonomy dest,
-                         Map<Taxon, Collection<String>> nameMap,
-                         Map<Taxon,Taxon> halfMap) {
-        Taxon unode = getTaxon(node); // THIS SEEMS WRONG.
-        // Alignment forced by manual intervention
-        if (unode != null) {
-            halfMap.put(node, unode);
-            return unode;
-        }
-        if (node.children != null) {
-            Taxon mrca = null;
-            for (Taxon child : node.children) {
-                Taxon a = halfMapSubtree(child, dest, nameMap, halfMap);
-                if (a != null)
-                    if (mrca == null)
-                        mrca = a;
+    Taxon halfMapSubtree(Taxon root,
+                         final CandidateIndex names,
+                         final CandidateIndex dest,
+                         final Map<Taxon,Taxon> halfMap) {
+        return Traversal.fold(root, new Traversal.Fold<Taxon>() {
+                public boolean descend(Taxon node) {
+                    // Alignment forced by manual intervention
+                    return getTaxon(node) == null; // THIS SEEMS WRONG.
+                }
+                public Taxon combine(Taxon mrca, Taxon a) {
+                    if (a == null)
+                        return mrca;
+                    else if (mrca == null)
+                        return a;
                     else
-                        mrca = mrca.mrca(a);
-            }
-            if (mrca != null) {
-                halfMap.put(node, mrca);
-                return mrca;
-            }
-            /* fall through - node is a 'virtual tip' */
-        }
-        unode = mapByName(node, nameMap, dest); //could be ambiguous
-        if (unode != null) {
-            halfMap.put(node, unode);
-            return unode;
-        } else
-            return null;
+                        return mrca.mrca(a);
+                }
+                public Taxon finish(Taxon node, Taxon mrca) {
+                    Taxon unode = getTaxon(node);
+                    if (unode == null)
+                        unode = mrca;
+                    /* otherwise node is a 'virtual tip' */
+                    if (unode == null)
+                        unode = mapByName(node, names, dest); //could be ambiguous
+                    if (unode != null)
+                        halfMap.put(node, unode);
+                    return unode;
+                }
+            });
     }
 
     // require vs. prefer:
@@ -136,19 +130,19 @@ public class AlignmentByMembership extends Alignment {
     //   same rank is preferred
 
     static Taxon mapByName(Taxon node,
-                           Map<Taxon, Collection<String>> nameMap,
-                           Taxonomy dest) {
+                           CandidateIndex names,
+                           CandidateIndex dest) {
+        CandidateIndex.Entry targetNodes = dest.get(node.name);
         {
             // First try for exact name match.
             List<Taxon> candidates = new ArrayList<Taxon>();
-            List<Node> targetNodes = dest.lookup(node.name);
             if (targetNodes != null)
-                for (Node unode : targetNodes)
-                    if (unode.taxonNameIs(node.name)) {
-                        Taxon utaxon = unode.taxon();
-                        if (!differentDivisions(node, utaxon))
-                            candidates.add(utaxon);
-                    }
+                for (int i = 0; i < targetNodes.size(); ++i) {
+                    Taxon utaxon = targetNodes.taxon(i);
+                    if (utaxon.name.equals(node.name) &&
+                        !differentDivisions(node, utaxon))
+                        candidates.add(utaxon);
+                }
             Taxon unode = tryCandidates(node, candidates);
             if (unode != null) return unode; // possibly ambiguous
         }
@@ -163,30 +157,27 @@ public class AlignmentByMembership extends Alignment {
 
             // Consider all target nodes that have this node's primary
             // name among their names
-            {
-                List<Node> targetNodes = dest.lookup(node.name);
-                if (targetNodes != null)
-                    for (Node unode : targetNodes) {
-                        Taxon utaxon = unode.taxon();
-                        if (!differentDivisions(node, utaxon))
-                            candidates.add(utaxon);
-                    }
-            }
+            if (targetNodes != null)
+                for (int i = 0; i < targetNodes.size(); ++i) {
+                    Taxon utaxon = targetNodes.taxon(i);
+                    if (!differentDivisions(node, utaxon))
+                        candidates.add(utaxon);
+                }
 
             // Consider all target nodes that have one of this nodes'
             // names as their primary name
-            Collection<String> names = nameMap.get(node);
-            if (names != null)
-                for (String name : names) {
+            Collection<String> others = names.namesOf(node);
+            if (others != null)
+                for (String name : others) {
                     if (!name.equals(node.name)) {
-                        List<Node> targetNodes = dest.lookup(name);
-                        if (targetNodes != null)
-                            for (Node unode : targetNodes)
-                                if (unode.taxonNameIs(node.name)) {
-                                    Taxon utaxon = unode.taxon();
-                                    if (!differentDivisions(node, utaxon))
-                                        candidates.add(utaxon);
-                                }
+                        CandidateIndex.Entry more = dest.get(name);
+                        if (more != null)
+                            for (int i = 0; i < more.size(); ++i) {
+                                Taxon utaxon = more.taxon(i);
+                                if (utaxon.name.equals(node.name) &&
+                                    !differentDivisions(node, utaxon))
+                                    candidates.add(utaxon);
+                            }
                     }
                 }
             return tryCandidates(node, candidates);
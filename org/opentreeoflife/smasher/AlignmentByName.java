@@ -1,5 +1,7 @@
 package org.opentreeoflife.smasher;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
@@ -12,13 +14,18 @@ import java.util.Comparator;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.io.PrintStream;
 import java.io.IOException;
 
 import org.opentreeoflife.taxa.Node;
+import org.opentreeoflife.taxa.CandidateIndex;
 import org.opentreeoflife.taxa.Taxon;
 import org.opentreeoflife.taxa.Synonym;
 import org.opentreeoflife.taxa.Taxonomy;
+import org.opentreeoflife.taxa.TreeIndex;
+import org.opentreeoflife.taxa.Traversal;
 import org.opentreeoflife.taxa.Answer;
 import org.opentreeoflife.taxa.QualifiedId;
 
@@ -38,20 +45,94 @@ public class AlignmentByName extends Alignment {
     // method is invoked from python.
 
     public void reallyAlign() {
+        AlignmentCache.Key key = (cache == null ? null : cache.key(this));
+        if (key != null && cache.load(this, key))
+            return;             // load sets the brackets and replays the log too
+        if (key != null)
+            cache.record(this, key);
         this.alignByName();
+        if (key != null)
+            cache.save(this, key);
+    }
+
+    // Saved alignments from earlier runs; see AlignmentCache
+    AlignmentCache cache = null;
+
+    void setCache(AlignmentCache cache) {
+        this.cache = cache;
+    }
+
+    // Tree index positions of the source nodes that were aligned when
+    // the brackets were assigned (after the quasi-tips), so that the
+    // cache can put the brackets back the same way
+
+    BitSet bracketed = null;
+
+    private void noteBrackets() {
+        TreeIndex index = source.getTreeIndex();
+        if (cache == null || index == null)
+            return;
+        bracketed = new BitSet(index.size());
+        for (int i = 0; i < index.size(); ++i)
+            if (getTaxon(index.get(i)) != null)
+                bracketed.set(i);
     }
 
     // Treat all taxa equally - tips same as internal - random order
 
     public void alignByName() {
+        startStatistics();
         if (EXPERIMENTALP) {
             this.tryThisOut();
-            return;
         } else {
             assignBrackets();
             for (Taxon node : source.taxa())
                 alignTaxon(node);
         }
+        reportStatistics();
+    }
+
+    // ----- Heuristic statistics and caches -----
+
+    // Only while alignByName is running; the target changes afterwards
+    LineageCache sourceLineage = null, targetLineage = null;
+
+    // Per heuristic in criteria: number of assessments, time spent
+    private LongAdder[] heuristicCalls = null, heuristicNanos = null;
+
+    void startStatistics() {
+        sourceLineage = new LineageCache(source, target);
+        targetLineage = new LineageCache(target, source);
+        heuristicCalls = new LongAdder[criteria.length];
+        heuristicNanos = new LongAdder[criteria.length];
+        for (int h = 0; h < criteria.length; ++h) {
+            heuristicCalls[h] = new LongAdder();
+            heuristicNanos[h] = new LongAdder();
+        }
+    }
+
+    void reportStatistics() {
+        for (int h = 0; h < criteria.length; ++h)
+            if (heuristicCalls[h].sum() > 0)
+                System.out.format("| %s: %s assessments, %s ms\n",
+                                  criteria[h], heuristicCalls[h].sum(),
+                                  heuristicNanos[h].sum() / 1000000);
+        reportLineage("source", sourceLineage);
+        reportLineage("target", targetLineage);
+        sourceLineage = targetLineage = null;
+        heuristicCalls = heuristicNanos = null;
+    }
+
+    // Time saved is an estimate: lookups that hits avoided, at what
+    // misses spent per lookup
+
+    private void reportLineage(String which, LineageCache cache) {
+        long hits = cache.hits.sum(), misses = cache.misses.sum();
+        if (hits + misses == 0) return;
+        long done = cache.lookupsDone.sum(), avoided = cache.lookupsAvoided.sum();
+        long saved = (done == 0 ? 0 : avoided * (cache.missNanos.sum() / done));
+        System.out.format("| lineage cache (%s): %s hits, %s misses (%s%% hits), %s lookups avoided, ~%s ms saved\n",
+                          which, hits, misses, hits * 100 / (hits + misses), avoided, saved / 1000000);
     }
 
     // Map unambiguous tips first(?), then retry ambiguous(?), then internal nodes
@@ -59,11 +140,16 @@ public class AlignmentByName extends Alignment {
     int tipMappings = 0;
 
     void tryThisOut() {
+        if (parallel && source.getTreeIndex() != null) {
+            alignParallel();
+            return;
+        }
         for (Taxon root : source.roots())
             alignTipsOnly(root);
         System.out.format("| %s quasi-tips\n", tipMappings);
         this.USE_ALIGNMENT = true;
         assignBrackets();
+        noteBrackets();
         for (Taxon root : source.roots())
             alignInternal(root);
     }
@@ -99,17 +185,112 @@ public class AlignmentByName extends Alignment {
         Answer a = getAnswer(node);
         if (a == null) {
             a = findAlignment(node);
-            if (a != null) {
-                if (a.isYes()) {
-                    alignWith(node, a.target, a);
-                    // logDivisions(a);  -- too much noise now.
-                } else
-                    this.setAnswer(node, a);
-            }
+            if (a != null)
+                storeAnswer(node, a);
         }
         return a;
     }
 
+    void storeAnswer(Taxon node, Answer a) {
+        if (a.isYes()) {
+            alignWith(node, a.target, a);
+            // logDivisions(a);  -- too much noise now.
+        } else
+            this.setAnswer(node, a);
+    }
+
+    // ----- Parallel alignment -----
+
+    // In tryThisOut, a node's answer depends only on the target, on
+    // answers from an earlier pass, and (in the first pass) on whether
+    // anything under it was aligned in this pass.  The target doesn't
+    // change while aligning.  So each pass can work out the answers
+    // for separate subtrees at the same time, as fork/join tasks,
+    // without touching the alignment.  What happens to an answer
+    // afterwards -- storing it, logging it, choicesMade -- depends on
+    // what happened before it, so that's done after the pass, on this
+    // thread, in the order that the serial version would have done it
+    // (postorder).  The result is the same as the serial version's,
+    // answer for answer, and so are the logs.
+
+    boolean parallel = false;
+
+    // Subtrees of at least this many nodes are separate tasks
+    static final int ALIGN_GRAIN = 20000;
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    void alignParallel() {
+        final TreeIndex index = source.getTreeIndex();
+        final Decision[] decisions = new Decision[index.size()];
+        // Answers use the target's tree index a lot; make it now, not
+        // in the middle of the pass
+        target.getTreeIndex();
+
+        // Quasi-tips
+        final AtomicInteger tips = new AtomicInteger();
+        Traversal.Fold<Boolean> tipsOnly = new Traversal.Fold<Boolean>() {
+                public Boolean combine(Boolean anyMapped, Boolean mapped) {
+                    return mapped || (anyMapped != null && anyMapped);
+                }
+                public Boolean finish(Taxon node, Boolean anyMapped) {
+                    if (anyMapped != null && anyMapped)
+                        return true;
+                    Answer answer = getAnswer(node);
+                    if (answer == null) {
+                        Decision d = decide(node);
+                        if (d != null) {
+                            decisions[index.position(node)] = d;
+                            answer = d.result;
+                        }
+                    }
+                    if (answer != null && answer.isYes()) {
+                        tips.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        for (Taxon root : source.roots())
+            Traversal.foldParallel(root, tipsOnly, ALIGN_GRAIN);
+        storeDecisions(decisions, index);
+        tipMappings += tips.get();
+        System.out.format("| %s quasi-tips\n", tipMappings);
+
+        this.USE_ALIGNMENT = true;
+        assignBrackets();
+        noteBrackets();
+
+        // Everything else
+        Traversal.Visitor internal = new Traversal.Visitor() {
+                public void post(Taxon node) {
+                    if (getAnswer(node) == null)
+                        decisions[index.position(node)] = decide(node);
+                }
+            };
+        for (Taxon root : source.roots())
+            Traversal.walkParallel(root, internal, ALIGN_GRAIN);
+        storeDecisions(decisions, index);
+    }
+
+    // Record and store the decisions in postorder, and clear them
+
+    private void storeDecisions(final Decision[] decisions, final TreeIndex index) {
+        Traversal.walk(source.roots(), new Traversal.Visitor() {
+                public void post(Taxon node) {
+                    int i = index.position(node);
+                    Decision d = decisions[i];
+                    if (d != null) {
+                        decisions[i] = null;
+                        record(d);
+                        storeAnswer(node, d.result);
+                    }
+                }
+            });
+    }
+
     void logDivisions(Answer a) {
         Taxon node = a.subject;
         Taxon unode = a.target;
@@ -129,148 +310,330 @@ public class AlignmentByName extends Alignment {
     // Alignment - single source taxon -> target taxon or 'no'
 
     public Answer findAlignment(Taxon node) {
-        if (node.prunedp) return null;
-        Map<Taxon, String> candidateMap = getCandidates(node);
-        if (candidateMap.size() == 0) return null;
+        Decision d = decide(node);
+        if (d == null) return null;
+        record(d);
+        return d.result;
+    }
+
+    // An answer, and what findAlignment has to say about how it was
+    // arrived at
+
+    static class Decision {
+        Taxon node;
+        Answer result;
+        boolean interesting;        // log it even if name isn't of interest
+        boolean ambiguous;
+        List<Answer[]> choices = null;   // for UnionTaxonomy.choicesMade
+
+        // For the event log: the candidates in order, what the last
+        // heuristic to look at each one said about it, and which
+        // heuristic that was if it ruled the candidate out (-1 if it
+        // didn't).  Only kept when the decision is interesting; for the
+        // others, record decides again if the log turns out to want it.
+        Taxon[] targets = null;
+        Answer[] said;
+        int[] outAt;
+
+        // Losers in the order they lost, then whatever's left
+        List<Answer> order() {
+            List<Answer> order = new ArrayList<Answer>(targets.length + 1);
+            int last = -1;
+            for (int h : outAt)
+                last = Math.max(last, h);
+            for (int h = 0; h <= last; ++h)
+                for (int i = 0; i < targets.length; ++i)
+                    if (outAt[i] == h)
+                        order.add(answer(node, targets[i], said[i]));
+            for (int i = 0; i < targets.length; ++i)
+                if (outAt[i] < 0)
+                    order.add(answer(node, targets[i], said[i]));
+            if (ambiguous)
+                order.add(result);
+            return order;
+        }
+    }
+
+    // What a heuristic said about target, as an answer about target
+
+    static Answer answer(Taxon node, Taxon target, Answer a) {
+        if (a.target != target) // a is Answer.NOINFO
+            a = new Answer(node, target, a.value, a.reason, a.witness);
+        return a;
+    }
 
-        ArrayList<Answer> initialCandidates = new ArrayList<Answer>();
-        for (Taxon cand : candidateMap.keySet())
-            initialCandidates.add(Answer.noinfo(node, cand, candidateMap.get(cand), null));
+    // Working space for decide, one per thread, so that deciding
+    // doesn't make lists and Answers for every candidate and
+    // heuristic.  Indexed by position in the sorted candidates.
 
-        Collections.sort(initialCandidates, compareAnswers);
+    private static class Scratch {
+        Taxon[] targets;
+        String[] modes;         // how each was found (see Candidates)
+        Answer[] said;          // by the heuristic now, or the one that ruled it out
+        Answer[] before;        // by the heuristic before that, or null
+        int[] outAt;
+        int[] live;             // candidates still in the running
 
-        // For logging.  Ugly names, redundant data structures, needs cleaning up.
-        List<Answer> order = new ArrayList<Answer>();
+        Scratch() {
+            allocate(8);
+        }
+
+        void ensure(int n) {
+            if (n > targets.length)
+                allocate(Math.max(n, targets.length * 2));
+        }
+
+        private void allocate(int n) {
+            targets = new Taxon[n];
+            modes = new String[n];
+            said = new Answer[n];
+            before = new Answer[n];
+            outAt = new int[n];
+            live = new int[n];
+        }
+
+        // Don't hold on to taxa between decisions
+        void clear(int n) {
+            Arrays.fill(targets, 0, n, null);
+            Arrays.fill(modes, 0, n, null);
+            Arrays.fill(said, 0, n, null);
+            Arrays.fill(before, 0, n, null);
+        }
+    }
+
+    private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+            protected Scratch initialValue() {
+                return new Scratch();
+            }
+        };
+
+    // Work out the answer for node.  Changes nothing, so safe to call
+    // from several threads at once.
+
+    Decision decide(Taxon node) {
+        return decide(node, false);
+    }
+
+    // keep = keep what the log needs even if the decision isn't
+    // interesting
+
+    Decision decide(Taxon node, boolean keep) {
+        if (node.prunedp) return null;
+        Candidates found = getCandidates(node);
+        int n = found.size();
+        if (n == 0) return null;
+
+        Scratch s = scratch.get();
+        s.ensure(n);
+        Taxon[] targets = s.targets;
+        String[] modes = s.modes;
+        Answer[] said = s.said, before = s.before;
+        int[] outAt = s.outAt, live = s.live;
+
+        // Sort the candidates, stably, as compareAnswers would.  There
+        // are seldom more than a few, so insertion sort is fine.
+        for (int i = 0; i < n; ++i) {
+            Taxon cand = found.taxon(i);
+            String mode = found.modes(i);
+            int j = i;
+            for ( ; j > 0 && targets[j-1].compareTo(cand) > 0; --j) {
+                targets[j] = targets[j-1];
+                modes[j] = modes[j-1];
+            }
+            targets[j] = cand;
+            modes[j] = mode;
+        }
+        for (int i = 0; i < n; ++i) {
+            said[i] = before[i] = null;
+            outAt[i] = -1;
+            live[i] = i;
+        }
 
         // Loop state
-        Answer anyCandidate = null;  // kludge for by-elimination
-        int count = 0;  // number of candidates that have the max value
+        int nlive = n;
+        int any = -1;   // kludge for by-elimination
         int score = -100;
-        List<Answer> candidates = initialCandidates;
         Heuristic decider = null;
+        List<Answer[]> choices = null;
 
         // Precondition: at least one candidate
 
-        for (Heuristic heuristic : criteria) {
-            List<Answer> answers = new ArrayList<Answer>(candidates.size());
+        for (int h = 0; h < criteria.length; ++h) {
+            Heuristic heuristic = criteria[h];
             score = -100;
-            for (Answer cand : candidates) {
-                Answer a = heuristic.assess(node, cand.target);
-                if (a.target != cand.target) // a is Answer.NOINFO
-                    a = new Answer(node, cand.target, a.value, a.reason, a.witness);
-                answers.add(a); // in parallel with candidates
+            for (int k = 0; k < nlive; ++k) {
+                int i = live[k];
+                Answer a;
+                if (heuristicCalls != null && !keep) {
+                    long start = System.nanoTime();
+                    a = heuristic.assess(node, targets[i], this);
+                    heuristicNanos[h].add(System.nanoTime() - start);
+                    heuristicCalls[h].increment();
+                } else
+                    a = heuristic.assess(node, targets[i], this);
+                before[i] = said[i];
+                said[i] = a;
                 if (a.value > score) {
                     score = a.value;
-                    count = 1;
-                    anyCandidate = cand;
-                } else if (a.value == score) {
-                    count++;
+                    any = i;
                 }
             }
 
             // Filter out non-high-scoring and negative candidates
-            List<Answer> winners = new ArrayList<Answer>();
-            Answer anyLoser = null;
-            for (Answer a : answers) {
-                if (a.value >= score && score >= Answer.DUNNO)
-                    winners.add(a);
+            int winners = 0, anyLoser = -1;
+            for (int k = 0; k < nlive; ++k) {
+                int i = live[k];
+                if (said[i].value >= score && score >= Answer.DUNNO)
+                    live[winners++] = i;
                 else {
-                    order.add(a);
-                    anyLoser = a;
+                    outAt[i] = h;
+                    anyLoser = i;
                 }
             }
 
             // Log which heuristic made the choice
-            if (winners.size() == 1 && candidates.size() > 1) {
+            if (winners == 1 && nlive > 1) {
                 // Hack for debugging / example selection
-                Answer winner = winners.get(0);
-                if (target instanceof UnionTaxonomy)
-                    ((UnionTaxonomy)target).choicesMade.add(new Answer[]{winner, anyLoser});
+                if (target instanceof UnionTaxonomy) {
+                    int winner = live[0];
+                    if (choices == null)
+                        choices = new ArrayList<Answer[]>(1);
+                    choices.add(new Answer[]{answer(node, targets[winner], said[winner]),
+                                             answer(node, targets[anyLoser], said[anyLoser])});
+                }
                 decider = heuristic; // ugh
             }
 
-            candidates = winners;
+            nlive = winners;
 
             // Cases in which we can stop after only some of the heuristics
-            if (winners.size() == 0 || (winners.size() == 1 && score > Answer.DUNNO))
+            if (winners == 0 || (winners == 1 && score > Answer.DUNNO))
                 break;
         }
 
-        order.addAll(candidates);
-
-        // Make an Answer to store in the alignment
+        // Make an Answer to store in the alignment.  The reason or
+        // witness for a lone survivor comes from what was said about it
+        // before the last heuristic (or how it was found, if nothing was).
+        Decision d = new Decision();
         Answer result;
-        if (candidates.size() == 0)
+        if (nlive == 0)
             result = new Answer(node, null, score, "rejected", null);
-        else if (candidates.size() == 1) {
+        else if (nlive == 1) {
+            Answer prior = before[any];
             if (decider != null)
-                result = new Answer(node, anyCandidate.target, score,
+                result = new Answer(node, targets[any], score,
                                     decider.toString(),
-                                    anyCandidate.witness);
+                                    prior == null ? null : prior.witness);
             else if (score > Answer.DUNNO)
-                result = new Answer(node, anyCandidate.target, score,
+                result = new Answer(node, targets[any], score,
                                     "confirmed",
-                                    anyCandidate.reason);
+                                    prior == null ? modes[any] : prior.reason);
             else
-                result = Answer.yes(node, anyCandidate.target, "by elimination", null);
+                result = Answer.yes(node, targets[any], "by elimination", null);
         } else {
             String r = node.hasChildren() ? "ambiguous internal" : "ambiguous tip";
-            result = Answer.noinfo(node, null, r, Integer.toString(candidates.size()));
-            order.add(result);
+            result = Answer.noinfo(node, null, r, Integer.toString(nlive));
+            d.ambiguous = true;
         }
 
-        // Decide after the fact whether the dance was interesting enough to log
-        if (initialCandidates.size() > 1 ||
-            result.isNo() ||
-            target.eventLogger.namesOfInterest.contains(node.name)) {
+        d.node = node;
+        d.result = result;
+        d.choices = choices;
+        d.interesting = (n > 1 || result.isNo());
+        if (d.interesting || keep) {
+            d.targets = Arrays.copyOf(targets, n);
+            d.said = Arrays.copyOf(said, n);
+            d.outAt = Arrays.copyOf(outAt, n);
+        }
+        s.clear(n);
+        return d;
+    }
 
-            target.eventLogger.namesOfInterest.add(node.name);
-            target.eventLogger.log(order);
+    // Note the choices, and decide after the fact whether the dance
+    // was interesting enough to log
+
+    void record(Decision d) {
+        if (d.choices != null)
+            ((UnionTaxonomy)target).choicesMade.addAll(d.choices);
+        if (d.interesting ||
+            target.eventLogger.namesOfInterest.contains(d.node.name)) {
+
+            target.eventLogger.addNameOfInterest(d.node.name);
+            // Nothing that decide looks at has changed since, so
+            // deciding again gets the same answer, with the details
+            if (d.targets == null)
+                d = decide(d.node, true);
+            target.eventLogger.log(d.order());
         }
-        return result;
     }
 
     private static boolean allowSynonymSynonymMatches = false;
 
+    // Target taxa that a source node might plausibly match, each with
+    // a note saying how it was found: C, S, G for via the node's name,
+    // a synonym, or the other gender of its name, then I or J for via
+    // a source id, then C or S for the candidate's name or a synonym.
+    // Usually there are only a few, so they're kept in the order found
+    // and searched linearly.
+
+    static class Candidates {
+        private Taxon[] taxa = new Taxon[2];
+        private String[] modes = new String[2];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        Taxon taxon(int i) {
+            return taxa[i];
+        }
+
+        String modes(int i) {
+            return modes[i];
+        }
+
+        void add(Taxon utaxon, String mode) {
+            for (int i = 0; i < size; ++i)
+                if (taxa[i] == utaxon) {
+                    modes[i] = modes[i] + " " + mode;
+                    return;
+                }
+            if (size == taxa.length) {
+                taxa = Arrays.copyOf(taxa, size * 2);
+                modes = Arrays.copyOf(modes, size * 2);
+            }
+            taxa[size] = utaxon;
+            modes[size++] = mode;
+        }
+    }
+
+    // Mode, then the modes for a candidate found by its name and by a
+    // synonym, so that the usual cases don't need to make strings
+    private static final String[] CANONICAL = {"C", "CC", "CS"};
+    private static final String[] SYNONYM = {"S", "SC", "SS"};
+    private static final String[] GENDER = {"G", "GC", "GS"};
+
     // Given a source taxonomy return, return a set of target
     // taxonomy nodes that it might plausibly match
 
-    Map<Taxon, String> getCandidates(Taxon node) {
-        Map<Taxon, String> candidateMap = new HashMap<Taxon, String>();
-        getCandidatesViaName(node, "C", candidateMap); // canonical
+    Candidates getCandidates(Taxon node) {
+        CandidateIndex index = target.getCandidateIndex();
+        Candidates candidates = new Candidates();
+        getCandidatesViaName(node, CANONICAL, index, candidates);
         for (Synonym syn : node.getSynonyms())
             if (!syn.type.equals("common name"))
-                getCandidatesViaName(syn, "S", candidateMap);
-        if (candidateMap.size() == 0)
-            getCandidatesViaGender(node, candidateMap);
-        return candidateMap;
-    }
-
-    void getCandidatesViaGender(Node node, Map<Taxon, String> candidateMap) {
-        if (node.name == null) return;
-        if (node.name.indexOf(' ') <= 0) return;
-        String altName;
-        if (node.name.endsWith("a"))
-            altName = node.name.substring(0, node.name.length()-1) + "us";
-        else if (node.name.endsWith("us"))
-            altName = node.name.substring(0, node.name.length()-2) + "a";
-        else
-            return;
-        Collection<Node> unodes = target.lookup(altName);
-        if (unodes != null)
-            for (Node unode : unodes)
-                addCandidate(candidateMap, unode, "G");
+                getCandidatesViaName(syn, SYNONYM, index, candidates);
+        if (candidates.size() == 0)
+            addCandidates(candidates, index.byGender(node.name), GENDER);
+        return candidates;
     }
 
-    void getCandidatesViaName(Node node, String mode, Map<Taxon, String> candidateMap) {
-        if (node.name != null) {
-            Collection<Node> unodes = target.lookup(node.name);
-            if (unodes != null)
-                for (Node unode : unodes)
-                    addCandidate(candidateMap, unode, mode);
-        }
+    void getCandidatesViaName(Node node, String[] modes, CandidateIndex index, Candidates candidates) {
+        addCandidates(candidates, index.get(node.name), modes);
         // Add nodes that share a qid with this one (for idsource alignment)
         if (node.sourceIds != null) {
+            String mode = modes[0];
             String mode2 = mode + "I";
             for (QualifiedId qid : node.sourceIds) {
                 Node unode = target.lookupQid(qid);
@@ -280,7 +643,7 @@ public class AlignmentByName extends Alignment {
                         String xmode = mode2 + ((utaxon.sourceIds != null &&
                                                  utaxon.sourceIds.get(0).equals(qid)) ?
                                                 "I" : "J");
-                        addCandidate(candidateMap, unode, xmode);
+                        candidates.add(utaxon, xmode + (unode instanceof Taxon ? "C" : "S"));
                     }
                 }
                 mode2 = mode + "J";
@@ -288,18 +651,13 @@ public class AlignmentByName extends Alignment {
         }
     }
 
-    void addCandidate(Map<Taxon, String> candidateMap, Node unode, String mode) {
-        Taxon utaxon = unode.taxon();
-        if (utaxon.prunedp) return;
-
-        mode = mode + (unode instanceof Taxon ? "C" : "S");
-
-        String modes = candidateMap.get(utaxon);
-        if (modes == null)
-            modes = mode;
-        else
-            modes = modes + " " + mode;
-        candidateMap.put(utaxon, modes);
+    void addCandidates(Candidates candidates, CandidateIndex.Entry entry, String[] modes) {
+        if (entry == null) return;
+        for (int i = 0; i < entry.size(); ++i) {
+            Taxon utaxon = entry.taxon(i);
+            if (!utaxon.prunedp)
+                candidates.add(utaxon, modes[entry.isSynonym(i) ? 2 : 1]);
+        }
     }
 
 	static Heuristic[] criteria = {
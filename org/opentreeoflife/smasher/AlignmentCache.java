@@ -0,0 +1,552 @@
+/*
+  Alignments saved from earlier runs, for UnionTaxonomy.alignment to
+  reuse when nothing they depend on has changed.
+
+  An alignment is a function of the source, of the part of the union
+  that aligning can see, of the answers put in by hand
+  (Alignment.same and so on) before aligning, and of which names the
+  event logger is watching.  The key is a 128-bit hash of all of
+  those.  If it matches a saved file, the answers in it are the ones
+  that aligning would find, and aligning is skipped.
+
+  The part of the union that aligning can see (the scope) is the
+  forest, every candidate of every source node, every union node that
+  a source node's name looks up to (for the lineage heuristic and the
+  brackets, see Alignment.getBracket), the targets of the answers so
+  far, and all of their ancestors.  The heuristics look at nothing
+  else: lineages only go up, divisions are inherited from above, and
+  the bracket comparisons only depend on the order of scope nodes in
+  a preorder, not on their sequence numbers.  The key takes in, for
+  each source node in preorder: its parent, name, rank, flags,
+  division, source ids, synonyms, number of children, and whether it
+  has more than 20000 descendants (which the logger cares about);
+  then the same for each scope node, with its parent as a scope
+  position; then, for each source node, its candidates with how each
+  was found, and the nodes its name looks up to; then the answers so
+  far.  So a change to a part of the union that a source can't see --
+  a curation patch, or an earlier source that changed somewhere else
+  -- leaves that source's key alone, and only the alignments that can
+  see the change are redone.  Adding or removing a root changes every
+  key, since the forest is in every scope.
+
+  Source nodes are written as positions in the source's TreeIndex,
+  union nodes as positions in the scope, and division nodes as
+  positions in the skeleton's TreeIndex (the skeleton goes into the
+  key too).  The file has a line for each answer (a, 1 if the answer
+  was there when the brackets were assigned else 0, then the answer:
+  source node, union node, value, reason, witness, and the two
+  witness nodes), and a line for each target node's comapped (c,
+  union node, source node), so that merging sees the same state that
+  aligning would have left.  The brackets are put back from the
+  answers marked 1 (see AlignmentByName.tryThisOut), before the rest
+  are stored.
+
+  After those come the alignment's effects on the reports, in the
+  order they happened: the event logger's markEvent (m, tag),
+  addNameOfInterest (n, name) and log (l, then each answer), and the
+  pairs added to UnionTaxonomy.choicesMade (h, then both answers).
+  Loading plays them back (EventLogger.replay), so that log.tsv and
+  choices.tsv come out the same whether or not the alignment was
+  reused.  Nothing is saved if some node can't be written down this
+  way.
+
+  The cache knows nothing about the heuristics themselves, so bump
+  VERSION (or clear the directory) when they change.
+*/
+
+package org.opentreeoflife.smasher;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.opentreeoflife.taxa.Answer;
+import org.opentreeoflife.taxa.EventLogger;
+import org.opentreeoflife.taxa.Node;
+import org.opentreeoflife.taxa.QualifiedId;
+import org.opentreeoflife.taxa.Synonym;
+import org.opentreeoflife.taxa.Taxon;
+import org.opentreeoflife.taxa.Taxonomy;
+import org.opentreeoflife.taxa.TreeIndex;
+
+class AlignmentCache {
+
+    static final String VERSION = "4";
+
+    private final File dir;
+
+    AlignmentCache(String dirname) {
+        this.dir = new File(dirname);
+    }
+
+    // The hash, the scope it was taken over, and what aligning did
+    // to the reports, for saving
+
+    static class Key {
+        final String hash;
+        final int[] scope;      // union tree index positions, in order
+        List<EventLogger.Event> events = null;
+        int choices = 0;        // choicesMade before aligning
+
+        Key(String hash, int[] scope) {
+            this.hash = hash;
+            this.scope = scope;
+        }
+    }
+
+    // Key for the alignment as it is now, just before aligning, or
+    // null if it can't have one
+
+    Key key(AlignmentByName a) {
+        TreeIndex sindex = a.source.getTreeIndex();
+        TreeIndex tindex = a.target.getTreeIndex();
+        if (sindex == null || tindex == null)
+            return null;
+
+        // The scope: what aligning can see of the union
+        BitSet seen = new BitSet(tindex.size());
+        see(a.target.forest, tindex, seen);
+        for (int i = 1; i < sindex.size(); ++i) {
+            Taxon node = sindex.get(i);
+            AlignmentByName.Candidates found = a.getCandidates(node);
+            for (int j = 0; j < found.size(); ++j)
+                if (!see(found.taxon(j), tindex, seen))
+                    return null;
+            Taxon unique = lookups(node, a.target, tindex, seen);
+            if (unique != null && !tindex.contains(unique))
+                return null;    // a bracket we can't account for
+            Answer answer = a.getAnswer(node);
+            if (answer != null && answer.target != null && !see(answer.target, tindex, seen))
+                return null;
+        }
+        int[] scope = seen.stream().toArray();
+
+        EventLogger log = a.target.eventLogger;
+        Fingerprint f = new Fingerprint();
+        f.add(VERSION);
+        for (Heuristic h : AlignmentByName.criteria)
+            f.add(h.toString());
+        f.add(a.source.idspace);
+        f.add(a.target.idspace);
+
+        Taxon[] snodes = new Taxon[sindex.size()];
+        int[] sparents = new int[sindex.size()];
+        for (int i = 0; i < snodes.length; ++i) {
+            snodes[i] = sindex.get(i);
+            sparents[i] = (snodes[i].parent == null ? -1 : sindex.position(snodes[i].parent));
+        }
+        digest(snodes, sparents, log, f);
+
+        Taxon[] tnodes = new Taxon[scope.length];
+        int[] tparents = new int[scope.length];
+        for (int j = 0; j < scope.length; ++j) {
+            tnodes[j] = tindex.get(scope[j]);
+            tparents[j] = (tnodes[j].parent == null ? -1 : where(tnodes[j].parent, tindex, scope));
+        }
+        digest(tnodes, tparents, log, f);
+
+        TreeIndex kindex = skeletonIndex(a);
+        if (kindex != null) {
+            Taxon[] knodes = new Taxon[kindex.size()];
+            int[] kparents = new int[kindex.size()];
+            for (int i = 0; i < knodes.length; ++i) {
+                knodes[i] = kindex.get(i);
+                kparents[i] = (knodes[i].parent == null ? -1 : kindex.position(knodes[i].parent));
+            }
+            digest(knodes, kparents, null, f);
+        } else
+            f.add(-1);
+
+        // What each source node's names lead to
+        for (int i = 1; i < sindex.size(); ++i) {
+            Taxon node = sindex.get(i);
+            AlignmentByName.Candidates found = a.getCandidates(node);
+            f.add(found.size());
+            for (int j = 0; j < found.size(); ++j) {
+                f.add(where(found.taxon(j), tindex, scope));
+                f.add(found.modes(j));
+            }
+            List<Node> probe = a.target.lookup(node.name);
+            if (probe != null) {
+                f.add(probe.size());
+                for (Node n : probe)
+                    f.add(where(n.taxon(), tindex, scope));
+            } else {
+                f.add(-2);
+                Taxon t = (node.name == null ? null : a.target.lookupId(node.name));
+                f.add(t == null ? -1 : where(t, tindex, scope));
+            }
+        }
+
+        for (int i = 0; i < sindex.size(); ++i) {
+            Answer answer = a.getAnswer(sindex.get(i));
+            if (answer != null) {
+                f.add(i);
+                f.add(answer.target == null ? -1 : where(answer.target, tindex, scope));
+                f.add(answer.value);
+                f.add(answer.reason);
+                f.add(answer.witness);
+            }
+        }
+        return new Key(f.toString(), scope);
+    }
+
+    // Add node and its ancestors to the scope.  false if node isn't
+    // in the tree index.
+
+    private static boolean see(Taxon node, TreeIndex tindex, BitSet seen) {
+        for ( ; node != null; node = node.parent) {
+            int p = tindex.position(node);
+            if (p < 0)
+                return false;
+            if (seen.get(p))
+                break;
+            seen.set(p);
+        }
+        return true;
+    }
+
+    // Add the union nodes that node's name looks up to, the way the
+    // lineage heuristic and Taxonomy.unique do.  Returns what unique
+    // would.
+
+    private static Taxon lookups(Taxon node, Taxonomy target, TreeIndex tindex, BitSet seen) {
+        List<Node> probe = target.lookup(node.name);
+        if (probe != null) {
+            for (Node n : probe)
+                see(n.taxon(), tindex, seen);
+            return (probe.size() == 1 ? probe.get(0).taxon() : null);
+        } else if (node.name != null) {
+            Taxon t = target.lookupId(node.name);
+            if (t != null)
+                see(t, tindex, seen);
+            return t;
+        } else
+            return null;
+    }
+
+    // Position of node in the scope, or -1
+
+    private static int where(Taxon node, TreeIndex tindex, int[] scope) {
+        int p = tindex.position(node);
+        if (p < 0)
+            return -1;
+        int j = Arrays.binarySearch(scope, p);
+        return (j < 0 ? -1 : j);
+    }
+
+    private static TreeIndex skeletonIndex(Alignment a) {
+        if (!(a.target instanceof UnionTaxonomy))
+            return null;
+        Alignment s = ((UnionTaxonomy)a.target).skeletonAlignment;
+        return (s == null ? null : s.source.getTreeIndex());
+    }
+
+    // nodes are in preorder; parents[i] is the position in nodes of
+    // the parent of nodes[i]
+
+    private static void digest(Taxon[] nodes, int[] parents, EventLogger log, Fingerprint f) {
+        f.add(nodes.length);
+        // Division of the node at each position, without making
+        // getDivision cache anything
+        String[] divisions = new String[nodes.length];
+        for (int i = 0; i < nodes.length; ++i) {
+            Taxon node = nodes[i];
+            int p = parents[i];
+            Taxon division = node.getDivisionProper();
+            if (division != null)
+                divisions[i] = (division.name == null ? "" : division.name);
+            else
+                divisions[i] = (p < 0 ? "" : divisions[p]);
+
+            f.add(p);
+            f.add(node.name);
+            f.add(node.id);
+            f.add(node.rank == null ? null : node.rank.name);
+            f.add(node.properFlags);
+            f.add(node.inferredFlags);
+            f.add(divisions[i]);
+            if (node.sourceIds != null) {
+                f.add(node.sourceIds.size());
+                for (QualifiedId qid : node.sourceIds) {
+                    f.add(qid.prefix);
+                    f.add(qid.id);
+                }
+            } else
+                f.add(0);
+            f.add(node.getSynonyms().size());
+            for (Synonym syn : node.getSynonyms()) {
+                f.add(syn.name);
+                f.add(syn.type);
+            }
+            f.add(node.children == null ? -1 : node.children.size());
+            f.add(node.count() > 20000 ? 1 : 0);
+            if (log != null && node.name != null) {
+                f.add(log.namesOfInterest.contains(node.name) ? 1 : 0);
+                f.add(log.hasSublog(node.name) ? 1 : 0);
+            }
+        }
+    }
+
+    // 128 bits, from two 64-bit hashes that mix differently.  Not a
+    // cryptographic hash, but nobody's trying to make two taxonomies
+    // collide.  A string goes in as its length and a 64-bit FNV-1a
+    // hash of all of its characters, so two different names give the
+    // same key only by a 64-bit accident.
+
+    private static class Fingerprint {
+        private long h1 = 17, h2 = 37;
+
+        void add(long x) {
+            h1 = (h1 + x) * 0x9E3779B97F4A7C15L;
+            h2 = (h2 ^ x) * 0xC2B2AE3D27D4EB4FL;
+            h2 ^= (h2 >>> 29);
+        }
+
+        void add(String s) {
+            if (s == null) {
+                add(-1);
+                return;
+            }
+            long h = 0xCBF29CE484222325L;
+            for (int i = 0; i < s.length(); ++i)
+                h = (h ^ s.charAt(i)) * 0x100000001B3L;
+            add(s.length());
+            add(h);
+        }
+
+        public String toString() {
+            return String.format("%016x%016x", h1, h2);
+        }
+    }
+
+    private File file(Key key) {
+        return new File(dir, key.hash + ".tsv");
+    }
+
+    // Start noting what aligning does to the reports, for save
+
+    void record(AlignmentByName a, Key key) {
+        key.events = new ArrayList<EventLogger.Event>();
+        a.target.eventLogger.recording = key.events;
+        if (a.target instanceof UnionTaxonomy)
+            key.choices = ((UnionTaxonomy)a.target).choicesMade.size();
+    }
+
+    // Put the saved answers into a, if there are any, and replay what
+    // aligning did to the reports.  All or nothing.
+
+    boolean load(AlignmentByName a, Key key) {
+        File file = file(key);
+        if (!file.exists())
+            return false;
+        Nodes nodes = new Nodes(a, key);
+        List<Answer> answers = new ArrayList<Answer>();
+        List<Answer> bracketed = new ArrayList<Answer>();
+        List<Taxon[]> comapped = new ArrayList<Taxon[]>();
+        List<EventLogger.Event> events = new ArrayList<EventLogger.Event>();
+        List<Answer[]> choices = new ArrayList<Answer[]>();
+        try (BufferedReader in = Taxonomy.fileReader(file)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] row = line.split("\t", -1);
+                if (row[0].equals("a") && row.length == 2 + ANSWER_WIDTH)
+                    (row[1].equals("1") ? bracketed : answers).add(nodes.answer(row, 2));
+                else if (row[0].equals("c") && row.length == 3)
+                    comapped.add(new Taxon[]{nodes.taxon(row[1]), nodes.taxon(row[2])});
+                else if (row[0].equals("m") && row.length == 2)
+                    events.add(new EventLogger.Event(row[1], null, null));
+                else if (row[0].equals("n") && row.length == 2)
+                    events.add(new EventLogger.Event(null, row[1], null));
+                else if (row[0].equals("l") && (row.length - 1) % ANSWER_WIDTH == 0) {
+                    List<Answer> logged = new ArrayList<Answer>();
+                    for (int i = 1; i < row.length; i += ANSWER_WIDTH)
+                        logged.add(nodes.answer(row, i));
+                    events.add(new EventLogger.Event(null, null, logged));
+                } else if (row[0].equals("h") && row.length == 1 + 2 * ANSWER_WIDTH)
+                    choices.add(new Answer[]{nodes.answer(row, 1),
+                                             nodes.answer(row, 1 + ANSWER_WIDTH)});
+                else {
+                    System.err.format("** Bad line in %s: %s\n", file, line);
+                    return false;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.format("** Couldn't read %s: %s\n", file, e);
+            return false;
+        }
+        // Brackets as aligning left them: from the answers that were
+        // there after the quasi-tips, not from all of them
+        for (Answer answer : bracketed)
+            a.setAnswer(answer.subject, answer);
+        if (a.EXPERIMENTALP) a.USE_ALIGNMENT = true;
+        a.assignBrackets();
+        for (Answer answer : answers)
+            a.setAnswer(answer.subject, answer);
+        for (Taxon[] pair : comapped)
+            pair[0].comapped = pair[1];
+        a.target.eventLogger.replay(events);
+        if (a.target instanceof UnionTaxonomy)
+            ((UnionTaxonomy)a.target).choicesMade.addAll(choices);
+        System.out.format("| Reused %s answers from %s\n", bracketed.size() + answers.size(), file);
+        return true;
+    }
+
+    // Save a's answers and what aligning did to the reports under
+    // key.  Nothing is saved if something can't be written down.
+
+    void save(AlignmentByName a, Key key) {
+        a.target.eventLogger.recording = null;
+        TreeIndex sindex = a.source.getTreeIndex();
+        Nodes nodes = new Nodes(a, key);
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < sindex.size(); ++i) {
+            Answer answer = a.getAnswer(sindex.get(i));
+            if (answer != null) {
+                boolean bracketed = (a.bracketed != null && a.bracketed.get(i));
+                lines.add("a\t" + (bracketed ? 1 : 0) + "\t" + nodes.string(answer));
+            }
+        }
+        if (lines.size() != a.size()) {
+            System.out.format("| Not saving alignment of %s: answers for nodes not in the tree\n",
+                              a.source.getTag());
+            return;
+        }
+        for (int t = 0; t < key.scope.length; ++t) {
+            Taxon node = nodes.tindex.get(key.scope[t]).comapped;
+            // Left over from some other alignment, so aligning
+            // didn't set it, and neither will loading
+            if (node != null && node.taxonomy == a.source && sindex.position(node) >= 0)
+                lines.add(String.format("c\tt%s\ts%s", t, sindex.position(node)));
+        }
+        for (EventLogger.Event event : key.events) {
+            if (event.tag != null)
+                lines.add("m\t" + nodes.writable(event.tag));
+            else if (event.name != null)
+                lines.add("n\t" + nodes.writable(event.name));
+            else {
+                StringBuilder line = new StringBuilder("l");
+                for (Answer answer : event.answers)
+                    line.append("\t").append(nodes.string(answer));
+                lines.add(line.toString());
+            }
+        }
+        if (a.target instanceof UnionTaxonomy) {
+            List<Answer[]> choices = ((UnionTaxonomy)a.target).choicesMade;
+            for (Answer[] choice : choices.subList(key.choices, choices.size()))
+                lines.add("h\t" + nodes.string(choice[0]) + "\t" + nodes.string(choice[1]));
+        }
+        if (nodes.trouble != null) {
+            System.out.format("| Not saving alignment of %s: can't save %s\n",
+                              a.source.getTag(), nodes.trouble);
+            return;
+        }
+        dir.mkdirs();
+        File file = file(key);
+        File temp = new File(dir, key.hash + ".tmp");
+        try (PrintStream out = Taxonomy.openw(temp.getPath())) {
+            for (String line : lines)
+                out.println(line);
+        } catch (IOException e) {
+            System.err.format("** Couldn't write %s: %s\n", temp, e);
+            return;
+        }
+        temp.renameTo(file);
+    }
+
+    // Fields in an answer: subject, target, value, reason, witness, bert, ernie
+    private static final int ANSWER_WIDTH = 7;
+
+    // Writing and reading nodes and answers.  A node is s, t or k (for
+    // source, scope, skeleton) and a position, or empty for null.
+    // Writing notes the first thing that can't be written in trouble.
+
+    private static class Nodes {
+        final Taxonomy source, target, skeleton;
+        final TreeIndex sindex, tindex, kindex;
+        final int[] scope;
+        String trouble = null;
+
+        Nodes(AlignmentByName a, Key key) {
+            source = a.source;
+            target = a.target;
+            sindex = a.source.getTreeIndex();
+            tindex = a.target.getTreeIndex();
+            kindex = skeletonIndex(a);
+            skeleton = (kindex == null ? null : ((UnionTaxonomy)a.target).skeletonAlignment.source);
+            scope = key.scope;
+        }
+
+        String string(Answer answer) {
+            return String.format("%s\t%s\t%s\t%s\t%s\t%s\t%s",
+                                 string(answer.subject), string(answer.target), answer.value,
+                                 writable(answer.reason), writable(answer.witness),
+                                 string(answer.bert), string(answer.ernie));
+        }
+
+        Answer answer(String[] row, int i) {
+            Answer answer = new Answer(taxon(row[i]), taxon(row[i+1]), Integer.parseInt(row[i+2]),
+                                       unstring(row[i+3]), unstring(row[i+4]));
+            answer.bert = taxon(row[i+5]);
+            answer.ernie = taxon(row[i+6]);
+            return answer;
+        }
+
+        String string(Taxon node) {
+            if (node == null)
+                return "";
+            int p = -1;
+            String prefix = null;
+            if (node.taxonomy == source) {
+                p = sindex.position(node);
+                prefix = "s";
+            } else if (node.taxonomy == target) {
+                p = where(node, tindex, scope);
+                prefix = "t";
+            } else if (node.taxonomy == skeleton) {
+                p = kindex.position(node);
+                prefix = "k";
+            }
+            if (p < 0) {
+                if (trouble == null)
+                    trouble = node.toString();
+                return "";
+            }
+            return prefix + p;
+        }
+
+        Taxon taxon(String s) {
+            if (s.length() == 0)
+                return null;
+            int p = Integer.parseInt(s.substring(1));
+            switch (s.charAt(0)) {
+            case 's': return sindex.get(p);
+            case 't': return tindex.get(scope[p]);
+            case 'k': return kindex.get(p);
+            default: throw new RuntimeException("bad node " + s);
+            }
+        }
+
+        // null is written as \N
+
+        String writable(String s) {
+            if (s == null)
+                return "\\N";
+            if (s.indexOf('\t') >= 0 || s.indexOf('\n') >= 0 || s.equals("\\N")) {
+                if (trouble == null)
+                    trouble = s;
+                return "";
+            }
+            return s;
+        }
+    }
+
+    private static String unstring(String s) {
+        return (s.equals("\\N") ? null : s);
+    }
+}
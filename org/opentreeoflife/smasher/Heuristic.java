@@ -10,6 +10,9 @@ import org.opentreeoflife.taxa.Rank;
 import org.opentreeoflife.taxa.Taxonomy;
 import org.opentreeoflife.taxa.Answer;
 import org.opentreeoflife.taxa.QualifiedId;
+import org.opentreeoflife.taxa.QualifiedIdList;
+
+import java.util.List;
 
 abstract class Heuristic {
 
@@ -17,6 +20,12 @@ abstract class Heuristic {
 
 	abstract Answer assess(Taxon x, Taxon target);
 
+    // Same, with the alignment that's asking, for heuristics that can
+    // use what it caches
+    Answer assess(Taxon x, Taxon target, AlignmentByName alignment) {
+        return assess(x, target);
+    }
+
     String informative;
 
     Heuristic() {
@@ -111,8 +120,13 @@ abstract class Heuristic {
 		new Heuristic() {
 			public String toString() { return "by lineage"; }
 			Answer assess(Taxon x, Taxon target) {
-				Taxon y0 = scan(target, x.taxonomy);	  // ignore names not known in both taxonomies
-				Taxon x0 = scan(x, target.taxonomy);
+                return assess(x, target, null);
+            }
+			Answer assess(Taxon x, Taxon target, AlignmentByName alignment) {
+				Taxon y0 = scan(target, x.taxonomy,	  // ignore names not known in both taxonomies
+                                (alignment == null ? null : alignment.targetLineage));
+				Taxon x0 = scan(x, target.taxonomy,
+                                (alignment == null ? null : alignment.sourceLineage));
 				if (x0 == null || y0 == null)
 					return Answer.NOINFO;
 				if (x0.name == null)
@@ -134,8 +148,9 @@ abstract class Heuristic {
 		};
 
 	// Find a near-ancestor (parent, grandparent, etc) node that's in
-	// common with the other taxonomy
-	Taxon scan(Taxon node, Taxonomy other) {
+	// common with the other taxonomy.  cache, if not null, is for
+	// node's taxonomy and other.
+	Taxon scan(Taxon node, Taxonomy other, LineageCache cache) {
         // if (!node.isPlaced()) return null; // Protozoa
 
 		Taxon up = node.parent;
@@ -145,6 +160,9 @@ abstract class Heuristic {
 		while (up != null && (up.name == null || node.name.startsWith(up.name)))
 			up = up.parent;
 
+        if (cache != null)
+            return cache.get(up);
+
 		while (up != null && (up.name == null || other.lookup(up.name) == null))
 			up = up.parent;
 
@@ -271,13 +289,12 @@ abstract class Heuristic {
                 if (x.sourceIds == null) return Answer.NOINFO;
                 if (target.sourceIds == null) return Answer.NOINFO;
 
-                boolean firstxy = true;
-                for (QualifiedId xsourceid : x.sourceIds)
-                    for (QualifiedId ysourceid : target.sourceIds) {
-                        if (!firstxy && xsourceid.equals(ysourceid))
+                // Skip the first pair (x's and target's primary ids)
+                List<QualifiedId> xsourceids = x.sourceIds, ysourceids = target.sourceIds;
+                for (int i = 0; i < xsourceids.size(); ++i)
+                    for (int j = (i == 0 ? 1 : 0); j < ysourceids.size(); ++j)
+                        if (QualifiedIdList.same(xsourceids, i, ysourceids, j))
                             return Answer.yes(x, target, "same/any-source-id", null);
-                        firstxy = false;
-                    }
 				return Answer.NOINFO;
 			}
 		};
@@ -0,0 +1,110 @@
+/*
+  For each node of a taxonomy, the nearest node at or above it whose
+  name is known in another taxonomy.  This is the expensive part of
+  Heuristic.scan, which the lineage heuristic does for the source node
+  and for every candidate: without a cache, all the species of a big
+  genus repeat the same walk up the tree, with a name lookup at every
+  step, for every candidate.
+
+  Filled in lazily.  A miss walks up to the nearest node that is
+  either known or already cached, and caches the answer for every node
+  on the way.  Entries are kept by position in the taxonomy's
+  TreeIndex; nodes not in it (there shouldn't be any while aligning)
+  are looked up the slow way.
+
+  Neither taxonomy may change while the cache is in use.  Several
+  threads may use it at once (see AlignmentByName.alignParallel): two
+  of them may fill in the same entry, but always with the same value.
+*/
+
+package org.opentreeoflife.smasher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opentreeoflife.taxa.Taxon;
+import org.opentreeoflife.taxa.Taxonomy;
+import org.opentreeoflife.taxa.TreeIndex;
+
+class LineageCache {
+
+    private final Taxonomy other;
+    private final TreeIndex index;
+    private final Taxon[] known;    // null = not yet, none = no such node
+    private final int[] steps;      // lookups an uncached walk would do
+    private final Taxon none;
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder lookupsDone = new LongAdder();      // by misses
+    final LongAdder lookupsAvoided = new LongAdder();   // by hits
+    final LongAdder missNanos = new LongAdder();
+
+    LineageCache(Taxonomy taxonomy, Taxonomy other) {
+        this.other = other;
+        this.index = taxonomy.getTreeIndex();
+        this.known = (index == null ? null : new Taxon[index.size()]);
+        this.steps = (index == null ? null : new int[index.size()]);
+        this.none = taxonomy.forest;     // has no name, so is never an answer
+    }
+
+    // Nearest node at or above node whose name is in other, or null
+
+    Taxon get(Taxon node) {
+        if (node == null)
+            return null;
+        if (known == null || !index.contains(node))
+            return walk(node);
+        int i = index.position(node);
+        Taxon k = known[i];
+        if (k != null) {
+            hits.increment();
+            lookupsAvoided.add(steps[i]);
+            return (k == none ? null : k);
+        }
+        long start = System.nanoTime();
+        List<Taxon> path = new ArrayList<Taxon>();
+        Taxon up = node, found;
+        int more = 0;           // lookups from the end of path up
+        while (true) {
+            if (up == null) {
+                found = none;
+                break;
+            }
+            int j = index.position(up);
+            if (known[j] != null) {
+                found = known[j];
+                more = steps[j];
+                break;
+            }
+            path.add(up);
+            if (isKnown(up)) {
+                found = up;
+                break;
+            }
+            up = up.parent;
+        }
+        // From path[p], an uncached walk does n - p lookups, plus more
+        int n = path.size();
+        for (int p = 0; p < n; ++p) {
+            int j = index.position(path.get(p));
+            steps[j] = n - p + more;
+            known[j] = found;
+        }
+        misses.increment();
+        lookupsDone.add(n);
+        missNanos.add(System.nanoTime() - start);
+        return (found == none ? null : found);
+    }
+
+    private Taxon walk(Taxon up) {
+        while (up != null && !isKnown(up))
+            up = up.parent;
+        return up;
+    }
+
+    private boolean isKnown(Taxon node) {
+        return node.name != null && other.lookup(node.name) != null;
+    }
+}
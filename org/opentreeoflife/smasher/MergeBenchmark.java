@@ -0,0 +1,69 @@
+/*
+  Time MergeMachine.augment on sources with very wide nodes.
+
+  java org.opentreeoflife.smasher.MergeBenchmark [width]
+
+  Source a has a genus with width species.  Source b has the same
+  genus, split into subgenera of 100 species each, half of them a's
+  and half new, plus width/10 extra roots.  Merging b into the union
+  of a adds a child to the genus or to the forest for each new node,
+  and moves a's species from the genus into the subgenera (detach then
+  addChild), so the cost of those on a node with many children is
+  what's being measured.
+*/
+
+package org.opentreeoflife.smasher;
+
+import org.opentreeoflife.taxa.Rank;
+import org.opentreeoflife.taxa.SourceTaxonomy;
+import org.opentreeoflife.taxa.Taxon;
+import org.opentreeoflife.taxa.Taxonomy;
+
+public class MergeBenchmark {
+
+    public static void main(String[] argv) throws Exception {
+        int width = (argv.length > 0 ? Integer.parseInt(argv[0]) : 50000);
+
+        SourceTaxonomy a = new SourceTaxonomy("a");
+        Taxon genus = node(a, "Wideus", "genus", "1", a.newTaxon("life", null, null));
+        for (int i = 0; i < width; ++i)
+            node(a, "Wideus a" + i, "species", Integer.toString(10 + i), genus);
+        a.postLoadActions();
+
+        SourceTaxonomy b = new SourceTaxonomy("b");
+        Taxon life = b.newTaxon("life", null, null);
+        genus = node(b, "Wideus", "genus", "1", life);
+        Taxon subgenus = null;
+        for (int i = 0; i < width; ++i) {
+            if (i % 100 == 0)
+                subgenus = node(b, "Wideus subgenus " + i, "subgenus", "s" + i, genus);
+            node(b, (i % 2 == 0 ? "Wideus a" + i : "Wideus b" + i), "species",
+                 Integer.toString(10 + i), subgenus);
+        }
+        for (int i = 0; i < width / 10; ++i)
+            b.addRoot(node(b, "Rootus r" + i, "species", "r" + i, null));
+        b.postLoadActions();
+        System.out.format("| width %s; a has %s nodes, b has %s\n", width, a.count(), b.count());
+
+        UnionTaxonomy union = UnionTaxonomy.newTaxonomy("ott");
+        union.absorb(a);
+        long start = System.nanoTime();
+        Alignment alignment = union.alignment(b);
+        union.align(alignment);
+        long align = System.nanoTime() - start;
+        start = System.nanoTime();
+        union.merge(alignment);
+        long merge = System.nanoTime() - start;
+        System.out.format("| align %s ms, merge %s ms; union has %s nodes, %s roots\n",
+                          align / 1000000, merge / 1000000, union.count(), union.rootCount());
+    }
+
+    static Taxon node(Taxonomy tax, String name, String rank, String id, Taxon parent) {
+        Taxon node = new Taxon(tax, name);
+        node.rank = Rank.getRank(rank);
+        node.setId(id);
+        if (parent != null)
+            parent.addChild(node);
+        return node;
+    }
+}
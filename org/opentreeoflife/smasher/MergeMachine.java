@@ -455,8 +455,10 @@ class MergeMachine {
             unode.setName(node.name);
 
 		if (unode.rank == Rank.NO_RANK || unode.rank == Rank.CLUSTER_RANK)
-            if (node.rank != null)
+            if (node.rank != null) {
+                unode.changing();
                 unode.rank = node.rank;
+            }
 
 		unode.addFlag(node.flagsToAdd(unode));
 
@@ -14,6 +14,10 @@ package org.opentreeoflife.smasher;
 
 import org.opentreeoflife.taxa.Taxonomy;
 import org.opentreeoflife.taxa.SourceTaxonomy;
+import org.opentreeoflife.taxa.NewickTest;
+import org.opentreeoflife.taxa.IdIndexTest;
+import org.opentreeoflife.taxa.QidIndexTest;
+import org.opentreeoflife.taxa.HistoryTest;
 import org.opentreeoflife.taxa.Taxon;
 import org.opentreeoflife.taxa.TsvEdits;
 
@@ -181,6 +185,10 @@ public class Smasher {
 		Taxonomy tax = Taxonomy.getTaxonomy("(a,b,(e,f)c)d", "z");
 		for (Taxon node : tax.taxa())
 			System.out.println(node);
+		NewickTest.test();
+		IdIndexTest.test(1);
+		QidIndexTest.test(1);
+		HistoryTest.test(1);
 	}
 
 	static void join(String afile, String bfile) throws IOException {
@@ -12,6 +12,8 @@ import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.List;
@@ -30,6 +32,7 @@ import org.opentreeoflife.taxa.Node;
 import org.opentreeoflife.taxa.Taxon;
 import org.opentreeoflife.taxa.Taxonomy;
 import org.opentreeoflife.taxa.SourceTaxonomy;
+import org.opentreeoflife.taxa.History;
 import org.opentreeoflife.taxa.Answer;
 import org.opentreeoflife.taxa.QualifiedId;
 import org.opentreeoflife.taxa.Flag;
@@ -48,7 +51,7 @@ public class UnionTaxonomy extends Taxonomy {
 
     public Map<String, Integer> alignmentSummary = new HashMap<String, Integer>();
     public Map<String, Integer> mergeSummary = new HashMap<String, Integer>();
-    public List<Answer[]> choicesMade = new ArrayList<Answer[]>();
+    public List<Answer[]> choicesMade = Collections.synchronizedList(new ArrayList<Answer[]>());
 
     public int blustery = 1;
 
@@ -121,11 +124,26 @@ public class UnionTaxonomy extends Taxonomy {
       If 2. is empty, then 1+3+4 can be expressed as .absorb(source)
       */
 
+    // Work out name-based alignments for separate subtrees of a source
+    // in parallel (see AlignmentByName.alignParallel).  Same result.
+    public boolean parallelAlignment = false;  // set from jython
+
+    // Reuse alignments saved in this directory by earlier runs, where
+    // neither the source nor the parts of the union that it can see
+    // have changed since
+    private AlignmentCache alignmentCache = null;
+
+    public void setAlignmentCache(String dirname) { // called from jython
+        this.alignmentCache = (dirname == null ? null : new AlignmentCache(dirname));
+    }
+
 	public Alignment alignment(SourceTaxonomy source) { // called from jython
         if (source.idspace == null)
             setIdspace(source);
         source.setEventLogger(this.eventLogger);
-        Alignment a = new AlignmentByName(source, this);
+        AlignmentByName a = new AlignmentByName(source, this);
+        a.setParallel(this.parallelAlignment);
+        a.setCache(this.alignmentCache);
         // Don't clear divisions - sometimes they're set manually before this point
         // source.clearDivisions(); // division determinations are cached in nodes
         // source.forest.setDivision(this.skeletonAlignment.source.forest);
@@ -166,6 +184,8 @@ public class UnionTaxonomy extends Taxonomy {
             fixMergeSummary(a);
             this.check();
             this.sources.add(source);
+            if (this.snapshotEachMerge)
+                this.snapshot(source.getTag());
         } catch (Exception e) {
             e.printStackTrace();
             throw e;
@@ -224,6 +244,66 @@ public class UnionTaxonomy extends Taxonomy {
     }
 
 
+    // ----- Snapshots -----
+
+    // The union as it stood at some point during assembly, e.g. after
+    // each merge, to be dumped or compared (dumpDifferences) while
+    // assembly goes on.  Nodes are shared with the union: taking a
+    // snapshot only starts a new version of the union's History, and
+    // from then on a node's old state is saved the first time it
+    // changes.  That costs one saved state (about 240 bytes with its
+    // children, synonyms and source ids) for each node changed since
+    // the oldest snapshot, however many snapshots there are, instead
+    // of a copy of the union per snapshot.  getSnapshot makes a copy
+    // of the union as it was, which is not kept.  Only the last
+    // maxSnapshots are kept; taking another drops the oldest, along
+    // with the states that only it could see.
+    //
+    // There's no rolling back to a snapshot, since the union's
+    // alignments and indexes aren't in it.  To get the union as it
+    // was after some merge, run assembly again up to that point;
+    // with an alignment cache (setAlignmentCache) the alignments
+    // don't have to be redone.
+
+    public boolean snapshotEachMerge = false;  // set from jython
+    public int maxSnapshots = 3;               // set from jython
+    Map<String, Integer> snapshots = new LinkedHashMap<String, Integer>();
+
+	public void snapshot(String tag) { // called from jython
+        History history = this.getHistory();
+        this.dropSnapshot(tag);
+        this.snapshots.put(tag, history.snapshot());
+        Iterator<String> tags = this.snapshots.keySet().iterator();
+        while (this.snapshots.size() > Math.max(maxSnapshots, 1)) {
+            String oldest = tags.next();
+            history.drop(this.snapshots.get(oldest));
+            tags.remove();
+            System.out.format("| Dropped snapshot %s\n", oldest);
+        }
+    }
+
+    // Copy of the union as it was when the snapshot with the given
+    // tag was taken, or after merging the source with that tag; null
+    // if there isn't one, or it has been dropped
+
+	public Taxonomy getSnapshot(String tag) { // called from jython
+        Integer s = this.snapshots.get(tag);
+        if (s == null) return null;
+        Taxonomy snap = this.getHistory().taxonomy(s);
+        snap.setTag(tag);
+        return snap;
+    }
+
+	public Collection<String> snapshotTags() {
+        return this.snapshots.keySet();
+    }
+
+	public void dropSnapshot(String tag) {
+        Integer s = this.snapshots.remove(tag);
+        if (s != null)
+            this.getHistory().drop(s);
+    }
+
     // Abbreviation for u.alignment(source) + u.absorb(source, a)
     // for when there are no ad-hoc alignments.
 	public Alignment absorb(SourceTaxonomy source) { // called from jython
@@ -409,16 +489,7 @@ public class UnionTaxonomy extends Taxonomy {
 
     // The highest numbered id of any taxon in the taxonomy (including merged ids).
 	public static long maxid(Taxonomy tax) {
-		long maxid = -1;
-		for (String id : tax.allIds()) {
-            try {
-                long idAsLong = Long.parseLong(id);
-                if (idAsLong > maxid) maxid = idAsLong;
-            } catch (NumberFormatException e) {
-                ;
-            }
-		}
-		return maxid;
+		return tax.maxid();
 	}
 
     // Prefer lower-numbered ids, when there is a choice
@@ -177,8 +177,10 @@ public class Addition {
                 String rankname = (String)description.get("rank");
                 if (rankname != null) {
                     Rank rank = Rank.getRank(rankname);
-                    if (rank != null)
+                    if (rank != null) {
+                        target.changing();
                         target.rank = rank; // should complain if not valid
+                    }
                 }
                 if (!originalp && additionSource != null)
                     target.addSourceId(new QualifiedId(additionSource, ott_id));
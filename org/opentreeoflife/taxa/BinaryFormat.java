@@ -0,0 +1,600 @@
+/*
+  Binary snapshot of a taxonomy, for fast reloading.
+
+  A designator of the form foo.ottbin refers to a snapshot of the
+  interim format taxonomy in foo/.  The snapshot records a checksum of
+  the files in foo/ as of when it was made; if they have changed, or
+  the snapshot doesn't exist yet, the taxonomy is loaded from foo/ and
+  the snapshot is (re)written.
+
+  Layout (DataOutputStream, all counts are ints):
+    header: magic, version, postload flag, idspace as requested,
+      idspace as loaded, checksum of inputs
+    string table
+    properties (about.json) as a string
+    taxa, in preorder, forest first: columns for parent index, name,
+      id, rank, proper flags, inferred flags, source ids
+    synonyms: columns for taxon index, name, type, id, source ids
+    id index: id, node  (covers forwards / aliases)
+    name index: name, nodes  (keeps the order of homonym lists)
+    detached taxa: name, id, source ids
+    events: tags and counts in the order first seen, names of
+      interest, sublogs (answers: subject, target, value, reason,
+      witness, bert, ernie), and the names that go to each sublog
+  Strings are written as indexes into the string table, -1 for null.
+  Nodes are written as taxon indexes, or -1-k for synonym k.
+
+  The events are the ones that loading and postLoadActions reported
+  to the taxonomy's event logger (markEvent), so that a taxonomy from
+  a snapshot has the same event counts and log as one loaded from
+  text.  An answer can be about a taxon that's no longer in the tree
+  (e.g. one that handleParentChildHomonyms got rid of); such taxa
+  are written in the detached taxa table, and an answer refers to
+  detached taxon k as -2-k (-1 is null).  On reload they become
+  Taxon objects with just a name, id and source ids, outside the
+  tree and the indexes.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class BinaryFormat {
+
+    static final int MAGIC = 0x4f545442;    // OTTB
+    static final int VERSION = 2;
+
+    static final String SUFFIX = ".ottbin";
+
+    // Files in the interim format directory that go into the checksum
+    static final String[] INPUTS = {"about.json", "taxonomy.tsv", "taxonomy",
+                                    "synonyms.tsv", "forwards.tsv"};
+
+    Taxonomy tax;
+
+    BinaryFormat(Taxonomy tax) {
+        this.tax = tax;
+    }
+
+    // Get taxonomy from snapshot, making or remaking the snapshot if needed.
+    // postload = the snapshot is of the taxonomy after postLoadActions
+
+    static SourceTaxonomy getTaxonomy(String designator, String idspace,
+                                      boolean postload, boolean parallel)
+        throws IOException {
+        String dirname = designator.substring(0, designator.length() - SUFFIX.length()) + "/";
+        File snapshot = new File(designator);
+        long checksum = inputChecksum(dirname);
+
+        if (snapshot.exists()) {
+            SourceTaxonomy tax = new SourceTaxonomy(idspace);
+            System.out.println("--- Reading " + designator + " ---");
+            if (new BinaryFormat(tax).load(snapshot, idspace, postload, checksum))
+                return tax;
+        }
+
+        if (checksum == 0) {
+            System.err.format("** No taxonomy in %s, and no usable snapshot %s\n",
+                              dirname, designator);
+            throw new java.io.FileNotFoundException(dirname);
+        }
+        SourceTaxonomy tax = (postload ?
+                              Taxonomy.getTaxonomy(dirname, idspace, parallel) :
+                              Taxonomy.getRawTaxonomy(dirname, idspace, parallel));
+        new BinaryFormat(tax).dump(snapshot, idspace, postload, checksum);
+        return tax;
+    }
+
+    // CRC of the input files, or 0 if there are none
+
+    static long inputChecksum(String dirname) throws IOException {
+        CRC32 crc = new CRC32();
+        boolean any = false;
+        byte[] buf = new byte[1 << 16];
+        for (String name : INPUTS) {
+            File file = new File(dirname + name);
+            if (!file.exists()) continue;
+            if (!name.equals("about.json")) any = true;
+            crc.update(name.getBytes(StandardCharsets.UTF_8));
+            InputStream in = new FileInputStream(file);
+            try {
+                int n;
+                while ((n = in.read(buf)) > 0)
+                    crc.update(buf, 0, n);
+            } finally {
+                in.close();
+            }
+        }
+        return (any ? crc.getValue() + 1 : 0);
+    }
+
+    // Write snapshot
+
+    void dump(File snapshot, String requestedIdspace, boolean postload, long checksum)
+        throws IOException {
+        // Write to a temporary file first so that a concurrent reader
+        // never sees a partial snapshot
+        File temp = new File(snapshot.getPath() + ".tmp");
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeBoolean(postload);
+        out.writeUTF(requestedIdspace == null ? "" : requestedIdspace);
+        out.writeUTF(tax.idspace == null ? "" : tax.idspace);
+        out.writeLong(checksum);
+
+        // Number the nodes
+        List<Taxon> taxa = preorder();
+        Map<Node, Integer> index = new HashMap<Node, Integer>();
+        for (int i = 0; i < taxa.size(); ++i)
+            index.put(taxa.get(i), i);
+        List<Synonym> synonyms = new ArrayList<Synonym>();
+        for (Taxon node : taxa)
+            for (Synonym syn : node.getSynonyms()) {
+                index.put(syn, -1 - synonyms.size());
+                synonyms.add(syn);
+            }
+
+        // String table
+        StringTable strings = new StringTable();
+        String properties = (tax.properties == null ? null : tax.properties.toJSONString());
+        strings.add(properties);
+        for (Taxon node : taxa) {
+            strings.add(node.name);
+            strings.add(node.id);
+            strings.add(node.rank.name);
+            strings.addSourceIds(node);
+        }
+        for (Synonym syn : synonyms) {
+            strings.add(syn.name);
+            strings.add(syn.type);
+            strings.add(syn.id);
+            strings.addSourceIds(syn);
+        }
+        List<String> ids = new ArrayList<String>();
+        for (String id : tax.allIds()) {
+            Node node = tax.getNodeById(id);
+            if (node != null && index.containsKey(node)) {
+                ids.add(id);
+                strings.add(id);
+            }
+        }
+        for (String name : tax.allNames())
+            strings.add(name);
+        EventLogger logger = tax.eventLogger;
+        List<List<Answer>> sublogs = sublogs(logger);
+        List<Taxon> detached = new ArrayList<Taxon>();
+        Map<Taxon, Integer> detachedIndex = new HashMap<Taxon, Integer>();
+        if (logger != null) {
+            for (String tag : logger.eventStatNames)
+                strings.add(tag);
+            for (String name : logger.namesOfInterest)
+                strings.add(name);
+            for (String name : logger.sublogs.keySet())
+                strings.add(name);
+            for (List<Answer> answers : sublogs)
+                for (Answer answer : answers) {
+                    strings.add(answer.reason);
+                    strings.add(answer.witness);
+                    for (Taxon node : new Taxon[]{answer.subject, answer.target,
+                                                  answer.bert, answer.ernie})
+                        if (node != null && !index.containsKey(node) &&
+                            !detachedIndex.containsKey(node)) {
+                            detachedIndex.put(node, detached.size());
+                            detached.add(node);
+                            strings.add(node.name);
+                            strings.add(node.id);
+                            strings.addSourceIds(node);
+                        }
+                }
+        }
+        strings.write(out);
+
+        out.writeInt(strings.get(properties));
+
+        // Taxa
+        out.writeInt(taxa.size());
+        for (Taxon node : taxa)
+            out.writeInt(node.parent == null ? -1 : index.get(node.parent));
+        for (Taxon node : taxa)
+            out.writeInt(strings.get(node.name));
+        for (Taxon node : taxa)
+            out.writeInt(strings.get(node.id));
+        for (Taxon node : taxa)
+            out.writeInt(strings.get(node.rank.name));
+        for (Taxon node : taxa)
+            out.writeInt(node.properFlags);
+        for (Taxon node : taxa)
+            out.writeInt(node.inferredFlags);
+        for (Taxon node : taxa)
+            strings.writeSourceIds(node, out);
+
+        // Synonyms
+        out.writeInt(synonyms.size());
+        for (Synonym syn : synonyms)
+            out.writeInt(index.get(syn.parent));
+        for (Synonym syn : synonyms)
+            out.writeInt(strings.get(syn.name));
+        for (Synonym syn : synonyms)
+            out.writeInt(strings.get(syn.type));
+        for (Synonym syn : synonyms)
+            out.writeInt(strings.get(syn.id));
+        for (Synonym syn : synonyms)
+            strings.writeSourceIds(syn, out);
+
+        // Id index
+        out.writeInt(ids.size());
+        for (String id : ids) {
+            out.writeInt(strings.get(id));
+            out.writeInt(index.get(tax.getNodeById(id)));
+        }
+
+        // Name index
+        out.writeInt(tax.numberOfNames());
+        for (String name : tax.allNames()) {
+            List<Node> nodes = tax.lookup(name);
+            int count = 0;
+            for (Node node : nodes)
+                if (index.containsKey(node)) ++count;
+            out.writeInt(strings.get(name));
+            out.writeInt(count);
+            for (Node node : nodes)
+                if (index.containsKey(node))
+                    out.writeInt(index.get(node));
+        }
+
+        // Detached taxa
+        out.writeInt(detached.size());
+        for (Taxon node : detached) {
+            out.writeInt(strings.get(node.name));
+            out.writeInt(strings.get(node.id));
+            strings.writeSourceIds(node, out);
+        }
+
+        // Events
+        if (logger == null) {
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt(0);
+        } else {
+            out.writeInt(logger.eventStatNames.size());
+            for (String tag : logger.eventStatNames) {
+                out.writeInt(strings.get(tag));
+                out.writeLong(logger.eventStats.get(tag));
+            }
+            out.writeInt(logger.namesOfInterest.size());
+            for (String name : logger.namesOfInterest)
+                out.writeInt(strings.get(name));
+            Map<List<Answer>, Integer> sublogIndex = new IdentityHashMap<List<Answer>, Integer>();
+            out.writeInt(sublogs.size());
+            for (List<Answer> answers : sublogs) {
+                sublogIndex.put(answers, sublogIndex.size());
+                out.writeInt(answers.size());
+                for (Answer answer : answers) {
+                    out.writeInt(answerNode(answer.subject, index, detachedIndex));
+                    out.writeInt(answerNode(answer.target, index, detachedIndex));
+                    out.writeInt(answer.value);
+                    out.writeInt(strings.get(answer.reason));
+                    out.writeInt(strings.get(answer.witness));
+                    out.writeInt(answerNode(answer.bert, index, detachedIndex));
+                    out.writeInt(answerNode(answer.ernie, index, detachedIndex));
+                }
+            }
+            out.writeInt(logger.sublogs.size());
+            for (Map.Entry<String, List<Answer>> entry : logger.sublogs.entrySet()) {
+                out.writeInt(strings.get(entry.getKey()));
+                out.writeInt(sublogIndex.get(entry.getValue()));
+            }
+        }
+
+        out.close();
+        if (!temp.renameTo(snapshot))
+            System.err.format("** Could not rename %s to %s\n", temp, snapshot);
+        else
+            System.out.format("| Wrote snapshot %s (%s taxa, %s synonyms)\n",
+                              snapshot, taxa.size() - 1, synonyms.size());
+    }
+
+    // The logger's distinct sublogs (one list can serve several names).
+    // Compared by identity, since two sublogs can be equal as lists.
+
+    static List<List<Answer>> sublogs(EventLogger logger) {
+        List<List<Answer>> sublogs = new ArrayList<List<Answer>>();
+        if (logger != null) {
+            Map<List<Answer>, Boolean> seen = new IdentityHashMap<List<Answer>, Boolean>();
+            for (List<Answer> answers : logger.sublogs.values())
+                if (seen.put(answers, true) == null)
+                    sublogs.add(answers);
+        }
+        return sublogs;
+    }
+
+    static int answerNode(Taxon node, Map<Node, Integer> index, Map<Taxon, Integer> detachedIndex) {
+        if (node == null)
+            return -1;
+        Integer i = index.get(node);
+        return (i != null ? i : -2 - detachedIndex.get(node));
+    }
+
+    // Forest first, then every taxon after its parent, children in order
+    List<Taxon> preorder() {
+        List<Taxon> taxa = new ArrayList<Taxon>();
+        List<Taxon> stack = new ArrayList<Taxon>();
+        stack.add(tax.forest);
+        while (stack.size() > 0) {
+            Taxon node = stack.remove(stack.size() - 1);
+            taxa.add(node);
+            if (node.children != null) {
+                List<Taxon> children = new ArrayList<Taxon>(node.children);
+                for (int i = children.size() - 1; i >= 0; --i)
+                    stack.add(children.get(i));
+            }
+        }
+        return taxa;
+    }
+
+    static class StringTable {
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        List<String> strings = new ArrayList<String>();
+
+        void add(String s) {
+            if (s != null && !index.containsKey(s)) {
+                index.put(s, strings.size());
+                strings.add(s);
+            }
+        }
+
+        void addSourceIds(Node node) {
+            if (node.sourceIds != null)
+                for (QualifiedId qid : node.sourceIds) {
+                    add(qid.prefix);
+                    add(qid.id);
+                }
+        }
+
+        int get(String s) {
+            return (s == null ? -1 : index.get(s));
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        // -1 for null list, otherwise count followed by prefix, id pairs
+        void writeSourceIds(Node node, DataOutputStream out) throws IOException {
+            if (node.sourceIds == null)
+                out.writeInt(-1);
+            else {
+                out.writeInt(node.sourceIds.size());
+                for (QualifiedId qid : node.sourceIds) {
+                    out.writeInt(get(qid.prefix));
+                    out.writeInt(get(qid.id));
+                }
+            }
+        }
+    }
+
+    // Read snapshot.  Returns false, having done nothing to the
+    // taxonomy, if the snapshot is stale or from a different version.
+
+    boolean load(File snapshot, String requestedIdspace, boolean postload, long checksum)
+        throws IOException {
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC) {
+                System.err.format("** Not a taxonomy snapshot: %s\n", snapshot);
+                return false;
+            }
+            if (in.readInt() != VERSION) {
+                System.out.format("| Snapshot %s is from a different version, remaking\n", snapshot);
+                return false;
+            }
+            boolean wasPostload = in.readBoolean();
+            String wasRequested = in.readUTF();
+            String idspace = in.readUTF();
+            long wasChecksum = in.readLong();
+            if (wasPostload != postload ||
+                !wasRequested.equals(requestedIdspace == null ? "" : requestedIdspace)) {
+                System.out.format("| Snapshot %s was made with different options, remaking\n", snapshot);
+                return false;
+            }
+            if (checksum != 0 && wasChecksum != checksum) {
+                System.out.format("| Snapshot %s is stale, remaking\n", snapshot);
+                return false;
+            }
+            if (checksum == 0)
+                System.err.format("** Inputs for %s not found; using snapshot as is\n", snapshot);
+            if (idspace.length() > 0)
+                tax.idspace = idspace;
+            loadProper(in);
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    void loadProper(DataInputStream in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        byte[] buf = new byte[256];
+        for (int i = 0; i < strings.length; ++i) {
+            int len = in.readInt();
+            if (len > buf.length) buf = new byte[len];
+            in.readFully(buf, 0, len);
+            strings[i] = new String(buf, 0, len, StandardCharsets.UTF_8);
+        }
+
+        String properties = string(strings, in.readInt());
+        if (properties != null) {
+            try {
+                JSONObject json = (JSONObject)(new JSONParser().parse(properties));
+                if (json != null) tax.properties = json;
+            } catch (ParseException e) {
+                System.err.println(e);
+            }
+        }
+
+        // Taxa.  taxa[0] is the forest.
+        Taxon[] taxa = new Taxon[in.readInt()];
+        taxa[0] = tax.forest;
+        for (int i = 1; i < taxa.length; ++i)
+            taxa[i] = new Taxon(tax, null);
+        for (int i = 0; i < taxa.length; ++i) {
+            int p = in.readInt();
+            if (p >= 0) {
+                Taxon node = taxa[i], parent = taxa[p];
+                node.parent = parent;
+                if (parent.children == Taxon.NO_CHILDREN)
+                    parent.children = new ChildList();
+                parent.children.add(node);
+            }
+        }
+        for (Taxon node : taxa)
+            node.name = Symbols.intern(string(strings, in.readInt()));  // indexed below
+        for (Taxon node : taxa)
+            node.id = string(strings, in.readInt());    // indexed below
+        for (Taxon node : taxa) {
+            Rank rank = Rank.getRank(string(strings, in.readInt()));
+            node.rank = (rank == null ? Rank.NO_RANK : rank);
+        }
+        for (Taxon node : taxa)
+            node.properFlags = in.readInt();
+        for (Taxon node : taxa)
+            node.inferredFlags = in.readInt();
+        for (Taxon node : taxa)
+            node.sourceIds = readSourceIds(strings, in);
+
+        // Synonyms
+        Synonym[] synonyms = new Synonym[in.readInt()];
+        for (int i = 0; i < synonyms.length; ++i)
+            synonyms[i] = new Synonym(taxa[in.readInt()]);   // not yet named
+        for (Synonym syn : synonyms)
+            syn.name = Symbols.intern(string(strings, in.readInt()));   // indexed below
+        for (Synonym syn : synonyms)
+            syn.type = Symbols.intern(string(strings, in.readInt()));
+        for (Synonym syn : synonyms)
+            syn.id = string(strings, in.readInt());
+        for (Synonym syn : synonyms)
+            syn.sourceIds = readSourceIds(strings, in);
+        for (Synonym syn : synonyms)
+            syn.parent.appendSynonym(syn);
+
+        // Id index
+        int nids = in.readInt();
+        for (int i = 0; i < nids; ++i) {
+            String id = strings[in.readInt()];
+            tax.addId(node(taxa, synonyms, in.readInt()), id);
+        }
+
+        // Name index
+        int nnames = in.readInt();
+        for (int i = 0; i < nnames; ++i) {
+            String name = strings[in.readInt()];
+            int count = in.readInt();
+            for (int j = 0; j < count; ++j)
+                tax.addToNameIndex(node(taxa, synonyms, in.readInt()), name);
+        }
+
+        // Detached taxa
+        Taxon[] detached = new Taxon[in.readInt()];
+        for (int i = 0; i < detached.length; ++i) {
+            Taxon node = new Taxon(tax, null);    // not in the name index
+            node.name = Symbols.intern(string(strings, in.readInt()));
+            node.id = string(strings, in.readInt());
+            node.sourceIds = readSourceIds(strings, in);
+            detached[i] = node;
+        }
+
+        // Events
+        EventLogger logger = tax.eventLogger;
+        if (logger == null)
+            logger = new EventLogger();     // read and drop
+        int ntags = in.readInt();
+        for (int i = 0; i < ntags; ++i) {
+            String tag = strings[in.readInt()];
+            long count = in.readLong();
+            if (logger.eventStats.put(tag, count) == null)
+                logger.eventStatNames.add(tag);
+        }
+        int ninteresting = in.readInt();
+        for (int i = 0; i < ninteresting; ++i)
+            logger.namesOfInterest.add(strings[in.readInt()]);
+        List<List<Answer>> sublogs = new ArrayList<List<Answer>>();
+        int nsublogs = in.readInt();
+        for (int i = 0; i < nsublogs; ++i) {
+            int n = in.readInt();
+            List<Answer> answers = new ArrayList<Answer>(n);
+            for (int j = 0; j < n; ++j) {
+                Taxon subject = answerNode(taxa, detached, in.readInt());
+                Taxon target = answerNode(taxa, detached, in.readInt());
+                int value = in.readInt();
+                String reason = string(strings, in.readInt());
+                String witness = string(strings, in.readInt());
+                Answer answer = new Answer(subject, target, value, reason,
+                                           answerNode(taxa, detached, in.readInt()),
+                                           answerNode(taxa, detached, in.readInt()));
+                answer.witness = witness;
+                answers.add(answer);
+            }
+            sublogs.add(answers);
+        }
+        int nlogged = in.readInt();
+        for (int i = 0; i < nlogged; ++i) {
+            String name = string(strings, in.readInt());
+            logger.sublogs.put(name, sublogs.get(in.readInt()));
+        }
+        System.out.format("| %s taxa, %s synonyms from snapshot\n",
+                          taxa.length - 1, synonyms.length);
+    }
+
+    static String string(String[] strings, int i) {
+        return (i < 0 ? null : strings[i]);
+    }
+
+    static Node node(Taxon[] taxa, Synonym[] synonyms, int i) {
+        return (i >= 0 ? taxa[i] : synonyms[-1 - i]);
+    }
+
+    static Taxon answerNode(Taxon[] taxa, Taxon[] detached, int i) {
+        return (i >= 0 ? taxa[i] : (i == -1 ? null : detached[-2 - i]));
+    }
+
+    static List<QualifiedId> readSourceIds(String[] strings, DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) return null;
+        List<QualifiedId> qids = new QualifiedIdList(n);
+        for (int i = 0; i < n; ++i) {
+            String prefix = string(strings, in.readInt());
+            String id = string(strings, in.readInt());
+            qids.add(new QualifiedId(prefix, id));
+        }
+        return qids;
+    }
+}
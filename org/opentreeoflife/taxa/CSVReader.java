@@ -12,47 +12,45 @@ import java.io.Reader;
 import java.io.IOException;
 import java.io.Closeable;
 import java.util.regex.Pattern;
-import java.util.Scanner;
 import java.util.List;
 import java.util.ArrayList;
 
-// s.nextLine()
-
-
 // having this implement Iterable<String[]> would be nice...
 
 public class CSVReader implements Closeable {
 
     Reader reader;
-    Scanner scanner;
+    FieldCursor cursor;
 
     public CSVReader(Reader reader) {
         this.reader = reader;
-        this.scanner = new Scanner(reader);
+        this.cursor = new FieldCursor(reader);
     }
 
     static final char SEP = ',';
     static final char QUOTE = '"';
 
     public String[] readNext() throws IOException {
-        if (!scanner.hasNext()) return null;
-        String line = scanner.nextLine();
-        if (line == null) return null;
+        // Skip blank lines, which would otherwise turn into [""]
+        do {
+            if (!cursor.nextLine()) return null;
+        } while (cursor.isBlankLine());
 
-        int i = 0;
-        int stop = line.length();
-        List<String> result = new ArrayList<String>();
-        StringBuilder bu = new StringBuilder();
+        char[] line = cursor.buf;
+        int i = cursor.lineStart;
+        int stop = cursor.lineEnd;
+        result.clear();
+        bu.setLength(0);
         while (i < stop) {
-            char c = line.charAt(i++);
+            char c = line[i++];
             if (c == SEP) {
                 result.add(bu.toString());
                 bu.setLength(0);
             } else if (c == QUOTE)
                 while (i < stop) {
-                    c = line.charAt(i++);
+                    c = line[i++];
                     if (c == QUOTE) {
-                        if ((i+1) < stop && line.charAt(i+1) == QUOTE)
+                        if ((i+1) < stop && line[i+1] == QUOTE)
                             i++;
                         else
                             break;
@@ -67,6 +65,8 @@ public class CSVReader implements Closeable {
     }
 
     private final String[] dummy = new String[]{};
+    private final List<String> result = new ArrayList<String>();
+    private final StringBuilder bu = new StringBuilder();
 
     public void close() throws IOException {
         reader.close();
@@ -0,0 +1,131 @@
+/*
+  The nodes of a taxonomy by name, as candidates for alignment
+  (AlignmentByName.getCandidates, AlignmentByMembership.mapByName).
+
+  For a name, get gives the taxa that have it, in lookup order, each
+  marked with whether the name is the taxon's own or one of its
+  synonyms.  That's what lookup gives, but packed into arrays and with
+  the Synonym-to-Taxon step already done; alignment asks for the same
+  names (the genus part of every binomial, common synonyms) over and
+  over, once per source node and again for each of its synonyms.
+  Entries are made the first time a name is asked for.
+
+  byGender gives the candidates for the other gender of a binomial
+  (Foo bara <-> Foo barus), for sources that spell it differently.
+  The variant is just another name, so it goes through get too.
+
+  namesOf is the inverse of the name index: the names (own and
+  synonyms) by which each taxon is known.  It's made all at once,
+  the first time it's asked for.
+
+  Taxonomy keeps one of these for the names as they are now, shared by
+  every alignment against the taxonomy, and drops it when a name is
+  added to or removed from the name index (see Taxonomy.namesChanged).
+  Pruning doesn't go through the name index (see Taxon.prunedp), so
+  callers still need to skip pruned taxa.  Safe for use by several
+  threads at once.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class CandidateIndex {
+
+    public static class Entry {
+        private final Taxon[] taxa;
+        private final boolean[] synonym;
+
+        Entry(List<Node> nodes) {
+            int n = nodes.size();
+            taxa = new Taxon[n];
+            synonym = new boolean[n];
+            for (int i = 0; i < n; ++i) {
+                Node node = nodes.get(i);
+                taxa[i] = node.taxon();
+                synonym[i] = !(node instanceof Taxon);
+            }
+        }
+
+        public int size() {
+            return taxa.length;
+        }
+
+        public Taxon taxon(int i) {
+            return taxa[i];
+        }
+
+        // Is the name a synonym of taxon(i), as opposed to its name?
+        public boolean isSynonym(int i) {
+            return synonym[i];
+        }
+    }
+
+    private final Taxonomy taxonomy;
+    private final Map<String, Entry> byName = new ConcurrentHashMap<String, Entry>();
+    private volatile Map<Taxon, Collection<String>> names = null;
+
+    CandidateIndex(Taxonomy taxonomy) {
+        this.taxonomy = taxonomy;
+    }
+
+    // Taxa having the name, or null if none
+
+    public Entry get(String name) {
+        if (name == null) return null;
+        Entry entry = byName.get(name);
+        if (entry == null) {
+            List<Node> nodes = taxonomy.lookup(name);
+            if (nodes == null) return null;
+            entry = new Entry(nodes);
+            byName.put(name, entry);
+        }
+        return entry;
+    }
+
+    // Taxa having the other gender of a binomial, or null
+
+    public Entry byGender(String name) {
+        if (name == null) return null;
+        if (name.indexOf(' ') <= 0) return null;
+        if (name.endsWith("a"))
+            return get(name.substring(0, name.length()-1) + "us");
+        else if (name.endsWith("us"))
+            return get(name.substring(0, name.length()-2) + "a");
+        else
+            return null;
+    }
+
+    // Names by which taxon is known, or null
+
+    public Collection<String> namesOf(Taxon taxon) {
+        Map<Taxon, Collection<String>> names = this.names;
+        if (names == null) {
+            synchronized (this) {
+                if (this.names == null)
+                    this.names = invert();
+                names = this.names;
+            }
+        }
+        return names.get(taxon);
+    }
+
+    private Map<Taxon, Collection<String>> invert() {
+		Map<Taxon, Collection<String>> nameMap = new HashMap<Taxon, Collection<String>>();
+		for (String name : taxonomy.allNames())
+			for (Node node : taxonomy.lookup(name)) {
+				Collection<String> names = nameMap.get(node.taxon());
+				if (names == null) {
+					names = new ArrayList<String>(1);
+					nameMap.put(node.taxon(), names);
+				}
+				names.add(name);
+			}
+		return nameMap;
+    }
+}
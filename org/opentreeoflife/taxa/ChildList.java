@@ -0,0 +1,157 @@
+/*
+  The children of a node (Taxon.children), in the order they were
+  added.
+
+  With an ArrayList, addChild's check for a redundant child and
+  detach's removal are linear in the number of children, which hurts
+  for genera with tens of thousands of species and for the forest
+  during a merge.  Here each child remembers where it is in its
+  parent's array (Taxon.siblingIndex; a node has only one parent), so
+  both are constant time.  Removal leaves a hole instead of shifting
+  the rest down, which keeps the order of the others; the holes are
+  squeezed out when they're half the array, or when the array is full.
+  Iteration skips holes, and so does get, which is linear when there
+  are any.  So get isn't random access while there are holes: a
+  binary search over a wide node with holes (TreeIndex.childToward)
+  would be O(k log k), which is why childToward checks hasHoles and
+  walks up from the descendant instead.  Reading never changes the
+  list, so as with ArrayList, concurrent readers are safe.
+
+  Iterators are fail-fast, as ArrayList's are.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+class ChildList extends AbstractList<Taxon> implements RandomAccess {
+
+    private Taxon[] slots;
+    private int used = 0;       // slots in use, including holes
+    private int size = 0;       // children
+
+    ChildList() {
+        slots = new Taxon[4];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(Object o) {
+        if (!(o instanceof Taxon)) return false;
+        int i = ((Taxon)o).siblingIndex;
+        return i >= 0 && i < used && slots[i] == o;
+    }
+
+    public boolean add(Taxon child) {
+        if (used == slots.length) {
+            if (used - size > used / 4)
+                compact();
+            else
+                slots = Arrays.copyOf(slots, used * 2);
+        }
+        child.siblingIndex = used;
+        slots[used++] = child;
+        ++size;
+        ++modCount;
+        return true;
+    }
+
+    public boolean remove(Object o) {
+        if (!contains(o)) return false;
+        clear(((Taxon)o).siblingIndex);
+        ++modCount;
+        if ((used - size) * 2 > used)
+            compact();
+        return true;
+    }
+
+    // If so, get is linear rather than constant time
+
+    boolean hasHoles() {
+        return used != size;
+    }
+
+    public Taxon get(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException(Integer.toString(i));
+        if (used == size)
+            return slots[i];
+        for (int j = 0; ; ++j)
+            if (slots[j] != null && i-- == 0)
+                return slots[j];
+    }
+
+    public Taxon remove(int i) {
+        Taxon child = get(i);
+        remove(child);
+        return child;
+    }
+
+    public Iterator<Taxon> iterator() {
+        return new Iterator<Taxon>() {
+            private int next = skip(0);
+            private int last = -1;
+            private int expected = modCount;
+
+            public boolean hasNext() {
+                return next < used;
+            }
+            public Taxon next() {
+                if (modCount != expected)
+                    throw new ConcurrentModificationException();
+                if (next >= used)
+                    throw new NoSuchElementException();
+                last = next;
+                next = skip(next + 1);
+                return slots[last];
+            }
+            // Leaves a hole, so that positions don't change under us
+            public void remove() {
+                if (last < 0)
+                    throw new IllegalStateException();
+                if (modCount != expected)
+                    throw new ConcurrentModificationException();
+                clear(last);
+                last = -1;
+                expected = ++modCount;
+            }
+        };
+    }
+
+    private int skip(int i) {
+        while (i < used && slots[i] == null) ++i;
+        return i;
+    }
+
+    private void clear(int i) {
+        slots[i].siblingIndex = -1;
+        slots[i] = null;
+        --size;
+        // Holes at the end can just be dropped
+        while (used > 0 && slots[used - 1] == null)
+            --used;
+    }
+
+    // Squeeze out the holes.  The order of the children stays the same,
+    // but their positions change, so this counts as a modification as
+    // far as iterators are concerned.
+
+    private void compact() {
+        int j = 0;
+        for (int i = 0; i < used; ++i)
+            if (slots[i] != null) {
+                slots[i].siblingIndex = j;
+                slots[j++] = slots[i];
+            }
+        Arrays.fill(slots, j, used, null);
+        used = j;
+        ++modCount;
+    }
+}
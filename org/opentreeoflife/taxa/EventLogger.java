@@ -14,12 +14,54 @@ import java.io.PrintStream;
 
 public class EventLogger {
 
-	private Map<String, List<Answer>> sublogs = new HashMap<String, List<Answer>>();
+	// Several names can share a sublog.  Not private, so that BinaryFormat can save it.
+	Map<String, List<Answer>> sublogs = new HashMap<String, List<Answer>>();
 	private List<Answer> currentLog = null;
 
     // this gets filled in by jython code ...
     public Set<String> namesOfInterest = new HashSet<String>();
 
+    // Watch what happens to name from now on
+    public void addNameOfInterest(String name) {
+        if (this.recording != null)
+            this.recording.add(new Event(null, name, null));
+        this.namesOfInterest.add(name);
+    }
+
+    public boolean hasSublog(String name) {
+        return this.sublogs.get(name) != null;
+    }
+
+    // While recording isn't null, everything that changes the logger's
+    // state -- markEvent, addNameOfInterest, log -- is noted in it, in
+    // order, so that replay can do it all again later.  For alignments
+    // reused from a cache (see smasher.AlignmentCache).
+
+    public List<Event> recording = null;
+
+    // One of: markEvent(tag), addNameOfInterest(name), log(answers)
+    public static class Event {
+        public final String tag;
+        public final String name;
+        public final List<Answer> answers;
+
+        public Event(String tag, String name, List<Answer> answers) {
+            this.tag = tag;
+            this.name = name;
+            this.answers = answers;
+        }
+    }
+
+    public void replay(List<Event> events) {
+        for (Event event : events)
+            if (event.tag != null)
+                this.markEvent(event.tag);
+            else if (event.name != null)
+                this.addNameOfInterest(event.name);
+            else
+                this.log(event.answers);
+    }
+
     // Log if interesting.
 
     public boolean maybeLog(Answer answer) {
@@ -45,7 +87,7 @@ public class EventLogger {
     void maybeLog(Answer answer, Taxon abject, boolean infirstfew) {
         if (abject != null && abject.name != null) {
             if (infirstfew)
-                this.namesOfInterest.add(abject.name); // watch it play out
+                this.addNameOfInterest(abject.name); // watch it play out
             if (this.namesOfInterest.contains(abject.name) ||
                 infirstfew ||
                 abject.count() > 20000 ||
@@ -73,6 +115,8 @@ public class EventLogger {
     // first name occurring in the answer sequence, and use it.
 
     public void log(Collection<Answer> answers) {
+        if (this.recording != null)
+            this.recording.add(new Event(null, null, new ArrayList<Answer>(answers)));
         List<Answer> lg = null;
         for (Answer answer : answers) {
             lg = getLog(answer);
@@ -180,6 +224,8 @@ public class EventLogger {
 	List<String> eventStatNames = new ArrayList<String>();
 
 	boolean markEvent(String tag) { // formerly startReport
+        if (this.recording != null)
+            this.recording.add(new Event(tag, null, null));
 		Long probe = this.eventStats.get(tag);
 		long count;
 		if (probe == null) {
@@ -0,0 +1,241 @@
+/*
+  Reusable cursor over the lines and fields of a delimited text file.
+
+  Lines are read into a buffer that is shared from one line to the
+  next, and fields are located in place.  A String is only created
+  when a caller asks for the value of a particular field, so columns
+  that are never looked at cost nothing.
+
+  Lines end in \n, \r, or \r\n, as for BufferedReader.readLine.
+  Fields are split on \t, or on \t|\t (with the final \t optional),
+  with the same result as tabOnly.split / tabVbarTab.split in
+  InterimFormat: trailing empty fields are not counted.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.io.Reader;
+import java.io.IOException;
+
+class FieldCursor {
+
+    private Reader reader;      // null if all the text is already in buf
+    char[] buf;
+    private int next;           // start of the next line
+    private int limit;          // end of valid text in buf
+    private boolean skipLF = false;  // previous line ended in \r
+
+    int lineStart, lineEnd;
+
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int count = 0;
+
+    FieldCursor(Reader reader) {
+        this.reader = reader;
+        this.buf = new char[1 << 16];
+        this.next = 0;
+        this.limit = 0;
+    }
+
+    // Cursor over text[start:end]
+    FieldCursor(char[] text, int start, int end) {
+        this.reader = null;
+        this.buf = text;
+        this.next = start;
+        this.limit = end;
+    }
+
+    // Advance to the next line.  Returns false at end of input.
+
+    boolean nextLine() throws IOException {
+        if (skipLF) {
+            if (next == limit) fill();
+            if (next < limit && buf[next] == '\n') ++next;
+            skipLF = false;
+        }
+        int i = next;
+        while (true) {
+            while (i < limit) {
+                char c = buf[i];
+                if (c == '\n' || c == '\r') {
+                    lineStart = next;
+                    lineEnd = i;
+                    next = i + 1;
+                    if (c == '\r') {
+                        if (next < limit) {
+                            if (buf[next] == '\n') ++next;
+                        } else
+                            skipLF = true;
+                    }
+                    count = 0;
+                    return true;
+                }
+                ++i;
+            }
+            int scanned = i - next;
+            if (!fill()) {
+                if (next == limit) return false;
+                // Last line, without terminator
+                lineStart = next;
+                lineEnd = limit;
+                next = limit;
+                count = 0;
+                return true;
+            }
+            i = next + scanned;
+        }
+    }
+
+    // Move the unread text to the front of the buffer and read more.
+    // Returns false if there is nothing more to read.
+    private boolean fill() throws IOException {
+        if (reader == null) return false;
+        int pending = limit - next;
+        if (pending == buf.length) {
+            char[] bigger = new char[buf.length * 2];
+            System.arraycopy(buf, next, bigger, 0, pending);
+            buf = bigger;
+        } else if (next > 0)
+            System.arraycopy(buf, next, buf, 0, pending);
+        next = 0;
+        limit = pending;
+        int n = reader.read(buf, limit, buf.length - limit);
+        if (n <= 0) {
+            reader = null;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    // Split the current line into fields.
+    // vbar: separator is \t|\t rather than \t
+
+    void split(boolean vbar) {
+        int n = 0;
+        int fieldStart = lineStart;
+        int i = lineStart;
+        while (i < lineEnd) {
+            if (buf[i] != '\t')
+                ++i;
+            else if (!vbar) {
+                n = addField(n, fieldStart, i);
+                fieldStart = ++i;
+            } else if (i + 1 < lineEnd && buf[i+1] == '|') {
+                n = addField(n, fieldStart, i);
+                i += 2;
+                if (i < lineEnd && buf[i] == '\t') ++i;
+                fieldStart = i;
+            } else
+                ++i;
+        }
+        n = addField(n, fieldStart, lineEnd);
+        // Like Pattern.split, drop trailing empty fields, unless there
+        // was no separator at all
+        if (n > 1)
+            while (n > 0 && starts[n-1] == ends[n-1]) --n;
+        count = n;
+    }
+
+    private int addField(int n, int start, int end) {
+        if (n == starts.length) {
+            int[] s = new int[n * 2], e = new int[n * 2];
+            System.arraycopy(starts, 0, s, 0, n);
+            System.arraycopy(ends, 0, e, 0, n);
+            starts = s;
+            ends = e;
+        }
+        starts[n] = start;
+        ends[n] = end;
+        return n + 1;
+    }
+
+    // Number of fields, as for the length of the array returned by
+    // Pattern.split
+    int count() {
+        return count;
+    }
+
+    int start(int i) {
+        return starts[i];
+    }
+
+    int end(int i) {
+        return ends[i];
+    }
+
+    int length(int i) {
+        return (i < count ? ends[i] - starts[i] : 0);
+    }
+
+    boolean isEmpty(int i) {
+        return length(i) == 0;
+    }
+
+    // Value of field i; "" if there is no such field
+    String get(int i) {
+        if (i >= count || starts[i] == ends[i])
+            return "";
+        return new String(buf, starts[i], ends[i] - starts[i]);
+    }
+
+    // Value of field i, without leading or trailing white space
+    String getTrimmed(int i) {
+        if (i >= count) return "";
+        int s = starts[i], e = ends[i];
+        while (s < e && buf[s] <= ' ') ++s;
+        while (e > s && buf[e-1] <= ' ') --e;
+        if (s == e) return "";
+        return new String(buf, s, e - s);
+    }
+
+    boolean equals(int i, String s) {
+        return length(i) == s.length() && regionMatches(starts[i], s);
+    }
+
+    boolean startsWith(int i, String s) {
+        return length(i) >= s.length() && regionMatches(starts[i], s);
+    }
+
+    private boolean regionMatches(int start, String s) {
+        for (int k = 0; k < s.length(); ++k)
+            if (buf[start + k] != s.charAt(k))
+                return false;
+        return true;
+    }
+
+    Rank getRank(int i) {
+        if (i >= count) return null;
+        return Rank.getRank(buf, starts[i], ends[i]);
+    }
+
+    // Does the current line contain s?
+    boolean lineContains(String s) {
+        int stop = lineEnd - s.length();
+        for (int i = lineStart; i <= stop; ++i)
+            if (regionMatches(i, s))
+                return true;
+        return false;
+    }
+
+    boolean isBlankLine() {
+        for (int i = lineStart; i < lineEnd; ++i)
+            if (!Character.isWhitespace(buf[i]))
+                return false;
+        return true;
+    }
+
+    // Text of the current line (for diagnostics)
+    String line() {
+        return new String(buf, lineStart, lineEnd - lineStart);
+    }
+
+    // All fields, as Pattern.split would have returned them
+    String[] toArray() {
+        String[] parts = new String[count];
+        for (int i = 0; i < count; ++i)
+            parts[i] = get(i);
+        return parts;
+    }
+}
@@ -8,6 +8,8 @@ package org.opentreeoflife.taxa;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.io.PrintStream;
 import java.util.regex.Pattern;
@@ -76,6 +78,25 @@ public enum Flag {
         lookupTable.put("extinct_direct",	EXTINCT);
 	}
 
+	// For parsing flags without making strings: names from lookupTable,
+	// then names from lookupInheritedTable
+	static final List<String> flagNames = new ArrayList<String>();
+	static final List<Flag> flagsByName = new ArrayList<Flag>();
+	static int inheritedStart;
+	static {
+		for (Map.Entry<String, Flag> entry : lookupTable.entrySet())
+			if (entry.getKey() != null) {
+				flagNames.add(entry.getKey());
+				flagsByName.add(entry.getValue());
+			}
+		inheritedStart = flagNames.size();
+		for (Map.Entry<String, Flag> entry : lookupInheritedTable.entrySet())
+			if (entry.getKey() != null) {
+				flagNames.add(entry.getKey());
+				flagsByName.add(entry.getValue());
+			}
+	}
+
 	static Flag lookup(String name) {
 		return lookupTable.get(name);
 	}
@@ -110,6 +131,45 @@ public enum Flag {
 		node.inferredFlags = g;
 	}
 
+	// Same as parseFlags(String, Taxon), but for text[start:end], with
+	// the proper and inferred flags going to bits[0] and bits[1].
+	// Returns false (reporting nothing) if any flag is unrecognized.
+
+	static boolean parseFlags(char[] text, int start, int end, int[] bits) {
+		int f = 0;
+		int g = 0;
+		int i = start;
+		while (i < end) {
+			int j = i;
+			while (j < end && text[j] != ',') ++j;
+			if (j > i) {
+				int k = findFlagName(text, i, j);
+				if (k < 0)
+					return false;
+				else if (k < inheritedStart)
+					f |= flagsByName.get(k).bit;
+				else
+					g |= flagsByName.get(k).bit;
+			}
+			i = j + 1;
+		}
+		bits[0] = f;
+		bits[1] = g;
+		return true;
+	}
+
+	static int findFlagName(char[] text, int start, int end) {
+		int len = end - start;
+		for (int k = 0; k < flagNames.size(); ++k) {
+			String name = flagNames.get(k);
+			if (name.length() != len) continue;
+			int m = 0;
+			while (m < len && text[start + m] == name.charAt(m)) ++m;
+			if (m == len) return k;
+		}
+		return -1;
+	}
+
 	public static void printFlags(int flags, int iflags, PrintStream out) {
         out.print(toString(flags, iflags));
     }
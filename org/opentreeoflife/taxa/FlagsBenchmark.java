@@ -0,0 +1,83 @@
+/*
+  Time the flag inference passes (analyzeMajorRankConflicts, then
+  inferFlags) over a generated tree of ~2M ranked nodes, and print a
+  checksum of the flags they set and of what they print.
+
+  java org.opentreeoflife.taxa.FlagsBenchmark
+  java -Djava.util.concurrent.ForkJoinPool.common.parallelism=8 org.opentreeoflife.taxa.FlagsBenchmark
+
+  The passes use the common fork/join pool, so compare runs with
+  different parallelism (1 is serial): the checksums must be the same,
+  and the times give the speedup.  Each trial is on a fresh copy of
+  the tree, since the major pass sets flags that change what the next
+  run would see.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class FlagsBenchmark {
+
+    static final int TRIALS = 3;
+
+    static final String[] RANKS = {"kingdom", "phylum", "class", "order", "family",
+                                   "genus", "species", "subspecies"};
+
+    public static void main(String[] argv) {
+        System.out.format("| parallelism %s\n", ForkJoinPool.getCommonPoolParallelism());
+        for (int trial = 0; trial < TRIALS; ++trial) {
+            Taxonomy tax = generate();
+
+            // Keep what the passes print, for the checksum
+            PrintStream out = System.out;
+            ByteArrayOutputStream printed = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(printed, true));
+            long start = System.nanoTime();
+            try {
+                tax.analyzeMajorRankConflicts();
+                tax.inferFlags();
+            } finally {
+                System.setOut(out);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            long h = printed.toString().hashCode();
+            for (Taxon node : tax.taxa())
+                h = (h * 31 + node.properFlags) * 31 + node.inferredFlags;
+            System.out.format("| trial %s: %s ms, checksum %016x\n",
+                              trial, elapsed / 1000000, h);
+        }
+    }
+
+    // Ranks mostly go down with depth, but not always, so that there
+    // are rank conflicts of both kinds, some in big subtrees
+
+    static Taxonomy generate() {
+        Taxonomy tax = new SourceTaxonomy();
+        Random random = new Random(5);
+        List<Taxon> nodes = new ArrayList<Taxon>();
+        List<Integer> levels = new ArrayList<Integer>();
+        for (int i = 0; i < 2000000; ++i) {
+            Taxon node = new Taxon(tax, "n" + i);
+            int level = 0;
+            if (i == 0)
+                tax.addRoot(node);
+            else {
+                // Prefer recent nodes as parents, for depth
+                int p = (random.nextBoolean() ? random.nextInt(i) : i - 1 - random.nextInt(Math.min(i, 1000)));
+                nodes.get(p).addChild(node);
+                level = Math.min(levels.get(p) + (random.nextInt(10) == 0 ? 2 : 1), RANKS.length - 1);
+            }
+            node.rank = (random.nextInt(20) == 0 ? Rank.NO_RANK : Rank.getRank(RANKS[level]));
+            nodes.add(node);
+            levels.add(level);
+        }
+        return tax;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+  Snapshots of a taxonomy that share its nodes, for looking at the
+  union as it was after some merge while assembly goes on (see
+  UnionTaxonomy.snapshot).
+
+  Changes are numbered by version, and taking a snapshot starts a new
+  version.  The first time in a version that a node's parent,
+  children, name, id, rank, flags, source ids, or synonyms are about
+  to change, its state is saved along with the version (Node.changing,
+  which addChild, detach, setName, addFlag, addId and the rest call
+  before writing).  A node's state as of snapshot s is then its first
+  saved state from a version after s, or its state now if it hasn't
+  changed since.  The id index is done the same way
+  (Taxonomy.idChanging).  Nodes made after a snapshot are never saved
+  for it, since it can't reach them.
+
+  So taking a snapshot costs nothing, and keeping one costs one saved
+  state per node that has changed since, whatever the number of
+  snapshots: a merge that touches a tenth of the union adds about a
+  tenth of a copy.  Saved states that no snapshot can see any more
+  are thrown away when a snapshot is dropped.
+
+  taxonomy(s) makes a copy of the taxonomy as it was at s, for dumping
+  or comparing; the copy isn't kept.
+
+  Only changes made through the Node, Taxon and Taxonomy methods are
+  seen.  Code that sets node fields directly (as some jython patches
+  do) has to call changing() first, or the change will show in
+  snapshots taken before it.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class History {
+
+    private final Taxonomy taxonomy;
+    volatile int version = 1;    // of the changes being made now
+
+    // Snapshots not yet dropped, oldest first
+    private final List<Integer> snapshots = new ArrayList<Integer>();
+
+    // Saved states, newest first
+    private final Map<Taxon, State> states = new IdentityHashMap<Taxon, State>();
+    private final Map<String, Binding> bindings = new HashMap<String, Binding>();
+
+    History(Taxonomy taxonomy) {
+        this.taxonomy = taxonomy;
+    }
+
+    // Returns the snapshot's number, for taxonomy() and drop()
+
+    public synchronized int snapshot() {
+        this.snapshots.add(this.version);
+        return this.version++;
+    }
+
+    public synchronized void drop(int snapshot) {
+        if (!this.snapshots.remove(Integer.valueOf(snapshot)))
+            return;
+        if (this.snapshots.isEmpty()) {
+            this.states.clear();
+            this.bindings.clear();
+            return;
+        }
+        // States saved in or before the oldest snapshot's version
+        // aren't seen by any snapshot
+        int oldest = this.snapshots.get(0);
+        for (Map.Entry<Taxon, State> entry : new ArrayList<Map.Entry<Taxon, State>>(this.states.entrySet())) {
+            State state = entry.getValue();
+            if (state.version <= oldest)
+                this.states.remove(entry.getKey());
+            else {
+                while (state.older != null && state.older.version > oldest)
+                    state = state.older;
+                state.older = null;
+            }
+        }
+        for (Map.Entry<String, Binding> entry : new ArrayList<Map.Entry<String, Binding>>(this.bindings.entrySet())) {
+            Binding binding = entry.getValue();
+            if (binding.version <= oldest)
+                this.bindings.remove(entry.getKey());
+            else {
+                while (binding.older != null && binding.older.version > oldest)
+                    binding = binding.older;
+                binding.older = null;
+            }
+        }
+    }
+
+    public synchronized int savedCount() {
+        int count = 0;
+        for (State state : this.states.values())
+            for ( ; state != null; state = state.older)
+                ++count;
+        return count;
+    }
+
+    // Called before node is changed.  Synchronized since flag
+    // inference changes nodes in parallel.
+
+    synchronized void save(Taxon node) {
+        if (node.savedIn == this.version || this.snapshots.isEmpty())
+            return;
+        node.savedIn = this.version;
+        this.states.put(node, new State(node, this.version, this.states.get(node)));
+    }
+
+    // Called before id is bound to a different node, or unbound
+
+    synchronized void saveId(String id) {
+        if (this.snapshots.isEmpty())
+            return;
+        Binding older = this.bindings.get(id);
+        if (older != null && older.version == this.version)
+            return;
+        this.bindings.put(id, new Binding(this.version, this.taxonomy.idIndex.get(id), older));
+    }
+
+    private static class State {
+        final int version;
+        State older;
+        final Taxon[] children;
+        final String name, id;
+        final Rank rank;
+        final int properFlags, inferredFlags;
+        final List<QualifiedId> sourceIds;
+        final Synonym[] synonyms, saved;    // live synonyms, and copies
+
+        State(Taxon node, int version, State older) {
+            this.version = version;
+            this.older = older;
+            this.children = (node.children == Taxon.NO_CHILDREN ? null : node.children.toArray(new Taxon[0]));
+            this.name = node.name;
+            this.id = node.id;
+            this.rank = node.rank;
+            this.properFlags = node.properFlags;
+            this.inferredFlags = node.inferredFlags;
+            this.sourceIds = copy(node.sourceIds);
+            this.synonyms = node.getSynonyms().toArray(new Synonym[0]);
+            this.saved = new Synonym[this.synonyms.length];
+            for (int i = 0; i < this.synonyms.length; ++i)
+                this.saved[i] = copySynonym(this.synonyms[i], new Synonym(node));
+        }
+    }
+
+    private static class Binding {
+        final int version;
+        Binding older;
+        final Node node;        // null if the id was unbound
+
+        Binding(int version, Node node, Binding older) {
+            this.version = version;
+            this.node = node;
+            this.older = older;
+        }
+    }
+
+    private static List<QualifiedId> copy(List<QualifiedId> qids) {
+        return (qids == null ? null : new QualifiedIdList(qids));
+    }
+
+    // The oldest state saved after snapshot s, or null if the node
+    // is as it was then
+
+    private State stateAt(Taxon node, int s) {
+        State found = null;
+        for (State state = this.states.get(node); state != null && state.version > s; state = state.older)
+            found = state;
+        return found;
+    }
+
+    private Node nodeAt(String id, int s) {
+        Binding found = null;
+        for (Binding binding = this.bindings.get(id); binding != null && binding.version > s; binding = binding.older)
+            found = binding;
+        return (found == null ? this.taxonomy.idIndex.get(id) : found.node);
+    }
+
+    // A copy of the taxonomy as it was at snapshot s, sharing nothing
+    // with it, or null if the snapshot has been dropped
+
+    public synchronized SourceTaxonomy taxonomy(int s) {
+        if (!this.snapshots.contains(s))
+            return null;
+        SourceTaxonomy copy = new SourceTaxonomy(this.taxonomy.idspace);
+        copy.properties = this.taxonomy.properties;
+        Map<Node, Node> copies = new IdentityHashMap<Node, Node>();
+        copies.put(this.taxonomy.forest, copy.forest);
+
+        // Preorder, so that the name index lists homonyms in
+        // the same order on every copy
+        List<Taxon> stack = new ArrayList<Taxon>();
+        stack.add(this.taxonomy.forest);
+        while (!stack.isEmpty()) {
+            Taxon node = stack.remove(stack.size() - 1);
+            Taxon nodeCopy = (Taxon)copies.get(node);
+            State state = this.stateAt(node, s);
+            Taxon[] children;
+            if (state == null) {
+                children = (node.children == Taxon.NO_CHILDREN ? null : node.children.toArray(new Taxon[0]));
+                if (node != this.taxonomy.forest) {
+                    this.copyNode(node.name, node.id, node.rank, node.properFlags, node.inferredFlags,
+                                  node.sourceIds, nodeCopy, copy);
+                    for (Synonym syn : node.getSynonyms())
+                        this.addSynonym(syn, syn, nodeCopy, copy, copies);
+                }
+            } else {
+                children = state.children;
+                if (node != this.taxonomy.forest) {
+                    this.copyNode(state.name, state.id, state.rank, state.properFlags, state.inferredFlags,
+                                  state.sourceIds, nodeCopy, copy);
+                    for (int i = 0; i < state.synonyms.length; ++i)
+                        this.addSynonym(state.synonyms[i], state.saved[i], nodeCopy, copy, copies);
+                }
+            }
+            if (children != null) {
+                nodeCopy.children = new ChildList();
+                for (Taxon child : children) {
+                    Taxon childCopy = new Taxon(copy, null);
+                    childCopy.parent = nodeCopy;
+                    nodeCopy.children.add(childCopy);
+                    copies.put(child, childCopy);
+                }
+                for (int i = children.length - 1; i >= 0; --i)
+                    stack.add(children[i]);
+            }
+        }
+
+        // The id index.  Ids that were unbound at s, or bound to nodes
+        // that weren't in the tree, are left out.
+        Set<String> ids = new HashSet<String>(this.bindings.keySet());
+        for (String id : this.taxonomy.allIds())
+            ids.add(id);
+        for (String id : ids) {
+            Node node = this.nodeAt(id, s);
+            Node nodeCopy = (node == null ? null : copies.get(node));
+            if (nodeCopy != null)
+                copy.idIndex.put(id, nodeCopy);
+        }
+        return copy;
+    }
+
+    private void copyNode(String name, String id, Rank rank, int properFlags, int inferredFlags,
+                          List<QualifiedId> sourceIds, Taxon nodeCopy, Taxonomy copy) {
+        nodeCopy.name = name;
+        if (name != null)
+            copy.addToNameIndex(nodeCopy, name);
+        nodeCopy.id = id;
+        nodeCopy.rank = rank;
+        nodeCopy.properFlags = properFlags;
+        nodeCopy.inferredFlags = inferredFlags;
+        nodeCopy.sourceIds = copy(sourceIds);
+    }
+
+    private void addSynonym(Synonym syn, Synonym saved, Taxon nodeCopy, Taxonomy copy,
+                            Map<Node, Node> copies) {
+        Synonym synCopy = copySynonym(saved, new Synonym(nodeCopy));
+        if (synCopy.name != null)
+            copy.addToNameIndex(synCopy, synCopy.name);
+        nodeCopy.appendSynonym(synCopy);
+        copies.put(syn, synCopy);
+    }
+
+    private static Synonym copySynonym(Synonym syn, Synonym synCopy) {
+        synCopy.name = syn.name;
+        synCopy.type = syn.type;
+        synCopy.id = syn.id;
+        synCopy.sourceIds = copy(syn.sourceIds);
+        return synCopy;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+  Randomized check of History: snapshots of a taxonomy that keeps
+  changing have to come out the way the taxonomy was when they were
+  taken.  Run by Smasher --test, or on its own:
+
+  java org.opentreeoflife.taxa.HistoryTest [seed]
+
+  The taxonomy is changed only through Taxon and Node methods (new
+  children, moves, prunes, flags, ranks, names, synonyms, source ids,
+  ids), with snapshots taken and dropped along the way.  A snapshot is
+  compared with a listing of the taxonomy (the tree, every node's
+  fields and synonyms, and the id index) made when it was taken.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class HistoryTest {
+
+    static final String[] RANKS = {"no rank", "order", "family", "genus", "species"};
+
+    public static void main(String[] argv) {
+        test(argv.length > 0 ? Long.parseLong(argv[0]) : 1);
+    }
+
+    public static void test(long seed) {
+        Random random = new Random(seed);
+        int steps = 0, checked = 0;
+        for (int round = 0; round < 20; ++round) {
+            Taxonomy tax = new SourceTaxonomy("test");
+            List<Taxon> nodes = new ArrayList<Taxon>();
+            Taxon root = new Taxon(tax, "n0");
+            tax.addRoot(root);
+            nodes.add(root);
+            for (int i = 1; i < 200; ++i)
+                nodes.add(newChild(tax, nodes.get(random.nextInt(i)), i));
+
+            History history = tax.getHistory();
+            Map<Integer, String> listings = new HashMap<Integer, String>();
+            for (int i = 0; i < 500; ++i) {
+                int r = random.nextInt(100);
+                if (r < 3) {
+                    listings.put(history.snapshot(), listing(tax));
+                } else if (r < 4 && !listings.isEmpty()) {
+                    Integer s = pick(random, listings);
+                    history.drop(s);
+                    listings.remove(s);
+                } else
+                    change(tax, nodes, random);
+                ++steps;
+                if (i % 50 == 49)
+                    for (Integer s : listings.keySet()) {
+                        if (!listing(history.taxonomy(s)).equals(listings.get(s)))
+                            throw new RuntimeException(String.format("Snapshot %s differs, round %s step %s",
+                                                                     s, round, i));
+                        ++checked;
+                    }
+            }
+        }
+        System.out.format("| History: %s steps, %s snapshots checked\n", steps, checked);
+    }
+
+    static Integer pick(Random random, Map<Integer, String> listings) {
+        List<Integer> ss = new ArrayList<Integer>(listings.keySet());
+        return ss.get(random.nextInt(ss.size()));
+    }
+
+    static Taxon newChild(Taxonomy tax, Taxon parent, int i) {
+        Taxon node = new Taxon(tax, "n" + i);
+        node.setId(Integer.toString(i));
+        node.addSourceId(new QualifiedId("src", Integer.toString(i)));
+        parent.addChild(node);
+        return node;
+    }
+
+    static void change(Taxonomy tax, List<Taxon> nodes, Random random) {
+        Taxon node = nodes.get(random.nextInt(nodes.size()));
+        if (node.isDetached() || node.isPruned())
+            return;
+        switch (random.nextInt(10)) {
+        case 0:
+            nodes.add(newChild(tax, node, nodes.size()));
+            break;
+        case 1: {
+            Taxon newparent = nodes.get(random.nextInt(nodes.size()));
+            for (Taxon a = newparent; a != null; a = a.parent)
+                if (a == node) return;
+            if (newparent.isDetached() || newparent.isPruned() || node.isRoot())
+                return;
+            node.changeParent(newparent, random.nextBoolean() ? 0 : Taxonomy.INCERTAE_SEDIS);
+            break;
+        }
+        case 2:
+            if (!node.isRoot() && random.nextInt(4) == 0)
+                node.prune("test");
+            break;
+        case 3:
+            node.addFlag(1 << random.nextInt(8));
+            break;
+        case 4:
+            node.setRank(RANKS[random.nextInt(RANKS.length)]);
+            break;
+        case 5:
+            node.clobberName("m" + random.nextInt(1000000));
+            break;
+        case 6:
+            node.addSynonym("s" + random.nextInt(nodes.size()), "synonym");
+            break;
+        case 7:
+            if (node.getSynonyms().size() > 0)
+                node.notCalled(node.getSynonyms().iterator().next().name);
+            break;
+        case 8:
+            node.addSourceId(new QualifiedId("src", Integer.toString(random.nextInt(1000))));
+            break;
+        case 9: {
+            String id = Integer.toString(1000 + random.nextInt(1000));
+            if (tax.idIndex.get(id) == null)
+                node.setId(id);     // the old id becomes an alias
+            break;
+        }
+        }
+    }
+
+    // Preorder, with each node's fields, then the id index by position
+
+    static String listing(Taxonomy tax) {
+        StringBuilder b = new StringBuilder();
+        Map<Node, String> positions = new IdentityHashMap<Node, String>();
+        List<Taxon> stack = new ArrayList<Taxon>();
+        stack.add(tax.forest);
+        while (!stack.isEmpty()) {
+            Taxon node = stack.remove(stack.size() - 1);
+            String position = Integer.toString(positions.size());
+            positions.put(node, position);
+            b.append(String.format("%s %s %s %s %s %s %s %s %s\n",
+                                   position, positions.get(node.parent), node.name, node.id, node.rank.name,
+                                   node.properFlags, node.inferredFlags, node.sourceIds, node.getChildren().size()));
+            for (Synonym syn : node.getSynonyms()) {
+                positions.put(syn, position + "/" + syn.name);
+                b.append(String.format("  %s %s %s %s\n", syn.name, syn.type, syn.id, syn.sourceIds));
+            }
+            List<Taxon> children = new ArrayList<Taxon>(node.getChildren());
+            for (int i = children.size() - 1; i >= 0; --i)
+                stack.add(children.get(i));
+        }
+        Map<String, String> ids = new TreeMap<String, String>();
+        for (String id : tax.allIds()) {
+            String position = positions.get(tax.idIndex.get(id));
+            if (position != null)
+                ids.put(id, position);
+        }
+        b.append(ids);
+        return b.toString();
+    }
+}
@@ -0,0 +1,238 @@
+/*
+  Index from ids to nodes, for Taxonomy.
+
+  The ids in most idspaces (ott, ncbi, gbif, irmng, worms) are
+  integers written in decimal.  Those are kept in an open addressing
+  table keyed by their numeric value, so a lookup parses the id instead
+  of hashing the string, and allocates nothing.  Other ids (and
+  decimal ids with leading zeros, which would be confused with the
+  id without them) go in a LinkedHashMap.
+
+  Ids come back from ids() in the order they were first put, numeric
+  ids first and then the others, as from a LinkedHashMap.  The order
+  doesn't depend on the size of the table or on its hash function, so
+  forwards.tsv, deprecated.tsv, the events logged while making them,
+  and the "No record for parent" warnings all follow the order in
+  which the ids were read.  For that, the id strings are kept in an
+  array in insertion order, and the table holds, along with each key
+  and node, the position of its id there.  A removed id is left as a
+  hole, and the holes are squeezed out when the array fills up.
+
+  Linear probing; deletion shifts later entries back, so there are no
+  tombstones.  Not thread safe.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+class IdIndex {
+
+    private static final long EMPTY = -1L;
+    private static final int MAX_DIGITS = 18;   // fits in a long
+
+    // Table
+    private long[] keys;
+    private Node[] nodes;
+    private int[] entries;      // position in ids
+
+    // Numeric ids in insertion order, for allIds, without
+    // reconstructing strings.  null for a removed id.
+    private String[] ids;
+    private int used = 0;       // ids so far, including removed ones
+
+    private int count = 0;      // numeric entries
+    private Map<String, Node> others = new LinkedHashMap<String, Node>();
+
+    IdIndex() {
+        ids = new String[1 << 3];
+        allocate(1 << 4);
+    }
+
+    // Numeric value of id, or -1 if it isn't a plain nonnegative
+    // decimal integer
+
+    static long numeric(String id) {
+        int len = id.length();
+        if (len == 0 || len > MAX_DIGITS) return -1;
+        if (len > 1 && id.charAt(0) == '0') return -1;
+        long value = 0;
+        for (int i = 0; i < len; ++i) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    // Ids are often dense ranges; spread them over the table
+    private int slot(long key) {
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & (keys.length - 1);
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            if (keys[i] == key) return i;
+            if (keys[i] == EMPTY) return -1;
+        }
+    }
+
+    Node get(String id) {
+        long key = numeric(id);
+        if (key < 0)
+            return others.get(id);
+        int i = find(key);
+        return (i < 0 ? null : nodes[i]);
+    }
+
+    void put(String id, Node node) {
+        long key = numeric(id);
+        if (key < 0) {
+            others.put(id, node);
+            return;
+        }
+        int mask = keys.length - 1;
+        int i = slot(key);
+        while (keys[i] != EMPTY && keys[i] != key)
+            i = (i + 1) & mask;
+        nodes[i] = node;
+        if (keys[i] == EMPTY) {
+            if (used == ids.length)
+                makeRoom();
+            keys[i] = key;
+            entries[i] = used;
+            ids[used++] = id;
+            if (++count * 2 > keys.length)
+                grow();
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        java.util.Arrays.fill(keys, EMPTY);
+        nodes = new Node[capacity];
+        entries = new int[capacity];
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Node[] oldNodes = nodes;
+        int[] oldEntries = entries;
+        allocate(keys.length * 2);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; ++j)
+            if (oldKeys[j] != EMPTY) {
+                int i = slot(oldKeys[j]);
+                while (keys[i] != EMPTY)
+                    i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                nodes[i] = oldNodes[j];
+                entries[i] = oldEntries[j];
+            }
+    }
+
+    // ids is full.  Squeeze out the removed ids if there are enough of
+    // them, otherwise make it bigger.
+
+    private void makeRoom() {
+        if (count > used / 2) {
+            ids = java.util.Arrays.copyOf(ids, ids.length * 2);
+            return;
+        }
+        int[] moved = new int[used];
+        int e = 0;
+        for (int j = 0; j < used; ++j)
+            if (ids[j] != null) {
+                ids[e] = ids[j];
+                moved[j] = e++;
+            }
+        java.util.Arrays.fill(ids, e, used, null);
+        used = e;
+        for (int i = 0; i < keys.length; ++i)
+            if (keys[i] != EMPTY)
+                entries[i] = moved[entries[i]];
+    }
+
+    void remove(String id) {
+        long key = numeric(id);
+        if (key < 0) {
+            others.remove(id);
+            return;
+        }
+        int i = find(key);
+        if (i < 0) return;
+        ids[entries[i]] = null;
+        --count;
+        // Move back any later entry in the run that would otherwise
+        // become unreachable
+        int mask = keys.length - 1;
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            // Entry at j can move to i if home is not in (i, j]
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                nodes[i] = nodes[j];
+                entries[i] = entries[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+        nodes[i] = null;
+    }
+
+    int size() {
+        return count + others.size();
+    }
+
+    // Greatest numeric id, or -1 if none.  Also considers ids like
+    // "007" that Long.parseLong accepts.
+
+    long maxid() {
+        long max = -1;
+        for (long key : keys)
+            if (key > max) max = key;
+        for (String id : others.keySet()) {
+            try {
+                long idAsLong = Long.parseLong(id);
+                if (idAsLong > max) max = idAsLong;
+            } catch (NumberFormatException e) {
+                ;
+            }
+        }
+        return max;
+    }
+
+    // In insertion order, numeric ids first
+
+    Iterable<String> ids() {
+        return new Iterable<String>() {
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    private int e = advance(0);
+                    private Iterator<String> rest = others.keySet().iterator();
+
+                    private int advance(int j) {
+                        while (j < used && ids[j] == null) ++j;
+                        return j;
+                    }
+                    public boolean hasNext() {
+                        return e < used || rest.hasNext();
+                    }
+                    public String next() {
+                        if (e < used) {
+                            String id = ids[e];
+                            e = advance(e + 1);
+                            return id;
+                        }
+                        return rest.next();
+                    }
+                    public void remove() { throw new UnsupportedOperationException(); }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,108 @@
+/*
+  Compare lookup throughput of IdIndex against the HashMap<String,
+  Node> that it replaced, over the ids of a taxonomy (e.g. all of OTT)
+  or over generated OTT-like ids.
+
+  java org.opentreeoflife.taxa.IdIndexBenchmark [designator]
+
+  Queries are fresh String copies of the ids, as they would be when
+  read from a file or a web service request, so HashMap has to hash
+  each one.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class IdIndexBenchmark {
+
+    static final int TRIALS = 5;
+    static final int QUERIES = 10000000;
+
+    public static void main(String[] argv) throws IOException {
+        List<String> ids = new ArrayList<String>();
+        Node node = new Taxon(new SourceTaxonomy(), null);
+        if (argv.length > 0) {
+            Taxonomy tax = Taxonomy.getRawTaxonomy(argv[0], null);
+            for (String id : tax.allIds())
+                ids.add(id);
+        } else {
+            // ~4.5M ids in a few dense ranges with gaps, like OTT's
+            Random random = new Random(3);
+            long id = 1;
+            while (ids.size() < 4500000) {
+                id += (random.nextInt(10) < 8 ? 1 : 1 + random.nextInt(20));
+                if (ids.size() % 1000000 == 0) id += 1000000;
+                ids.add(Long.toString(id));
+            }
+        }
+        System.out.format("| %s ids\n", ids.size());
+
+        Map<String, Node> map = new HashMap<String, Node>();
+        IdIndex index = new IdIndex();
+        for (String id : ids) {
+            map.put(id, node);
+            index.put(id, node);
+        }
+
+        Random random = new Random(5);
+        for (int trial = 0; trial < TRIALS; ++trial) {
+            String[] queries = new String[QUERIES];
+            for (int i = 0; i < QUERIES; ++i) {
+                String id = ids.get(random.nextInt(ids.size()));
+                // One in ten misses
+                queries[i] = (i % 10 == 0 ? id + "1" : new String(id));
+            }
+            long mapTime = timeMap(map, queries);
+            for (int i = 0; i < QUERIES; ++i)
+                queries[i] = new String(queries[i]);  // uncache the hashes
+            long indexTime = timeIndex(index, queries);
+            System.out.format("| trial %s: HashMap %.1f, IdIndex %.1f million lookups/s\n",
+                              trial,
+                              QUERIES / (mapTime * 1e3),
+                              QUERIES / (indexTime * 1e3));
+        }
+
+        long start = System.nanoTime();
+        long max = -1;
+        for (String id : map.keySet()) {
+            try {
+                long idAsLong = Long.parseLong(id);
+                if (idAsLong > max) max = idAsLong;
+            } catch (NumberFormatException e) {
+                ;
+            }
+        }
+        long mapMax = System.nanoTime() - start;
+        start = System.nanoTime();
+        long indexMax = index.maxid();
+        System.out.format("| maxid %s: HashMap %s ms, IdIndex %s ms (%s)\n",
+                          max, mapMax / 1000000, (System.nanoTime() - start) / 1000000, indexMax);
+    }
+
+    // Milliseconds
+    static long timeMap(Map<String, Node> map, String[] queries) {
+        long start = System.nanoTime();
+        int found = 0;
+        for (String id : queries)
+            if (map.get(id) != null) ++found;
+        long elapsed = System.nanoTime() - start;
+        if (found == 0) System.out.println("| none found");
+        return elapsed / 1000000;
+    }
+
+    static long timeIndex(IdIndex index, String[] queries) {
+        long start = System.nanoTime();
+        int found = 0;
+        for (String id : queries)
+            if (index.get(id) != null) ++found;
+        long elapsed = System.nanoTime() - start;
+        if (found == 0) System.out.println("| none found");
+        return elapsed / 1000000;
+    }
+}
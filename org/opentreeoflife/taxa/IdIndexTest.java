@@ -0,0 +1,114 @@
+/*
+  Randomized check of IdIndex against LinkedHashMap.  Run by Smasher
+  --test, or on its own:
+
+  java org.opentreeoflife.taxa.IdIndexTest [seed]
+
+  Ids are drawn from small dense ranges, so that runs in the table are
+  long and deletion has plenty of entries to shift back (including
+  runs that wrap around the end of the table), plus some non-numeric
+  ids (names, leading zeros, negative temporary ids) that go to the
+  fallback map.  After each step the index has to agree with the map
+  on get, size, maxid, and the order of ids().
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class IdIndexTest {
+
+    public static void main(String[] argv) {
+        test(argv.length > 0 ? Long.parseLong(argv[0]) : 1);
+    }
+
+    public static void test(long seed) {
+        Random random = new Random(seed);
+        Taxonomy tax = new SourceTaxonomy();
+        Node[] nodes = new Node[50];
+        for (int i = 0; i < nodes.length; ++i)
+            nodes[i] = new Taxon(tax, null);
+
+        int steps = 0;
+        for (int round = 0; round < 20; ++round) {
+            // Universe of ids for this round: a dense range, a few
+            // outliers, and some ids that aren't plain numbers
+            List<String> universe = new ArrayList<String>();
+            long base = random.nextInt(1000000);
+            int range = 1 + random.nextInt(4000);
+            for (int i = 0; i < range; ++i)
+                universe.add(Long.toString(base + i));
+            for (int i = 0; i < 20; ++i)
+                universe.add(Long.toString(random.nextLong() & 0x7fffffffffffL));
+            universe.add("0");
+            universe.add("007");
+            universe.add("-" + (1 + random.nextInt(100)));
+            universe.add("h2007");
+            universe.add("123456789012345678901");  // too long for a long
+
+            IdIndex index = new IdIndex();
+            Map<String, Node> numeric = new LinkedHashMap<String, Node>();
+            Map<String, Node> others = new LinkedHashMap<String, Node>();
+
+            // Grow to about half the universe, churn, then drain
+            int n = 20 * universe.size();
+            for (int i = 0; i < n; ++i) {
+                String id = universe.get(random.nextInt(universe.size()));
+                Map<String, Node> model = (IdIndex.numeric(id) < 0 ? others : numeric);
+                int p = (i < n / 3 ? 70 : (i < 2 * n / 3 ? 50 : 20));   // percent puts
+                if (random.nextInt(100) < p) {
+                    Node node = nodes[random.nextInt(nodes.length)];
+                    index.put(id, node);
+                    model.put(id, node);
+                } else {
+                    index.remove(id);
+                    model.remove(id);
+                }
+                ++steps;
+                if (i % 97 == 0 || i == n - 1)
+                    compare(index, numeric, others, universe, steps);
+            }
+        }
+        System.out.format("| IdIndex: %s steps checked\n", steps);
+    }
+
+    static void compare(IdIndex index, Map<String, Node> numeric, Map<String, Node> others,
+                        List<String> universe, int step) {
+        for (String id : universe) {
+            Node expected = (IdIndex.numeric(id) < 0 ? others : numeric).get(id);
+            if (index.get(id) != expected)
+                fail(step, "get " + id);
+        }
+        if (index.size() != numeric.size() + others.size())
+            fail(step, "size " + index.size() + " != " + (numeric.size() + others.size()));
+
+        long max = -1;
+        for (Map<String, Node> model : List.of(numeric, others))
+            for (String id : model.keySet())
+                try {
+                    max = Math.max(max, Long.parseLong(id));
+                } catch (NumberFormatException e) {
+                    ;
+                }
+        if (index.maxid() != max)
+            fail(step, "maxid " + index.maxid() + " != " + max);
+
+        Iterator<String> got = index.ids().iterator();
+        for (Map<String, Node> model : List.of(numeric, others))
+            for (String id : model.keySet())
+                if (!got.hasNext() || !got.next().equals(id))
+                    fail(step, "order at " + id);
+        if (got.hasNext())
+            fail(step, "extra id " + got.next());
+    }
+
+    static void fail(int step, String message) {
+        throw new RuntimeException(String.format("IdIndex differs from LinkedHashMap at step %s: %s",
+                                                 step, message));
+    }
+}
@@ -8,10 +8,9 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.Set;
 import java.util.HashSet;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 import java.io.IOException;
 import java.io.PrintStream;
@@ -24,6 +23,16 @@ import java.io.FileOutputStream;
 import java.io.BufferedWriter;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.json.simple.JSONObject; 
 import org.json.simple.parser.JSONParser; 
@@ -32,9 +41,6 @@ import org.json.simple.parser.ParseException;
 
 public class InterimFormat {
 
-	static Pattern tabVbarTab = Pattern.compile("\t\\|\t?");
-	static Pattern tabOnly = Pattern.compile("\t");
-
     Taxonomy tax;
 
     InterimFormat(Taxonomy tax) {
@@ -44,19 +50,80 @@ public class InterimFormat {
 	// load | dump all taxonomy files
 
 	public void loadTaxonomy(String dirname) throws IOException {
+        this.loadTaxonomy(dirname, false);
+    }
+
+    // parallel = use the memory-mapped multicore loader for taxonomy.tsv
+
+	public void loadTaxonomy(String dirname, boolean parallel) throws IOException {
+        long start = System.currentTimeMillis();
 		this.loadMetadata(dirname + "about.json");
         String tname = dirname + "taxonomy.tsv";
         if (!new File(tname).exists())
             tname = dirname + "taxonomy";
-        this.loadTaxonomyProper(tname);
-        String sname = dirname + "synonyms.tsv";
-        if (!new File(sname).exists())
-            sname = dirname + "taxonomy";
-		this.loadSynonyms(sname);
-        this.loadForwards(dirname + "forwards.tsv");
-        tax.purgeTemporaryIds();
+        final String sname = (new File(dirname + "synonyms.tsv").exists() ?
+                              dirname + "synonyms.tsv" :
+                              dirname + "taxonomy");
+        final String fname = dirname + "forwards.tsv";
+
+        // Synonyms and forwards don't depend on the taxonomy until they
+        // are attached to taxa, so tokenize them while taxonomy.tsv loads
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<SynonymRows> synonyms = pool.submit(new Callable<SynonymRows>() {
+                    public SynonymRows call() throws IOException {
+                        return readSynonyms(sname);
+                    }
+                });
+            Future<ForwardRows> forwards = pool.submit(new Callable<ForwardRows>() {
+                    public ForwardRows call() throws IOException {
+                        return readForwards(fname);
+                    }
+                });
+
+            long taxonomyStart = System.currentTimeMillis();
+            if (parallel)
+                this.loadTaxonomyProperParallel(tname);
+            else
+                this.loadTaxonomyProper(tname);
+            long taxonomyEnd = System.currentTimeMillis();
+
+            SynonymRows synonymRows = await(synonyms);
+            long synonymStart = System.currentTimeMillis();
+            if (synonymRows != null)
+                this.addSynonyms(synonymRows);
+            ForwardRows forwardRows = await(forwards);
+            long forwardStart = System.currentTimeMillis();
+            if (forwardRows != null)
+                this.addForwards(forwardRows);
+            long end = System.currentTimeMillis();
+            tax.purgeTemporaryIds();
+
+            System.out.format("| Load times for %s (ms): %s %s, %s %s read + %s merge, forwards.tsv %s read + %s merge, total %s\n",
+                              dirname,
+                              new File(tname).getName(), taxonomyEnd - taxonomyStart,
+                              new File(sname).getName(),
+                              (synonymRows == null ? 0 : synonymRows.millis), forwardStart - synonymStart,
+                              (forwardRows == null ? 0 : forwardRows.millis), end - forwardStart,
+                              System.currentTimeMillis() - start);
+        } finally {
+            pool.shutdownNow();
+        }
 	}
 
+    // Result of a background task, with its IOException (if any) rethrown
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
 	// This gets overridden in a subclass.
     // Deforestate would have already been called, if it was going to be
 	public void dump(String outprefix, String sep) throws IOException {
@@ -123,13 +190,42 @@ public class InterimFormat {
 
 	void loadTaxonomyProper(String filename) throws IOException {
 		BufferedReader br = Taxonomy.fileReader(filename);
-		String str;
+        FieldCursor cursor = new FieldCursor(br);
 		int row = 0;
 
-        Pattern pat = null;
-		String suffix = null;	// Java loses somehow.  I don't get it
+        Boolean vbar = null;
+        Columns columns = null;
+        TaxonRow taxonRow = new TaxonRow();
+
+		while (cursor.nextLine()) {
+
+            if (vbar == null)
+                vbar = cursor.lineContains("\t|\t");
+
+            cursor.split(vbar);
 
-        boolean headerProcessed = false;
+            if (columns == null) {
+                // First row in file.  Test it out as a potential
+                // header row.
+                columns = new Columns();
+                if (columns.processHeader(cursor.toArray(), cursor.line()))
+                    continue;
+            }
+
+			++row;
+			if (row % 250000 == 0) System.out.println(row);
+
+            taxonRow.fill(cursor, columns);
+            loadRow(taxonRow);
+		}
+		br.close();
+
+        finishTaxonomyProper(row);
+	}
+
+    // Column positions, as determined by the header row (if any)
+
+    static class Columns {
         int idcolumn = Integer.MAX_VALUE;
         int parentcolumn = Integer.MAX_VALUE;
         int namecolumn = Integer.MAX_VALUE;
@@ -139,101 +235,130 @@ public class InterimFormat {
         int infocolumn = Integer.MAX_VALUE;
         int flagscolumn = Integer.MAX_VALUE;
 
-		while ((str = br.readLine()) != null) {
-
-            if (pat == null) {
-                if (str.contains("\t|\t"))
-                    pat = tabVbarTab;
+        // Returns true if the row was a header row
+        boolean processHeader(String[] parts, String str) {
+            Map<String, Integer> headerx = new HashMap<String, Integer>();
+            for (int i = 0; i < parts.length; ++i)
+                headerx.put(parts[i], i);
+            Integer h = headerx.get("uid");
+            if (h == null) {
+                System.out.println("! No header row - saw " + str);
+                idcolumn = 0;
+                parentcolumn = 1;
+                namecolumn = 2;
+                rankcolumn = 3;
+                return false;
+            } else {
+                idcolumn = h;
+                // uid | parentid | name | rank | ...
+                h = headerx.get("parent_uid");
+                if (h != null)
+                    parentcolumn = h;
                 else
-                    pat = tabOnly;
+                    throw new RuntimeException("taxonomy header missing parent_uid");
+                h = headerx.get("name");
+                if (h != null)
+                    namecolumn = h;
+                else
+                    throw new RuntimeException("taxonomy header missing name");
+                h = headerx.get("rank");
+                if (h != null) rankcolumn = h;
+                h = headerx.get("source");
+                if (h != null) sourcecolumn = h;
+                h = headerx.get("sourceid");
+                if (h != null) sourceidcolumn = h;
+                h = headerx.get("sourceinfo");
+                if (h != null) infocolumn = h;
+                h = headerx.get("flags");
+                if (h != null) flagscolumn = h;
+                return true;
             }
+        }
+    }
 
-			String[] parts = pat.split(str);
-
-            if (!headerProcessed) {
-                headerProcessed = true;
-                // First row in file.  Test it out as a potential
-                // header row.
-                Map<String, Integer> headerx = new HashMap<String, Integer>();
-                for (int i = 0; i < parts.length; ++i)
-                    headerx.put(parts[i], i);
-                Integer h = headerx.get("uid");
-                if (h == null) {
-                    System.out.println("! No header row - saw " + str);
-                    idcolumn = 0;
-                    parentcolumn = 1;
-                    namecolumn = 2;
-                    rankcolumn = 3;
-                } else {
-                    idcolumn = h;
-                    // uid | parentid | name | rank | ...
-                    h = headerx.get("parent_uid");
-                    if (h != null)
-                        parentcolumn = h;
-                    else
-                        throw new RuntimeException("taxonomy header missing parent_uid");
-                    h = headerx.get("name");
-                    if (h != null)
-                        namecolumn = h;
-                    else
-                        throw new RuntimeException("taxonomy header missing name");
-                    h = headerx.get("rank");
-                    if (h != null) rankcolumn = h;
-                    h = headerx.get("source");
-                    if (h != null) sourcecolumn = h;
-                    h = headerx.get("sourceid");
-                    if (h != null) sourceidcolumn = h;
-                    h = headerx.get("sourceinfo");
-                    if (h != null) infocolumn = h;
-                    h = headerx.get("flags");
-                    if (h != null) flagscolumn = h;
-                    continue;
-                }
+    // The parts of a taxonomy row that we keep.  Strings are only
+    // made for these; rank and flags are resolved directly from the
+    // cursor's buffer.
+
+    static class TaxonRow {
+        int count;              // number of fields
+        String line;            // text of row, only if needed for diagnostics
+        String id, parentId, name, info, source, sourceid;
+        Rank rank;
+        String rankname;        // only if rank wasn't recognized
+        boolean hasFlags;
+        int[] flags = new int[2];   // proper, inferred
+        String flagstring;      // only if some flag wasn't recognized
+
+        void fill(FieldCursor c, Columns cols) {
+            count = c.count();
+            line = null;
+            id = null;
+            if (count < 3 || c.isEmpty(cols.idcolumn)) {
+                line = c.line();
+                return;
+            }
+            id = c.get(cols.idcolumn);
+            parentId = c.get(cols.parentcolumn);
+            name = Symbols.intern(c.get(cols.namecolumn));
+            info = c.get(cols.infocolumn);
+            if (!c.isEmpty(cols.sourcecolumn) && !c.isEmpty(cols.sourceidcolumn)) {
+                source = Symbols.intern(c.get(cols.sourcecolumn));
+                sourceid = c.get(cols.sourceidcolumn);
+            } else
+                source = sourceid = null;
+
+            int r = cols.rankcolumn;
+            rankname = null;
+            if (c.isEmpty(r) || c.startsWith(r, "no rank") ||
+                c.equals(r, "terminal") || c.equals(r, "samples"))
+                rank = Rank.NO_RANK;
+            else {
+                rank = c.getRank(r);
+                if (rank == null)
+                    rankname = c.get(r);
             }
 
-			++row;
-			if (row % 250000 == 0) System.out.println(row);
+            int f = cols.flagscolumn;
+            hasFlags = !c.isEmpty(f);
+            flagstring = null;
+            if (hasFlags && !Flag.parseFlags(c.buf, c.start(f), c.end(f), flags))
+                flagstring = c.get(f);
+        }
+    }
 
-            int len = parts.length;
-            if (len < 3) {
-                System.err.format("** Too few columns in row: %s\n", str);
-                continue;
-            }
+    // Create the taxon for one row and attach it to its parent.
 
-            String id = parts[idcolumn];
-            if (id.length() == 0) {
-                System.err.format("** No id: %s\n", str);
-                continue;
-            }
-            String parentId = parts[parentcolumn];
-            String name = (namecolumn < len ? parts[namecolumn] : "");
-            String rank = (rankcolumn < len ? parts[rankcolumn] : "");
-            String flags = (flagscolumn < len ? parts[flagscolumn] : "");
-            String info = (infocolumn < len ? parts[infocolumn] : "");
-            String source = (sourcecolumn < len ? parts[sourcecolumn] : "");
-            String sourceid = (sourceidcolumn < len ? parts[sourceidcolumn] : "");
-
-            Taxon node = getTaxon(tax, id);
-
-            if (node.parent != null) {
-                System.err.format("** More than one row for this id: %s %s\n", id, name);
-                continue;
-            } else {
-                initTaxon(node, name, rank,
-                          flags, info, source, sourceid);
-
-                // Delay until after all ids are defined
-                if (parentId.equals("null") ||
-                    parentId.equals("not found") ||
-                    parentId.equals(""))
-                    // root
-                    tax.addRoot(node);
-                else
-                    getTaxon(tax, parentId).addChild(node);
-            }
-		}
-		br.close();
+    void loadRow(TaxonRow row) {
+        if (row.count < 3) {
+            System.err.format("** Too few columns in row: %s\n", row.line);
+            return;
+        }
+        if (row.id == null) {
+            System.err.format("** No id: %s\n", row.line);
+            return;
+        }
+
+        Taxon node = getTaxon(tax, row.id);
+
+        if (node.parent != null) {
+            System.err.format("** More than one row for this id: %s %s\n", row.id, row.name);
+        } else {
+            initTaxon(node, row);
+
+            // Delay until after all ids are defined
+            String parentId = row.parentId;
+            if (parentId.equals("null") ||
+                parentId.equals("not found") ||
+                parentId.equals(""))
+                // root
+                tax.addRoot(node);
+            else
+                getTaxon(tax, parentId).addChild(node);
+        }
+    }
 
+    void finishTaxonomyProper(int row) {
         checkForMissingParents(tax);
 
         Taxon life = tax.unique("life");
@@ -245,7 +370,137 @@ public class InterimFormat {
             System.err.println(tax.getTag() + " is ill-formed: " +
                                row + " rows, but only " + 
                                total + " reachable from roots");
-	}
+    }
+
+    // Parallel version of loadTaxonomyProper.  The file is memory
+    // mapped and cut into line-aligned chunks, which are split into
+    // fields on all available cores.  Taxa are then created and
+    // linked to their parents in a second, serial pass over the rows
+    // in file order, so that the result (roots, child order,
+    // diagnostics) is the same as for the serial loader.
+
+    static final int CHUNK_SIZE = 1 << 24;  // 16M
+
+    void loadTaxonomyProperParallel(String filename) throws IOException {
+        FileInputStream in = new FileInputStream(filename);
+        FileChannel channel = in.getChannel();
+        int row = 0;
+        try {
+            long size = channel.size();
+
+            // Header row (or first data row) is handled up front
+            long firstEnd = nextLineStart(channel, 0, size);
+            String first = decodeLine(channel, 0, firstEnd);
+            if (first == null) {
+                finishTaxonomyProper(row);
+                return;
+            }
+            boolean vbar = first.contains("\t|\t");
+            FieldCursor cursor = new FieldCursor(first.toCharArray(), 0, first.length());
+            cursor.nextLine();
+            cursor.split(vbar);
+            Columns columns = new Columns();
+            long start = (columns.processHeader(cursor.toArray(), first) ? firstEnd : 0);
+
+            int nthreads = Runtime.getRuntime().availableProcessors();
+            ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+            // Bound the number of parsed chunks held in memory at once
+            LinkedList<Future<ParsedChunk>> pending = new LinkedList<Future<ParsedChunk>>();
+            try {
+                while (start < size || pending.size() > 0) {
+                    while (start < size && pending.size() < 2 * nthreads) {
+                        long end = nextLineStart(channel, Math.min(start + CHUNK_SIZE, size), size);
+                        pending.add(pool.submit(new ChunkParser(channel, start, end,
+                                                                vbar, columns)));
+                        start = end;
+                    }
+                    // Second pass - consume chunks in file order
+                    ParsedChunk chunk = pending.removeFirst().get();
+                    for (TaxonRow taxonRow : chunk) {
+                        ++row;
+                        if (row % 250000 == 0) System.out.println(row);
+                        loadRow(taxonRow);
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException)e.getCause();
+                throw new RuntimeException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        } finally {
+            channel.close();
+            in.close();
+        }
+        finishTaxonomyProper(row);
+    }
+
+    // Rows in file order
+    static class ParsedChunk extends ArrayList<TaxonRow> {
+        private static final long serialVersionUID = 1L;
+    }
+
+    static class ChunkParser implements Callable<ParsedChunk> {
+        FileChannel channel;
+        long start, end;
+        boolean vbar;
+        Columns columns;
+
+        ChunkParser(FileChannel channel, long start, long end, boolean vbar, Columns columns) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.vbar = vbar;
+            this.columns = columns;
+        }
+
+        public ParsedChunk call() throws IOException {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            // Chunks begin on line boundaries, so also on character boundaries
+            CharBuffer chars = StandardCharsets.UTF_8.decode(buf);
+            FieldCursor cursor = new FieldCursor(chars.array(),
+                                                 chars.arrayOffset() + chars.position(),
+                                                 chars.arrayOffset() + chars.limit());
+            ParsedChunk chunk = new ParsedChunk();
+            while (cursor.nextLine()) {
+                cursor.split(vbar);
+                TaxonRow row = new TaxonRow();
+                row.fill(cursor, columns);
+                chunk.add(row);
+            }
+            return chunk;
+        }
+    }
+
+    // Position just after the first line terminator at or after pos
+    static long nextLineStart(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) break;
+            for (int k = 0; k < n; ++k)
+                if (buf.get(k) == '\n')
+                    return pos + k + 1;
+            pos += n;
+        }
+        return size;
+    }
+
+    // Text of line occupying [start, end), without its terminator
+    static String decodeLine(FileChannel channel, long start, long end) throws IOException {
+        if (end <= start) return null;
+        ByteBuffer buf = ByteBuffer.allocate((int)(end - start));
+        while (buf.hasRemaining())
+            if (channel.read(buf, start + buf.position()) < 0) break;
+        int len = buf.position();
+        byte[] bytes = buf.array();
+        while (len > 0 && (bytes[len - 1] == '\n' || bytes[len - 1] == '\r')) --len;
+        return new String(bytes, 0, len, StandardCharsets.UTF_8);
+    }
 
     void checkForMissingParents(Taxonomy tax) {
         // Look for parents that lack their own records
@@ -274,42 +529,44 @@ public class InterimFormat {
     }
 
 	// Populate fields of a Taxon object from fields of row of taxonomy file
-	// parts = fields from row of dump file
-	void initTaxon(Taxon node, String name, String rankname, 
-                   String flags, String info, String source, String sourceid) {
+	void initTaxon(Taxon node, TaxonRow row) {
+        String name = row.name;
         if (name != null)
             node.setName(name);
 
-        if (flags.length() > 0)
-            Flag.parseFlags(flags, node);
-
-        if (rankname.length() == 0 || rankname.startsWith("no rank") ||
-            rankname.equals("terminal") || rankname.equals("samples"))
-            node.rank = Rank.NO_RANK;
-        else {
-            Rank rank = Rank.getRank(rankname);
-            if (rank == null) {
-                System.err.println("** Unrecognized rank: " + rankname +
-                                   " for node " + node.id);
-                node.rank = Rank.NO_RANK;
-            } else if (rank == Rank.GENUS_RANK && name.endsWith("ae")) {
-                node.markEvent("rank=genus, but name does not look like a genus");
-                // System.out.format("* Does not look like a %s: %s\n", rankname, name);
-                // do not set rank.  E.g. NCBI Dichelesthiidae, Pontosphaeraceae,
-                // GBIF Calycanthaceae, Chimaeridae, Tettigoniidae, Astropectinidae
-            } else if (rank == Rank.FAMILY_RANK && !name.endsWith("ae")) {
-                node.markEvent("rank=family, but name does not look like a family");
-                // System.out.format("* Does not look like a %s: %s\n", rankname, name);
-                // NCBI Labyrithula, Sporonauta, GBIF Leptodactyla, etc.
-            } else
-                node.rank = rank;
+        if (row.hasFlags) {
+            if (row.flagstring != null)
+                Flag.parseFlags(row.flagstring, node);  // reports the bad ones
+            else {
+                node.properFlags = row.flags[0];
+                node.inferredFlags = row.flags[1];
+            }
         }
 
-        if (info != null && info.length() > 0)
-            node.setSourceIds(info);
-
-        if (source.length() > 0 && sourceid.length() > 0)
-            node.addSourceId(new QualifiedId(source, sourceid));
+        Rank rank = row.rank;
+        if (rank == Rank.NO_RANK)
+            node.rank = Rank.NO_RANK;
+        else if (rank == null) {
+            System.err.println("** Unrecognized rank: " + row.rankname +
+                               " for node " + node.id);
+            node.rank = Rank.NO_RANK;
+        } else if (rank == Rank.GENUS_RANK && name.endsWith("ae")) {
+            node.markEvent("rank=genus, but name does not look like a genus");
+            // System.out.format("* Does not look like a %s: %s\n", rankname, name);
+            // do not set rank.  E.g. NCBI Dichelesthiidae, Pontosphaeraceae,
+            // GBIF Calycanthaceae, Chimaeridae, Tettigoniidae, Astropectinidae
+        } else if (rank == Rank.FAMILY_RANK && !name.endsWith("ae")) {
+            node.markEvent("rank=family, but name does not look like a family");
+            // System.out.format("* Does not look like a %s: %s\n", rankname, name);
+            // NCBI Labyrithula, Sporonauta, GBIF Leptodactyla, etc.
+        } else
+            node.rank = rank;
+
+        if (row.info != null && row.info.length() > 0)
+            node.setSourceIds(row.info);
+
+        if (row.source != null)
+            node.addSourceId(new QualifiedId(row.source, row.sourceid));
 	}
 
 	public void dumpNodes(Iterable<Taxon> nodes, String outprefix, String sep) throws IOException {
@@ -322,13 +579,25 @@ public class InterimFormat {
 
 		for (Taxon node : nodes)
 			if (!node.prunedp)
-				dumpNode(node, out, true, sep);
+				dumpSubtree(node, out, sep);
             else
                 System.err.format("** Prunedp taxon in taxonomy: %s\n", node);
 		out.close();
 	}
 
-	// Recursive!
+	void dumpSubtree(final Taxon root, final PrintStream out, final String sep) {
+        Traversal.walk(root, new Traversal.Visitor() {
+                public boolean pre(Taxon node) {
+                    if (node == null) {
+                        System.err.println("** null in children list!?");
+                        return false;
+                    }
+                    dumpNode(node, out, node == root, sep);
+                    return true;
+                }
+            });
+	}
+
 	void dumpNode(Taxon node, PrintStream out, boolean rootp, String sep) {
 		// 0. uid:
 		out.print((node.id == null ? "?" : node.id) + sep);
@@ -360,163 +629,208 @@ public class InterimFormat {
 		// was: out.print(((node.flags != null) ? node.flags : "") + sep);
 
 		out.println();
-
-		if (node.children != null)
-			for (Taxon child : node.children) {
-				if (child == null)
-					System.err.println("** null in children list!? " + node);
-				else
-					dumpNode(child, out, false, sep);
-			}
 	}
 
     // load forwarding pointers
 
 	void loadForwards(String filename) throws IOException {
+        ForwardRows rows = readForwards(filename);
+        if (rows != null)
+            addForwards(rows);
+    }
+
+    // alias, truth pairs from forwards.tsv
+    static class ForwardRows extends ArrayList<String[]> {
+        private static final long serialVersionUID = 1L;
+        long millis;            // time taken to read
+    }
+
+    // Doesn't touch the taxonomy, so can run concurrently with loading
+    // it.  Returns null if there is no such file.
+
+    static ForwardRows readForwards(String filename) throws IOException {
+        long start = System.currentTimeMillis();
 		BufferedReader fr;
 		try {
 			fr = Taxonomy.fileReader(filename);
 		} catch (java.io.FileNotFoundException e) {
-			fr = null;
+			return null;
 		}
-		if (fr != null) {
-            int count = 0;
-            fr.readLine();      // header row
-            String str;
-			while ((str = fr.readLine()) != null) {
-                String[] parts = tabOnly.split(str);
-                String alias = parts[0].trim();
-                String truth = parts[1].trim();
-                Taxon target = tax.lookupId(truth);
-                if (target != null && tax.lookupId(alias) == null) {
+        ForwardRows rows = new ForwardRows();
+        FieldCursor cursor = new FieldCursor(fr);
+        cursor.nextLine();      // header row
+        while (cursor.nextLine()) {
+            cursor.split(false);
+            String[] pair = {cursor.getTrimmed(0), cursor.getTrimmed(1)};
+            rows.add(pair);
+        }
+        fr.close();
+        rows.millis = System.currentTimeMillis() - start;
+        return rows;
+    }
+
+    void addForwards(ForwardRows rows) {
+        int count = 0;
+        for (String[] pair : rows) {
+            String alias = pair[0], truth = pair[1];
+            Taxon target = tax.lookupId(truth);
+            if (target != null) {
+                if (tax.lookupId(alias) == null) {
                     tax.addId(target, alias);
                     ++count;
                 }
             }
-            System.out.format("| %s id aliases\n", count);
-            fr.close();
         }
+        System.out.format("| %s id aliases\n", count);
     }
 
 	// load | dump synonyms
 
 	void loadSynonyms(String filename) throws IOException {
+        SynonymRows rows = readSynonyms(filename);
+        if (rows != null)
+            addSynonyms(rows);
+    }
+
+    static class SynonymRow {
+        String id, name, type, sourceinfo, sid;
+    }
+
+    // Rows that are to become synonyms, in file order
+    static class SynonymRows extends ArrayList<SynonymRow> {
+        private static final long serialVersionUID = 1L;
+        int rows = 0;           // rows read, including header and skipped rows
+        long millis;            // time taken to read
+    }
+
+    // Tokenize synonyms file, dropping the synonym types that we
+    // don't use.  Doesn't touch the taxonomy, so can run concurrently
+    // with loading it.  Returns null if there is no such file.
+
+    static SynonymRows readSynonyms(String filename) throws IOException {
+        long start = System.currentTimeMillis();
 		BufferedReader fr;
 		try {
 			fr = Taxonomy.fileReader(filename);
 		} catch (java.io.FileNotFoundException e) {
-			fr = null;
+			return null;
 		}
-		if (fr != null) {
-			// BufferedReader br = new BufferedReader(fr);
-			BufferedReader br = fr;
-			int count = 0;
-			int zcount = 0;
-			String str;
-			int id_column = 0;
-			int name_column = 1;
-			int type_column = Integer.MAX_VALUE;
-			int info_column = Integer.MAX_VALUE;
-            int sid_column = Integer.MAX_VALUE;
-			int row = 0;
-			int losers = 0;
-            Pattern pat = null;
-			while ((str = br.readLine()) != null) {
-
-				if (pat == null) {
-					String[] parts = tabOnly.split(str + "!");	 // Java loses
-					if (parts[1].equals("|"))
-						pat = tabVbarTab;
-					else
-						pat = tabOnly;
-				}
-
-				String[] parts = pat.split(str);
-				// uid | name | type | source |
-				// 36602	|	Sorbus alnifolia	|	synonym	|	|	
-				if (parts.length >= 2) {
-					if (row++ == 0) {
-						Map<String, Integer> headerx = new HashMap<String, Integer>();
-						for (int i = 0; i < parts.length; ++i)
-							headerx.put(parts[i], i);
-						Integer o2 = headerx.get("uid");
-						if (o2 == null) o2 = headerx.get("id");
-						if (o2 != null) {
-							id_column = o2;
-							Integer o1 = headerx.get("name");
-							if (o1 != null) name_column = o1;
-							Integer o3 = headerx.get("type");
-							if (o3 != null) type_column = o3;
-							Integer o4 = headerx.get("sourceinfo");
-							if (o4 != null) info_column = o4;
-							Integer o5 = headerx.get("sid");
-							if (o5 != null) sid_column = o5;
-							continue;
-						}
-					}
-					String id = parts[id_column];
-					String name = parts[name_column];
-					String type = (type_column < parts.length ?
-								   parts[type_column] :
-								   "synonym");
-                    String sourceinfo = (info_column < parts.length ?
-                                         parts[info_column] :
-                                         "");
-                    String sid = (sid_column < parts.length ?
-                                  parts[sid_column] :
-                                  null);
-					Taxon node = tax.lookupId(id);
-					if (node == null) {
-						if (false && ++losers < 10)
-							System.err.println("** Identifier " + id + " unrecognized for synonym " + name);
-						else if (losers == 10)
-							System.err.println("...");
-						continue;
-					}
-
-				    // Synonym types from NCBI:
-                    // synonym
-				    // equivalent name  - usually misspelling or spelling variant
-				    // misspelling
-				    // authority	 - always extends scientific name
-				    // type material	 - bacterial strain as type for prokaryotic species ??
-				    // common name
-				    // genbank common name
-				    // blast name   - 247 of them - a kind of common name
-				    // in-part (e.g. Bacteria in-part: Monera)
-				    // includes (what polarity?)
-
-                    if (type.equals("type material")) // NCBI
-                        continue;
-                    else if (type.equals("authority")) // NCBI
-                        continue;
-                    else if (type.endsWith("common name")) { // NCBI
-                        if (!type.equals("common name")) // NCBI
-                            continue;
-                    } else if (type.equals("blast name")) // NCBI
-                        continue;
-                    else if (type.equals("in-part")) // NCBI
-                        continue;
-                    else if (type.equals("valid")) // IRMNG - redundant - ?
+        SynonymRows result = new SynonymRows();
+        FieldCursor cursor = new FieldCursor(fr);
+        int id_column = 0;
+        int name_column = 1;
+        int type_column = Integer.MAX_VALUE;
+        int info_column = Integer.MAX_VALUE;
+        int sid_column = Integer.MAX_VALUE;
+        int row = 0;
+        Boolean vbar = null;
+        while (cursor.nextLine()) {
+
+            if (vbar == null) {
+                cursor.split(false);
+                vbar = cursor.equals(1, "|");
+            }
+
+            cursor.split(vbar);
+            // uid | name | type | source |
+            // 36602	|	Sorbus alnifolia	|	synonym	|	|	
+            if (cursor.count() >= 2) {
+                if (row++ == 0) {
+                    String[] parts = cursor.toArray();
+                    Map<String, Integer> headerx = new HashMap<String, Integer>();
+                    for (int i = 0; i < parts.length; ++i)
+                        headerx.put(parts[i], i);
+                    Integer o2 = headerx.get("uid");
+                    if (o2 == null) o2 = headerx.get("id");
+                    if (o2 != null) {
+                        id_column = o2;
+                        Integer o1 = headerx.get("name");
+                        if (o1 != null) name_column = o1;
+                        Integer o3 = headerx.get("type");
+                        if (o3 != null) type_column = o3;
+                        Integer o4 = headerx.get("sourceinfo");
+                        if (o4 != null) info_column = o4;
+                        Integer o5 = headerx.get("sid");
+                        if (o5 != null) sid_column = o5;
                         continue;
-                    else if (type.equals("") || type.equals("None"))
-                        type = "synonym";
-
-                    Node syn = node.addSynonym(name, type, sid);
-                    if (syn != null) {
-                        syn.setSourceIds(sourceinfo);
-                        if (sid != null)
-                            syn.setId(sid);
-                        if (syn != node) {
-                            ++count;
-                        } else
-                            ++zcount;
                     }
-				}
-			}
-			br.close();
-            System.out.format("| %s synonym rows, %s synonyms, %s patched\n", row-1, count, zcount);
-		}
+                }
+
+                // Synonym types from NCBI:
+                // synonym
+                // equivalent name  - usually misspelling or spelling variant
+                // misspelling
+                // authority	 - always extends scientific name
+                // type material	 - bacterial strain as type for prokaryotic species ??
+                // common name
+                // genbank common name
+                // blast name   - 247 of them - a kind of common name
+                // in-part (e.g. Bacteria in-part: Monera)
+                // includes (what polarity?)
+
+                String type;
+                if (type_column >= cursor.count())
+                    type = "synonym";
+                else if (cursor.equals(type_column, "type material")) // NCBI
+                    continue;
+                else if (cursor.equals(type_column, "authority")) // NCBI
+                    continue;
+                else if (cursor.equals(type_column, "common name")) // NCBI
+                    type = "common name";
+                else if (cursor.equals(type_column, "synonym"))
+                    type = "synonym";
+                else if (cursor.equals(type_column, "blast name")) // NCBI
+                    continue;
+                else if (cursor.equals(type_column, "in-part")) // NCBI
+                    continue;
+                else if (cursor.equals(type_column, "valid")) // IRMNG - redundant - ?
+                    continue;
+                else if (cursor.isEmpty(type_column) || cursor.equals(type_column, "None"))
+                    type = "synonym";
+                else {
+                    type = Symbols.intern(cursor.get(type_column));
+                    if (type.endsWith("common name")) // NCBI, e.g. genbank common name
+                        continue;
+                }
+
+                SynonymRow syn = new SynonymRow();
+                syn.id = cursor.get(id_column);
+                syn.name = Symbols.intern(cursor.get(name_column));
+                syn.type = type;
+                syn.sourceinfo = cursor.get(info_column);
+                syn.sid = (sid_column < cursor.count() ?
+                           cursor.get(sid_column) :
+                           null);
+                result.add(syn);
+            }
+        }
+        fr.close();
+        result.rows = row;
+        result.millis = System.currentTimeMillis() - start;
+        return result;
+    }
+
+    // Attach synonyms to taxa; the id index must be complete
+
+    void addSynonyms(SynonymRows rows) {
+        int count = 0;
+        int zcount = 0;
+        for (SynonymRow row : rows) {
+            Taxon node = tax.lookupId(row.id);
+            if (node == null)
+                continue;
+            Node syn = node.addSynonym(row.name, row.type, row.sid);
+            if (syn != null) {
+                syn.setSourceIds(row.sourceinfo);
+                if (row.sid != null)
+                    syn.setId(row.sid);
+                if (syn != node) {
+                    ++count;
+                } else
+                    ++zcount;
+            }
+        }
+        System.out.format("| %s synonym rows, %s synonyms, %s patched\n", rows.rows-1, count, zcount);
 	}
 
 
@@ -0,0 +1,124 @@
+/*
+  Compare the serial and parallel taxonomy.tsv loaders on a generated
+  taxonomy.
+
+  java org.opentreeoflife.taxa.LoadBenchmark [rows [directory/]]
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class LoadBenchmark {
+
+    static String[] ranks = {"no rank", "order", "family", "genus", "species"};
+
+    // Write an interim format taxonomy with the given number of rows.
+    // A few duplicate rows and rows with missing parents are thrown in
+    // so that the diagnostics get exercised.
+
+    static void generate(String dirname, int rows) throws IOException {
+        new File(dirname).mkdirs();
+        PrintStream out = Taxonomy.openw(dirname + "taxonomy.tsv");
+        String sep = "\t|\t";
+        out.format("uid%sparent_uid%sname%srank%ssourceinfo%suniqname%sflags%s\n",
+                   sep, sep, sep, sep, sep, sep, sep);
+        Random random = new Random(17);
+        out.format("1%s%slife%sno rank%s%s%s%s\n", sep, sep, sep, sep, sep, sep, sep);
+        for (int i = 2; i <= rows; ++i) {
+            int parent = 1 + random.nextInt(i - 1);
+            String parentId = (i % 1000000 == 0 ? "m" + i : Integer.toString(parent));
+            String id = (i % 1000003 == 0 ? Integer.toString(i - 1) : Integer.toString(i));
+            out.format("%s%s%s%sTaxon %s%s%s%sncbi:%s%s%s%s\n",
+                       id, sep, parentId, sep, i, sep,
+                       ranks[random.nextInt(ranks.length)], sep,
+                       i, sep, sep,
+                       (i % 7 == 0 ? "extinct" : ""), sep);
+        }
+        out.close();
+
+        out = Taxonomy.openw(dirname + "synonyms.tsv");
+        out.format("name%suid%stype%suniqname%ssourceinfo%s\n", sep, sep, sep, sep, sep);
+        for (int i = 2; i <= rows; i += 2)
+            out.format("Synonym %s%s%s%s%s%s%sncbi:%s%s\n",
+                       i, sep, i, sep, (i % 6 == 0 ? "common name" : "synonym"), sep, sep, i, sep);
+        out.close();
+    }
+
+    static SourceTaxonomy load(String dirname, boolean parallel) throws IOException {
+        SourceTaxonomy tax = new SourceTaxonomy("bench");
+        new InterimFormat(tax).loadTaxonomy(dirname, parallel);
+        return tax;
+    }
+
+    // Time one load; the fingerprint of the result goes in fingerprints
+    static long time(String dirname, boolean parallel, List<Long> fingerprints) throws IOException {
+        System.gc();
+        long gcCount = gcCount(), gcTime = gcTime();
+        long start = System.currentTimeMillis();
+        SourceTaxonomy tax = load(dirname, parallel);
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.format("| %s load: %s ms, %s collections, %s ms in GC\n",
+                          parallel ? "parallel" : "serial", elapsed,
+                          gcCount() - gcCount, gcTime() - gcTime);
+        fingerprints.add(fingerprint(tax));
+        return elapsed;
+    }
+
+    static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += gc.getCollectionCount();
+        return count;
+    }
+
+    static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            time += gc.getCollectionTime();
+        return time;
+    }
+
+    // Covers roots, parents, names, ranks, flags, and child order
+    static long fingerprint(Taxonomy tax) {
+        long h = tax.count();
+        for (Taxon node : tax.taxa()) {
+            h = h * 31 + (node.id == null ? 0 : node.id.hashCode());
+            h = h * 31 + (node.parent.id == null ? 0 : node.parent.id.hashCode());
+            h = h * 31 + (node.name == null ? 0 : node.name.hashCode());
+            h = h * 31 + node.rank.level;
+            h = h * 31 + node.properFlags;
+        }
+        return h;
+    }
+
+    public static void main(String[] argv) throws IOException {
+        int rows = (argv.length > 0 ? Integer.parseInt(argv[0]) : 5000000);
+        String dirname = (argv.length > 1 ? argv[1] : "/tmp/load-benchmark/");
+        if (!new File(dirname + "taxonomy.tsv").exists()) {
+            System.out.format("| Generating %s rows in %s\n", rows, dirname);
+            generate(dirname, rows);
+        }
+        int trials = 3;
+        List<Long> fingerprints = new ArrayList<Long>();
+        long[] serial = new long[trials], parallel = new long[trials];
+        for (int i = 0; i < trials; ++i) {
+            fingerprints.clear();
+            serial[i] = time(dirname, false, fingerprints);
+            parallel[i] = time(dirname, true, fingerprints);
+            if (!fingerprints.get(0).equals(fingerprints.get(1)))
+                System.err.println("** Serial and parallel loads differ");
+        }
+        for (int i = 0; i < trials; ++i)
+            System.out.format("| trial %s: serial %s ms, parallel %s ms (%s cores)\n",
+                              i, serial[i], parallel[i],
+                              Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -0,0 +1,816 @@
+/*
+  Read-only taxonomy backed by a memory-mapped file.
+
+  A designator of the form foo.ottmap refers to a mapped snapshot of
+  the interim format taxonomy in foo/, or of the Newick tree in foo.tre
+  if there is no foo/.  As for .ottbin snapshots, the file records a
+  checksum of its inputs, and is (re)made from them if needed.
+
+  Nothing is read onto the heap when the taxonomy is opened.  Taxon
+  objects are made on demand, when a node is reached by lookup,
+  lookupId, or traversal, and are dropped again when no longer in use.
+  A node's parent (and so its whole lineage) is made along with it, so
+  getDepth, mrca, descendsFrom, and so on work as usual; children are
+  made as they are iterated over.  While a Taxon for a node is in use,
+  the same Taxon is returned for that node, so the result of
+  ConflictAnalysis etc. can be compared with ==.
+
+  The file is only ever read, so several processes can share one copy
+  through the page cache.  The tree can't be modified (addChild etc.
+  throw UnsupportedOperationException).
+
+  The same layout, held in a byte array instead of a file, serves as a
+  compact 'frozen' form for a source taxonomy that is done being
+  patched and will only be read from, e.g. by alignment and merge (see
+  SourceTaxonomy.freeze).  Alignment caches per-node state (lub, seq,
+  division, flags set by adjustments) in the Taxon objects, so in a
+  frozen taxonomy a Taxon, once made, is kept for as long as the
+  taxonomy is.
+
+  Layout (big-endian):
+    header: magic, version, postload flag, node count, source id count,
+      id table size, name table size, name list length, checksum of
+      inputs, idspace as requested, idspace as loaded, properties,
+      length of string area, synonym count
+    per node columns, breadth first, forest first (so that the children
+      of a node are consecutive): parent, first child, child count,
+      name, id, rank, proper flags, inferred flags, node count at or
+      below, depth, start of node's synonyms
+    per synonym columns, grouped by taxon: taxon, name, type, id
+    source ids: start of each node's and then each synonym's source
+      ids, then prefix, id pairs
+    id table: open addressing hash table of id -> node or synonym
+    name table: open addressing hash table of name -> list of nodes
+      and synonyms
+    string area: each string is a length followed by UTF-8 bytes
+  Strings are given as offsets into the string area, -1 for null.
+  Synonym k is referred to as node count + k.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class MappedTaxonomy extends SourceTaxonomy {
+
+    static final int MAGIC = 0x4f54544d;    // OTTM
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 64;
+
+    static final String SUFFIX = ".ottmap";
+
+    private int n;                  // number of nodes, including forest
+    private IntBuffer parents, childStarts, childCounts, names, ids, ranks,
+        properFlags, inferredFlags, counts, depths, synonymStarts,
+        synTaxa, synNames, synTypes, synIds, sourceStarts, qids,
+        idKeys, idNodes, nameKeys, nameStarts, nameCounts, nameLists;
+    private ByteBuffer strings;
+
+    // views[i] is the Taxon for node i, if there is one in use
+    private WeakReference<Taxon>[] views;
+
+    // Frozen taxonomy: retained[i] is the Taxon for node i, once made
+    private Taxon[] retained = null;
+
+    // For names of unnamed nodes, see borrowNames
+    private Taxonomy nameSource = null;
+    private String nameSourcePrefix = null;
+
+    private MappedTaxonomy(String idspace) {
+        super(idspace);
+    }
+
+    // Get taxonomy from mapped snapshot, making or remaking the
+    // snapshot if needed.
+    // postload = the snapshot is of the taxonomy after postLoadActions
+
+    static SourceTaxonomy getTaxonomy(String designator, String idspace,
+                                      boolean postload, boolean parallel)
+        throws IOException {
+        String base = designator.substring(0, designator.length() - SUFFIX.length());
+        String source = (new File(base).isDirectory() || !new File(base + ".tre").exists() ?
+                         base + "/" :
+                         base + ".tre");
+        File snapshot = new File(designator);
+        long checksum = (source.endsWith("/") ?
+                         BinaryFormat.inputChecksum(source) :
+                         fileChecksum(new File(source)));
+
+        if (snapshot.exists()) {
+            System.out.println("--- Mapping " + designator + " ---");
+            MappedTaxonomy tax = open(snapshot, idspace, postload, checksum);
+            if (tax != null)
+                return tax;
+        }
+
+        if (checksum == 0) {
+            System.err.format("** No taxonomy in %s, and no usable snapshot %s\n",
+                              source, designator);
+            throw new java.io.FileNotFoundException(source);
+        }
+        SourceTaxonomy tax = (postload ?
+                              Taxonomy.getTaxonomy(source, idspace, parallel) :
+                              Taxonomy.getRawTaxonomy(source, idspace, parallel));
+        write(tax, snapshot, idspace, postload, checksum);
+        tax = null;             // let it go before mapping
+        return open(snapshot, idspace, postload, checksum);
+    }
+
+    // CRC of a single input file (e.g. Newick), or 0 if it doesn't exist
+
+    static long fileChecksum(File file) throws IOException {
+        if (!file.exists()) return 0;
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[1 << 16];
+        InputStream in = new FileInputStream(file);
+        try {
+            int k;
+            while ((k = in.read(buf)) > 0)
+                crc.update(buf, 0, k);
+        } finally {
+            in.close();
+        }
+        return crc.getValue() + 1;
+    }
+
+    // Unnamed nodes whose ids are prefix + an id in source get their
+    // names from source.  E.g. borrowNames(ott, "ott") for the
+    // synthetic tree, where node ids look like "ott123".
+    // The names are not in the name index.
+
+    public void borrowNames(Taxonomy source, String prefix) {
+        synchronized (this) {
+            this.nameSource = source;
+            this.nameSourcePrefix = prefix;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Write snapshot
+
+    static void write(Taxonomy tax, File snapshot, String requestedIdspace,
+                      boolean postload, long checksum)
+        throws IOException {
+        // Write to a temporary file first so that a concurrent reader
+        // never sees a partial snapshot
+        File temp = new File(snapshot.getPath() + ".tmp");
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+        int n = write(tax, out, requestedIdspace, postload, checksum);
+        out.close();
+        if (!temp.renameTo(snapshot))
+            System.err.format("** Could not rename %s to %s\n", temp, snapshot);
+        else
+            System.out.format("| Wrote mapped snapshot %s (%s taxa)\n", snapshot, n - 1);
+    }
+
+    // Returns number of nodes written, including forest
+
+    static int write(Taxonomy tax, DataOutputStream out, String requestedIdspace,
+                     boolean postload, long checksum)
+        throws IOException {
+
+        // Number the nodes, breadth first
+        List<Taxon> taxa = new ArrayList<Taxon>();
+        Map<Node, Integer> index = new HashMap<Node, Integer>();
+        taxa.add(tax.forest);
+        for (int i = 0; i < taxa.size(); ++i) {
+            Taxon node = taxa.get(i);
+            index.put(node, i);
+            if (node.children != null)
+                for (Taxon child : node.children)
+                    taxa.add(child);
+        }
+        int n = taxa.size();
+
+        // Then the synonyms, in the same order as their taxa
+        List<Synonym> synonyms = new ArrayList<Synonym>();
+        int[] synonymStarts = new int[n + 1];
+        for (int i = 0; i < n; ++i) {
+            synonymStarts[i] = synonyms.size();
+            for (Synonym syn : taxa.get(i).getSynonyms()) {
+                index.put(syn, n + synonyms.size());
+                synonyms.add(syn);
+            }
+        }
+        int nsyn = synonyms.size();
+        synonymStarts[n] = nsyn;
+
+        StringArea area = new StringArea();
+        int[] parents = new int[n], childStarts = new int[n], childCounts = new int[n],
+            names = new int[n], ids = new int[n], ranks = new int[n],
+            properFlags = new int[n], inferredFlags = new int[n],
+            counts = new int[n], depths = new int[n], sourceStarts = new int[n + nsyn + 1];
+        List<QualifiedId> qids = new ArrayList<QualifiedId>();
+        int next = 1;
+        for (int i = 0; i < n; ++i) {
+            Taxon node = taxa.get(i);
+            parents[i] = (node.parent == null ? -1 : index.get(node.parent));
+            depths[i] = (i == 0 ? 0 : depths[parents[i]] + 1);
+            childStarts[i] = next;
+            if (node.children != null) {
+                childCounts[i] = node.children.size();
+                next += childCounts[i];
+            }
+            names[i] = area.add(node.name);
+            ids[i] = area.add(node.id);
+            ranks[i] = area.add(node.rank == null ? null : node.rank.name);
+            properFlags[i] = node.properFlags;
+            inferredFlags[i] = node.inferredFlags;
+            sourceStarts[i] = qids.size();
+            if (node.sourceIds != null)
+                qids.addAll(node.sourceIds);
+        }
+        // Subtree sizes, leaves first
+        for (int i = n - 1; i >= 0; --i) {
+            counts[i] += 1;
+            if (i > 0) counts[parents[i]] += counts[i];
+        }
+
+        int[] synTaxa = new int[nsyn], synNames = new int[nsyn],
+            synTypes = new int[nsyn], synIds = new int[nsyn];
+        for (int k = 0; k < nsyn; ++k) {
+            Synonym syn = synonyms.get(k);
+            synTaxa[k] = index.get(syn.taxon());
+            synNames[k] = area.add(syn.name);
+            synTypes[k] = area.add(syn.type);
+            synIds[k] = area.add(syn.id);
+            sourceStarts[n + k] = qids.size();
+            if (syn.sourceIds != null)
+                qids.addAll(syn.sourceIds);
+        }
+        sourceStarts[n + nsyn] = qids.size();
+
+        // Id table
+        List<String> idList = new ArrayList<String>();
+        for (String id : tax.allIds()) {
+            Node node = tax.getNodeById(id);
+            if (node != null && index.containsKey(node))
+                idList.add(id);
+        }
+        int idCapacity = tableSize(idList.size());
+        int[] idKeys = new int[idCapacity], idNodes = new int[idCapacity];
+        java.util.Arrays.fill(idKeys, -1);
+        for (String id : idList) {
+            int slot = area.insert(id, idKeys);
+            idNodes[slot] = index.get(tax.getNodeById(id));
+        }
+
+        // Name table, homonyms in the order in which they're indexed
+        List<String> nameList = new ArrayList<String>();
+        List<List<Integer>> nodeLists = new ArrayList<List<Integer>>();
+        for (String name : tax.allNames()) {
+            List<Integer> nodes = new ArrayList<Integer>();
+            for (Node node : tax.lookup(name)) {
+                Integer i = index.get(node);
+                if (i != null) nodes.add(i);
+            }
+            if (nodes.size() > 0) {
+                nameList.add(name);
+                nodeLists.add(nodes);
+            }
+        }
+        int nameCapacity = tableSize(nameList.size());
+        int[] nameKeys = new int[nameCapacity], nameStarts = new int[nameCapacity],
+            nameCounts = new int[nameCapacity];
+        java.util.Arrays.fill(nameKeys, -1);
+        int listLength = 0;
+        for (List<Integer> nodes : nodeLists)
+            listLength += nodes.size();
+        int[] nameLists = new int[listLength];
+        int pos = 0;
+        for (int k = 0; k < nameList.size(); ++k) {
+            int slot = area.insert(nameList.get(k), nameKeys);
+            nameStarts[slot] = pos;
+            nameCounts[slot] = nodeLists.get(k).size();
+            for (Integer i : nodeLists.get(k))
+                nameLists[pos++] = i;
+        }
+
+        int[] qidArray = new int[2 * qids.size()];
+        for (int k = 0; k < qids.size(); ++k) {
+            qidArray[2*k] = area.add(qids.get(k).prefix);
+            qidArray[2*k+1] = area.add(qids.get(k).id);
+        }
+
+        int requested = area.add(requestedIdspace == null ? "" : requestedIdspace);
+        int idspace = area.add(tax.idspace == null ? "" : tax.idspace);
+        int properties = area.add(tax.properties == null ? null : tax.properties.toJSONString());
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(postload ? 1 : 0);
+        out.writeInt(n);
+        out.writeInt(qids.size());
+        out.writeInt(idCapacity);
+        out.writeInt(nameCapacity);
+        out.writeInt(listLength);
+        out.writeLong(checksum);
+        out.writeInt(requested);
+        out.writeInt(idspace);
+        out.writeInt(properties);
+        out.writeInt(area.size());
+        out.writeInt(nsyn);
+        out.writeInt(0);
+        for (int[] column : new int[][]{parents, childStarts, childCounts, names, ids, ranks,
+                                        properFlags, inferredFlags, counts, depths,
+                                        synonymStarts, synTaxa, synNames, synTypes, synIds,
+                                        sourceStarts, qidArray,
+                                        idKeys, idNodes,
+                                        nameKeys, nameStarts, nameCounts, nameLists})
+            for (int x : column)
+                out.writeInt(x);
+        area.writeTo(out);
+        return n;
+    }
+
+    // Hash table size: a power of two, at most half full
+    static int tableSize(int entries) {
+        int size = 2;
+        while (size < 2 * entries) size <<= 1;
+        return size;
+    }
+
+    // FNV-1a over the UTF-8 encoding; must agree between writing and reading
+
+    static int hash(byte[] bytes) {
+        int h = 0x811c9dc5;
+        for (byte b : bytes)
+            h = (h ^ (b & 0xff)) * 0x01000193;
+        return h;
+    }
+
+    static class StringArea {
+        Map<String, Integer> offsets = new HashMap<String, Integer>();
+        Map<Integer, byte[]> encodings = new HashMap<Integer, byte[]>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        int add(String s) {
+            if (s == null) return -1;
+            Integer offset = offsets.get(s);
+            if (offset == null) {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                offset = bytes.size();
+                if (offset < 0 || (long)offset + 4 + b.length > Integer.MAX_VALUE)
+                    throw new RuntimeException("String area too large for mapped snapshot");
+                try {
+                    out.writeInt(b.length);
+                    out.write(b);
+                } catch (IOException e) {
+                    throw new RuntimeException(e); // can't happen
+                }
+                offsets.put(s, offset);
+            }
+            return offset;
+        }
+
+        // Add s as a key in a hash table; returns its slot
+        int insert(String s, int[] keys) {
+            int mask = keys.length - 1;
+            int slot = hash(s.getBytes(StandardCharsets.UTF_8)) & mask;
+            while (keys[slot] >= 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = add(s);
+            return slot;
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        void writeTo(DataOutputStream dest) throws IOException {
+            bytes.writeTo(dest);
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Map snapshot.  Returns null if the snapshot is stale or from a
+    // different version.
+
+    static MappedTaxonomy open(File snapshot, String requestedIdspace, boolean postload, long checksum)
+        throws IOException {
+        RandomAccessFile file = new RandomAccessFile(snapshot, "r");
+        try {
+            final FileChannel channel = file.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                System.err.format("** Not a mapped taxonomy snapshot: %s\n", snapshot);
+                return null;
+            }
+            if (header.getInt(4) != VERSION) {
+                System.out.format("| Snapshot %s is from a different version, remaking\n", snapshot);
+                return null;
+            }
+            if ((header.getInt(8) != 0) != postload) {
+                System.out.format("| Snapshot %s was made with different options, remaking\n", snapshot);
+                return null;
+            }
+            long wasChecksum = header.getLong(32);
+            if (checksum != 0 && wasChecksum != checksum) {
+                System.out.format("| Snapshot %s is stale, remaking\n", snapshot);
+                return null;
+            }
+            if (checksum == 0)
+                System.err.format("** Inputs for %s not found; using snapshot as is\n", snapshot);
+
+            MappedTaxonomy tax = new MappedTaxonomy(requestedIdspace);
+            tax.load(header, new Region() {
+                    public ByteBuffer get(long pos, long length) throws IOException {
+                        return channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+                    }
+                }, false);
+
+            String requested = tax.string(header.getInt(40));
+            if (!requested.equals(requestedIdspace == null ? "" : requestedIdspace)) {
+                System.out.format("| Snapshot %s was made with different options, remaking\n", snapshot);
+                return null;
+            }
+            String properties = tax.string(header.getInt(48));
+            if (properties != null) {
+                try {
+                    JSONObject json = (JSONObject)(new JSONParser().parse(properties));
+                    if (json != null) tax.properties = json;
+                } catch (ParseException e) {
+                    System.err.println(e);
+                }
+            }
+            System.out.format("| %s taxa mapped from snapshot\n", tax.n - 1);
+            return tax;
+        } finally {
+            // The mappings stay valid after the file is closed
+            file.close();
+        }
+    }
+
+    // Where the columns and strings come from: the file, or memory
+    interface Region {
+        ByteBuffer get(long pos, long length) throws IOException;
+    }
+
+    private void load(ByteBuffer header, Region region, boolean retain) throws IOException {
+        int n = header.getInt(12);
+        int nqids = header.getInt(16);
+        int idCapacity = header.getInt(20);
+        int nameCapacity = header.getInt(24);
+        int listLength = header.getInt(28);
+        int nsyn = header.getInt(56);
+
+        long pos = HEADER_SIZE;
+        this.n = n;
+        parents = column(region, pos, n); pos += 4L * n;
+        childStarts = column(region, pos, n); pos += 4L * n;
+        childCounts = column(region, pos, n); pos += 4L * n;
+        names = column(region, pos, n); pos += 4L * n;
+        ids = column(region, pos, n); pos += 4L * n;
+        ranks = column(region, pos, n); pos += 4L * n;
+        properFlags = column(region, pos, n); pos += 4L * n;
+        inferredFlags = column(region, pos, n); pos += 4L * n;
+        counts = column(region, pos, n); pos += 4L * n;
+        depths = column(region, pos, n); pos += 4L * n;
+        synonymStarts = column(region, pos, n + 1); pos += 4L * (n + 1);
+        synTaxa = column(region, pos, nsyn); pos += 4L * nsyn;
+        synNames = column(region, pos, nsyn); pos += 4L * nsyn;
+        synTypes = column(region, pos, nsyn); pos += 4L * nsyn;
+        synIds = column(region, pos, nsyn); pos += 4L * nsyn;
+        sourceStarts = column(region, pos, n + nsyn + 1); pos += 4L * (n + nsyn + 1);
+        qids = column(region, pos, 2 * nqids); pos += 8L * nqids;
+        idKeys = column(region, pos, idCapacity); pos += 4L * idCapacity;
+        idNodes = column(region, pos, idCapacity); pos += 4L * idCapacity;
+        nameKeys = column(region, pos, nameCapacity); pos += 4L * nameCapacity;
+        nameStarts = column(region, pos, nameCapacity); pos += 4L * nameCapacity;
+        nameCounts = column(region, pos, nameCapacity); pos += 4L * nameCapacity;
+        nameLists = column(region, pos, listLength); pos += 4L * listLength;
+        strings = region.get(pos, header.getInt(52));
+
+        String idspace = string(header.getInt(44));
+        if (idspace.length() > 0)
+            this.idspace = idspace;
+
+        if (retain) {
+            retained = new Taxon[n];
+            retained[0] = forest;
+        } else {
+            @SuppressWarnings("unchecked")
+            WeakReference<Taxon>[] views = (WeakReference<Taxon>[])new WeakReference<?>[n];
+            this.views = views;
+            views[0] = new WeakReference<Taxon>(forest);
+        }
+        initNode(forest, 0);
+    }
+
+    static IntBuffer column(Region region, long pos, int length) throws IOException {
+        return region.get(pos, 4L * length).asIntBuffer();
+    }
+
+    // ------------------------------------------------------------
+    // Frozen taxonomy: a copy of tax in the snapshot layout, in memory
+
+    public static MappedTaxonomy freeze(Taxonomy tax) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 20);
+        DataOutputStream out = new DataOutputStream(bytes);
+        int n;
+        try {
+            n = write(tax, out, tax.idspace, true, 0);
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e); // can't happen
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        bytes = null;
+
+        MappedTaxonomy frozen = new MappedTaxonomy(tax.idspace);
+        try {
+            frozen.load(slice(buffer, 0, HEADER_SIZE), new Region() {
+                    public ByteBuffer get(long pos, long length) {
+                        return slice(buffer, (int)pos, (int)length);
+                    }
+                }, true);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // can't happen
+        }
+        frozen.properties = tax.properties;
+        frozen.eventLogger = tax.eventLogger;
+        System.out.format("| Froze %s taxa into %s Mbytes\n", n - 1, buffer.capacity() >> 20);
+        return frozen;
+    }
+
+    static ByteBuffer slice(ByteBuffer buffer, int pos, int length) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(pos);
+        b.limit(pos + length);
+        return b.slice();
+    }
+
+    String string(int offset) {
+        if (offset < 0) return null;
+        int length = strings.getInt(offset);
+        byte[] bytes = new byte[length];
+        ByteBuffer b = strings.duplicate();
+        b.position(offset + 4);
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    boolean stringEquals(int offset, byte[] bytes) {
+        if (strings.getInt(offset) != bytes.length) return false;
+        for (int k = 0; k < bytes.length; ++k)
+            if (strings.get(offset + 4 + k) != bytes[k])
+                return false;
+        return true;
+    }
+
+    // Slot in hash table, or -1 if s isn't a key
+    int find(String s, IntBuffer keys) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int mask = keys.capacity() - 1;
+        for (int slot = hash(bytes) & mask; ; slot = (slot + 1) & mask) {
+            int key = keys.get(slot);
+            if (key < 0) return -1;
+            if (stringEquals(key, bytes)) return slot;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Taxon views
+
+    // Taxon for node i.  Its ancestors are made too, if they aren't
+    // already in use.
+
+    Taxon taxon(int i) {
+        synchronized (this) {
+            Taxon node = view(i);
+            if (node != null) return node;
+            // Find nearest ancestor that's in use
+            List<Integer> lineage = new ArrayList<Integer>();
+            Taxon parent = null;
+            for (int j = i; parent == null; j = parents.get(j)) {
+                lineage.add(j);
+                parent = view(parents.get(j));
+            }
+            for (int k = lineage.size() - 1; k >= 0; --k) {
+                int j = lineage.get(k);
+                node = new Taxon(this, null);
+                initNode(node, j);
+                node.parent = parent;
+                if (retained != null)
+                    retained[j] = node;
+                else
+                    views[j] = new WeakReference<Taxon>(node);
+                parent = node;
+            }
+            return node;
+        }
+    }
+
+    private Taxon view(int i) {
+        if (retained != null)
+            return retained[i];
+        WeakReference<Taxon> ref = views[i];
+        return (ref == null ? null : ref.get());
+    }
+
+    // Node or synonym k, as found in the id and name tables
+
+    Node node(int k) {
+        if (k < n) return taxon(k);
+        int s = k - n;
+        int t = synTaxa.get(s);
+        // The taxon's synonyms are made along with it, in order
+        List<Synonym> synonyms = (List<Synonym>)taxon(t).getSynonyms();
+        return synonyms.get(s - synonymStarts.get(t));
+    }
+
+    private void initNode(Taxon node, int i) {
+        node.name = Symbols.intern(string(names.get(i)));
+        node.id = string(ids.get(i));
+        if (node.name == null && nameSource != null
+            && node.id != null && node.id.startsWith(nameSourcePrefix)) {
+            Taxon source = nameSource.lookupId(node.id.substring(nameSourcePrefix.length()));
+            if (source != null)
+                node.name = source.name;
+        }
+        Rank rank = Rank.getRank(string(ranks.get(i)));
+        node.rank = (rank == null ? Rank.NO_RANK : rank);
+        node.properFlags = properFlags.get(i);
+        node.inferredFlags = inferredFlags.get(i);
+        node.count = counts.get(i);
+        node.depth = depths.get(i);
+        node.sourceIds = sourceIds(i);
+        if (childCounts.get(i) > 0)
+            node.children = new Children(childStarts.get(i), childCounts.get(i));
+        for (int s = synonymStarts.get(i); s < synonymStarts.get(i + 1); ++s) {
+            Synonym syn = new Synonym(node);
+            syn.name = Symbols.intern(string(synNames.get(s)));
+            syn.type = Symbols.intern(string(synTypes.get(s)));
+            syn.id = string(synIds.get(s));
+            syn.sourceIds = sourceIds(n + s);
+            node.appendSynonym(syn);
+        }
+    }
+
+    // Source ids of node or synonym k, or null if none
+    private List<QualifiedId> sourceIds(int k) {
+        int start = sourceStarts.get(k), end = sourceStarts.get(k + 1);
+        if (start == end) return null;
+        List<QualifiedId> result = new QualifiedIdList(end - start);
+        for (int q = start; q < end; ++q)
+            result.add(new QualifiedId(string(qids.get(2*q)),
+                                       string(qids.get(2*q+1))));
+        return result;
+    }
+
+    // Children of a node; Taxons are made as they're visited
+
+    class Children extends AbstractCollection<Taxon> {
+        private int start, size;
+
+        Children(int start, int size) {
+            this.start = start;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Iterator<Taxon> iterator() {
+            return new Iterator<Taxon>() {
+                private int next = start;
+                public boolean hasNext() {
+                    return next < start + size;
+                }
+                public Taxon next() {
+                    if (next >= start + size)
+                        throw new NoSuchElementException();
+                    return taxon(next++);
+                }
+                public void remove() { throw new UnsupportedOperationException(); }
+            };
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Indexes
+
+	public List<Node> lookup(String name) {
+        if (name == null) return null;
+        int slot = find(name, nameKeys);
+        if (slot < 0) return null;
+        int start = nameStarts.get(slot), count = nameCounts.get(slot);
+        List<Node> nodes = new ArrayList<Node>(count);
+        for (int k = start; k < start + count; ++k)
+            nodes.add(node(nameLists.get(k)));
+        return nodes;
+    }
+
+    public int numberOfNames() {
+        int count = 0;
+        for (int slot = 0; slot < nameKeys.capacity(); ++slot)
+            if (nameKeys.get(slot) >= 0) ++count;
+        return count;
+    }
+
+    public Collection<String> allNames() {
+        return keys(nameKeys);
+    }
+
+    public Iterable<String> allIds() {
+        return keys(idKeys);
+    }
+
+    private List<String> keys(IntBuffer keys) {
+        List<String> result = new ArrayList<String>();
+        for (int slot = 0; slot < keys.capacity(); ++slot)
+            if (keys.get(slot) >= 0)
+                result.add(string(keys.get(slot)));
+        return result;
+    }
+
+    public long maxid() {
+        long maxid = -1;
+        for (String id : allIds()) {
+            try {
+                long idAsLong = Long.parseLong(id);
+                if (idAsLong > maxid) maxid = idAsLong;
+            } catch (NumberFormatException e) {
+                ;
+            }
+        }
+        return maxid;
+    }
+
+	public Node getNodeById(String id) {
+        if (id == null) return null;
+        int slot = find(id, idKeys);
+        if (slot < 0) return null;
+        return node(idNodes.get(slot));
+    }
+
+    // Depths are in the file, and an index would hold on to every
+    // node
+    TreeIndex treeIndex() {
+        return null;
+    }
+
+    // ------------------------------------------------------------
+    // Read-only
+
+    void addToNameIndex(Node node, String name) {
+        readOnly();
+    }
+
+    public void removeFromNameIndex(Node node) {
+        readOnly();
+    }
+
+    public void addId(Node node, String id) {
+        readOnly();
+    }
+
+    public void initId(Node node, String id) {
+        readOnly();
+    }
+
+    public void removeFromIdIndex(Node node, String id) {
+        readOnly();
+    }
+
+    // Written as is.  prepareForDump would modify it (placeBiggest,
+    // assignDummyIds, inferFlags).
+
+	public void dump(String outprefix, String sep) throws IOException {
+        System.out.format("-- Dumping to %s\n", outprefix);
+        new InterimFormat(this).dump(outprefix, sep);
+	}
+
+    private void readOnly() {
+        throw new UnsupportedOperationException("Mapped taxonomy " + this.getTag() + " is read-only");
+    }
+}
@@ -5,124 +5,212 @@ import java.util.regex.Matcher;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Collections;
-import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 public class Newick {
 
     // ----- READ -----
 
-	// Parse Newick yielding nodes
+	// Parse Newick yielding the roots of its trees
 
-	static Taxon newickToNode(String newick, Taxonomy dest) {
-		PushbackReader in = new PushbackReader(new java.io.StringReader(newick));
+	static List<Taxon> newickToNodes(String newick, Taxonomy dest) {
 		try {
-			return newickToNode(in, dest);
-		} catch (java.io.IOException e) {
+			return read(new java.io.StringReader(newick), dest);
+		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
-	// TO BE DONE: 
-    //    Implement ; for reading forests
-    //    Do some syntax checking / error reporting
-
-	static Taxon newickToNode(PushbackReader in, Taxonomy dest) throws IOException {
-		int c = in.read();
-		if (c == '(') {
-			List<Taxon> children = new ArrayList<Taxon>();
-			{
-				Taxon child;
-				while ((child = newickToNode(in, dest)) != null) {
-					children.add(child);
-					int d = in.read();
-					if (d < 0 || d >= 65535 || d == ')') break;
-					if (d != ',') {
-						System.out.format("Newick syntax error: expected comma or right paren: %s %s\n", d, children);
-                        break;  // ???
+	// Read ;-separated trees, returning their roots.  Nodes are created
+	// in dest but the roots are not attached to anything.
+
+	public static List<Taxon> read(InputStream in, Taxonomy dest) throws IOException {
+		return read(new InputStreamReader(in, StandardCharsets.UTF_8), dest);
+	}
+
+	public static List<Taxon> read(Reader in, Taxonomy dest) throws IOException {
+		return new Parser(in, dest).trees();
+	}
+
+    // http://evolution.genetics.washington.edu/phylip/newick_doc.html
+
+    // The parser is iterative, with an explicit stack of pending child
+    // lists, so the depth of the tree is limited only by the heap.
+    // Branch lengths and [comments] are skipped.  Blanks outside of
+    // labels are ignored, and _ in an unquoted label means blank.
+
+    static class Parser {
+        private Reader in;
+        private Taxonomy dest;
+        private char[] buf = new char[1 << 16];
+        private int pos = 0, limit = 0;
+        private long offset = 0;        // of buf[0] in input, for messages
+        private StringBuilder label = new StringBuilder();
+
+        Parser(Reader in, Taxonomy dest) {
+            this.in = in;
+            this.dest = dest;
+        }
+
+        List<Taxon> trees() throws IOException {
+            List<Taxon> roots = new ArrayList<Taxon>();
+            while (true) {
+                int c = skipBlanks();
+                if (c < 0) break;
+                if (c == ';') {
+                    ++pos;      // empty tree
+                    continue;
+                }
+                roots.add(tree());
+                c = skipBlanks();
+                if (c == ';')
+                    ++pos;
+                else if (c >= 0) {
+                    error("expected semicolon");
+                    break;
+                }
+            }
+            return roots;
+        }
+
+        private Taxon tree() throws IOException {
+            // stack.get(i) = children so far of the i'th pending ( 
+            List<List<Taxon>> stack = new ArrayList<List<Taxon>>();
+            while (true) {
+                int c = skipBlanks();
+                if (c == '(') {
+                    ++pos;
+                    stack.add(new ArrayList<Taxon>());
+                    continue;
+                }
+                Taxon node = node(null);
+                // Close as many parens as we can
+                while (true) {
+                    if (stack.size() == 0)
+                        return node;
+                    List<Taxon> children = stack.get(stack.size() - 1);
+                    children.add(node);
+                    c = skipBlanks();
+                    if (c == ',') {
+                        ++pos;
+                        break;  // on to next sibling
                     }
-				}
-			}
-			Taxon node = newickToNode(in, dest); // get postfix name, x in (a,b)x
-			if (node != null || children.size() > 0) {
-				if (node == null) {
-					// kludge
-					node = new Taxon(dest, null);
-				}
-				for (Taxon child : children)
-					if (child.name == null || !child.name.startsWith("null"))
-						node.addChild(child);
-				node.rank = (children.size() > 0) ? Rank.NO_RANK : Rank.SPECIES_RANK;
-				return node;
-			} else
-				return null;
-		} else {
-            in.unread(c);
-            String label = readLabel(in);
-            skipBranchLength(in);
+                    if (c == ')')
+                        ++pos;
+                    else
+                        error("expected comma or right paren");  // treat as )
+                    stack.remove(stack.size() - 1);
+                    node = node(children);
+                }
+            }
+        }
 
+        // Label and branch length of a node
+        private Taxon node(List<Taxon> children) throws IOException {
+            String label = readLabel();
+            if (skipBlanks() == ':') {
+                ++pos;
+                skipBranchLength();
+            }
             Taxon node = new Taxon(dest, null); // no name
             initNewickNode(node, label);
+            if (children != null) {
+                for (Taxon child : children)
+                    if (child.name == null || !child.name.startsWith("null"))
+                        node.addChild(child);
+                node.rank = Rank.NO_RANK;
+            }
             return node;
         }
-    }
-            
-    // http://evolution.genetics.washington.edu/phylip/newick_doc.html
 
-    static String readLabel(PushbackReader in) throws IOException {
-        StringBuilder buf = new StringBuilder();
-        int c = in.read();
-        if (c == '\'')
-            while (true) {
-                c = in.read();
-                if (c < 0 || c >= 65535)
-                    break;
-                else if (c == '\'') {
-                    // Either end of label, or ''
-                    c = in.read();
-                    if (c < 0 || c >= 65535)
-                        break;
-                    else if (c == '\'') {
-                        buf.appendCodePoint(c);
-                        // back to while(true)
-                    } else {
-                        // could be :, ), etc.
-                        in.unread(c);
+        private String readLabel() throws IOException {
+            label.setLength(0);
+            int c = skipBlanks();
+            if (c == '\'') {
+                ++pos;
+                while (true) {
+                    c = read();
+                    if (c < 0) {
+                        error("unterminated quoted label");
                         break;
+                    } else if (c == '\'') {
+                        // Either end of label, or ''
+                        if (peek() != '\'') break;
+                        ++pos;
                     }
-                } else
-                    buf.appendCodePoint(c);
+                    label.append((char)c);
+                }
+            } else {
+                int blanks = 0;     // trailing blanks, to be dropped
+                while ((c = peek()) >= 0 && !isPunctuation(c)) {
+                    ++pos;
+                    blanks = (c <= ' ' ? blanks + 1 : 0);
+                    label.append(c == '_' ? ' ' : (char)c);
+                }
+                label.setLength(label.length() - blanks);
             }
-        else
+            return (label.length() > 0 ? label.toString() : null);
+        }
+
+        private void skipBranchLength() throws IOException {
+            int c = skipBlanks();
+            while (c >= 0 && !isPunctuation(c) && c > ' ') {
+                ++pos;
+                c = peek();
+            }
+        }
+
+        private boolean isPunctuation(int c) {
+            return (c == '(' || c == ')' || c == ',' || c == ';' || c == ':' || c == '[');
+        }
+
+        // Skip blanks and comments, returning the next char (not consumed)
+        private int skipBlanks() throws IOException {
             while (true) {
-                if (c < 0 || c >= 65535)
-                    break;
-                else if (c == ')' || c == ',' || c == ';') {
-                    in.unread(c);
-                    break;
-                } else {
-                    if (c == '_') c = ' ';
-                    buf.appendCodePoint(c);
-                    c = in.read();
-                }
+                int c = peek();
+                if (c == '[') {
+                    ++pos;
+                    while ((c = read()) >= 0 && c != ']')
+                        ;
+                    if (c < 0) error("unterminated comment");
+                } else if (c >= 0 && c <= ' ')
+                    ++pos;
+                else
+                    return c;
             }
-        if (buf.length() > 0)
-            return buf.toString();
-        else
-            return null;
-    }
+        }
 
-    static void skipBranchLength(PushbackReader in) throws IOException {
-        if (peek(in) == ':') {
-            in.read();
-            readLabel(in);
+        private int peek() throws IOException {
+            if (pos == limit && !fill())
+                return -1;
+            return buf[pos];
+        }
+
+        private int read() throws IOException {
+            int c = peek();
+            if (c >= 0) ++pos;
+            return c;
         }
-    }
 
-    static int peek(PushbackReader in) throws IOException {
-        int c = in.read();
-        in.unread(c);
-        return c;
+        private boolean fill() throws IOException {
+            offset += limit;
+            pos = limit = 0;
+            int n = in.read(buf, 0, buf.length);
+            if (n <= 0) return false;
+            limit = n;
+            return true;
+        }
+
+        private void error(String message) throws IOException {
+            int c = peek();
+            System.out.format("Newick syntax error at character %s: %s, found %s\n",
+                              offset + pos, message,
+                              (c < 0 ? "end of input" : "'" + (char)c + "'"));
+        }
     }
 
     static private String synthid = "(ott[0-9]+|mrcaott[0-9]+ott[0-9]+)";
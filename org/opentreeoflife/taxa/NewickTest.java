@@ -0,0 +1,170 @@
+/*
+  Checks for the Newick reader (Newick.Parser).  Run by Smasher --test,
+  or on its own:
+
+  java org.opentreeoflife.taxa.NewickTest
+
+  Each case is parsed twice, once from a String and once from a Reader
+  that hands over one char at a time, so that every token ends up
+  split across buffer refills somewhere.  A parsed tree is compared as
+  a string in which children keep their input order and each node is
+  written as its label, with #id if it has an id and @rank if it has a
+  rank.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class NewickTest {
+
+    static int checks = 0;
+
+    public static void main(String[] argv) throws IOException {
+        test();
+    }
+
+    public static void test() throws IOException {
+        checks = 0;
+
+        // Structure, labels, _ for blank
+        same("(a,b,(e,f)c)d", "(a,b,(e,f)c)d");
+        same("((Homo_sapiens,Pan)Hominini)", "((Homo sapiens,Pan)Hominini)");
+        same("(,(,)x)", "(,(,)x)");
+
+        // Several trees, empty trees, missing final semicolon
+        same("(a,b)c;(d,e)f;", "(a,b)c", "(d,e)f");
+        same(";;(a)b;;", "(a)b");
+        same("(a)b;\n(c)d", "(a)b", "(c)d");
+        same("x;y;", "x", "y");
+
+        // Quoted labels, with '' and punctuation inside
+        same("('it''s',b)c", "(it's,b)c");
+        same("('a,b:c(d);[e]',f)g", "(a,b:c(d);[e],f)g");
+        same("('Homo_sapiens')", "(Homo_sapiens)");
+        same("('''')", "(')");
+
+        // Branch lengths, after quoted and unquoted labels and after ')'
+        same("(a:1.5,'q x':2e-3,(b:1,c : 2)bc:0.5)r:0;", "(a,q x,(b,c)bc)r");
+        same("(a:1,b:2):3;", "(a,b)");
+
+        // Comments and blanks outside labels
+        same("(a[comment],b [x] )c[foo];", "(a,b)c");
+        same("[&R] ( a , [x,y] b ) c ;", "(a,b)c");
+        same("(a[x]:1[y],b)c", "(a,b)c");
+
+        // Synthesis-style ids and rank=name (internal nodes get no rank)
+        same("(Picomonas_judraskeda_ott4738960,ott123)mrcaott1ott2",
+             "(Picomonas judraskeda#ott4738960,#ott123)#mrcaott1ott2");
+        same("(Genus=Homo)Family=Hominidae", "(Homo@genus)Hominidae");
+
+        // Errors are reported (these print syntax error messages), and
+        // parsing goes on as best it can
+        same("(a,b", "(a,b)");
+        same("(a,b)c)(d)e;", "(a,b)c");
+        same("('abc", "(abc)");
+        same("(a,b)c[unterminated", "(a,b)c");
+        same("(a b,c)d;(e)f", "(a b,c)d", "(e)f");
+
+        deep(200000);
+
+        System.out.format("| Newick: %s checks passed\n", checks);
+    }
+
+    // Parse newick both ways and compare the trees with expected
+
+    static void same(String newick, String... expected) throws IOException {
+        check(newick, render(Newick.read(new StringReader(newick), new SourceTaxonomy())), expected);
+        check(newick, render(Newick.read(new Trickle(newick), new SourceTaxonomy())), expected);
+    }
+
+    static void check(String newick, List<String> got, String[] expected) {
+        ++checks;
+        boolean ok = (got.size() == expected.length);
+        for (int i = 0; ok && i < expected.length; ++i)
+            ok = got.get(i).equals(expected[i]);
+        if (!ok)
+            throw new RuntimeException(String.format("Newick %s: expected %s, got %s",
+                                                     newick, java.util.Arrays.asList(expected), got));
+    }
+
+    static List<String> render(List<Taxon> roots) {
+        List<String> result = new ArrayList<String>();
+        for (Taxon root : roots) {
+            StringBuilder buf = new StringBuilder();
+            render(root, buf);
+            result.add(buf.toString());
+        }
+        return result;
+    }
+
+    static void render(Taxon node, StringBuilder buf) {
+        if (node.getChildren().size() > 0) {
+            buf.append("(");
+            boolean first = true;
+            for (Taxon child : node.getChildren()) {
+                if (!first) buf.append(",");
+                first = false;
+                render(child, buf);
+            }
+            buf.append(")");
+        }
+        if (node.name != null) buf.append(node.name);
+        if (node.id != null) buf.append("#").append(node.id);
+        if (node.rank != null && node.rank != Rank.NO_RANK) buf.append("@").append(node.rank.name);
+    }
+
+    // Caterpillar ((((t0,t1)n1,t2)n2,t3)n3 ... )nk, deep enough that a
+    // recursive parser would overflow the stack
+
+    static void deep(int k) throws IOException {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 1; i <= k; ++i)
+            buf.append('(');
+        buf.append("t0");
+        for (int i = 1; i <= k; ++i)
+            buf.append(",t").append(i).append(":1)n").append(i);
+        buf.append(";");
+        List<Taxon> roots = Newick.read(new StringReader(buf.toString()), new SourceTaxonomy());
+        ++checks;
+        if (roots.size() != 1)
+            throw new RuntimeException("caterpillar: " + roots.size() + " roots");
+        Taxon node = roots.get(0);
+        for (int i = k; i >= 1; --i) {
+            List<Taxon> children = new ArrayList<Taxon>(node.getChildren());
+            if (!(("n" + i).equals(node.name) &&
+                  children.size() == 2 &&
+                  ("t" + i).equals(children.get(1).name) &&
+                  children.get(1).getChildren().size() == 0))
+                throw new RuntimeException("caterpillar: bad node at depth " + (k - i));
+            node = children.get(0);
+        }
+        if (!"t0".equals(node.name) || node.getChildren().size() != 0)
+            throw new RuntimeException("caterpillar: bad bottom tip " + node);
+    }
+
+    // Reader that returns one char per read
+
+    static class Trickle extends Reader {
+        private final String s;
+        private int pos = 0;
+
+        Trickle(String s) {
+            this.s = s;
+        }
+
+        public int read(char[] cbuf, int off, int len) {
+            if (pos >= s.length()) return -1;
+            if (len == 0) return 0;
+            cbuf[off] = s.charAt(pos++);
+            return 1;
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -13,12 +13,17 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.HashSet;
 import java.io.BufferedReader;
+import java.io.Reader;
 import java.io.IOException;
 
 import org.json.simple.JSONValue; 
 import org.json.simple.JSONObject; 
 import org.json.simple.parser.JSONParser; 
+import org.json.simple.parser.ContentHandler;
 import org.json.simple.parser.ParseException;
 
 
@@ -120,88 +125,246 @@ public class Nexson {
     public static SourceTaxonomy importTree(JSONObject treeson, Map<String, JSONObject> otus, String tag) {
         JSONObject nodes = (JSONObject)treeson.get("nodeById");
         JSONObject sources = (JSONObject)treeson.get("edgeBySourceId");
-        SourceTaxonomy tax = new SourceTaxonomy(tag); // arg is idspace, should be study id
-        tax.setTag(tag);
+        TreeParts parts = new TreeParts();
 
-        // Make a Taxon object for each NeXML node in the tree
         for (Object idObj : nodes.keySet()) {
             String id = (String)idObj;
-            // make one Taxon for every node
-            Taxon taxon = new Taxon(tax, null);    // name set later
-            taxon.setId(id);
+            parts.nodeIds.add(id);
+            JSONObject node = (JSONObject)nodes.get(id);
+            Object otuIdObj = node.get("@otu");
+            if (otuIdObj != null) {
+                String otuId = (String)otuIdObj;
+                parts.nodeOtus.put(id, otuId);
+                JSONObject otu = otus.get(otuId);
+                if (otu != null) {
+                    parts.otuLabels.put(otuId, (String)otu.get("^ot:originalLabel"));
+                    Object ottidObj = otu.get("^ot:ottId"); // an integer
+                    if (ottidObj != null)
+                        parts.otuOttIds.put(otuId, ottidObj.toString());
+                }
+            }
+            if (node.get("^ot:isTaxonExemplar") == Boolean.FALSE)
+                parts.nonExemplars.add(id);
         }
-        // Transfer edges over from NeXML to Taxonomy instance
         for (Object idObj : sources.keySet()) {
             String id = (String)idObj;
-            Taxon src = tax.lookupId(id);
-            for (Object edgeObj : ((JSONObject)sources.get(id)).values()) {
-                String targetNodeId = ((String)(((JSONObject)edgeObj).get("@target")));
-                src.addChild(tax.lookupId(targetNodeId));
+            for (Object edgeObj : ((JSONObject)sources.get(id)).values())
+                parts.addEdge(id, (String)(((JSONObject)edgeObj).get("@target")));
+        }
+        parts.ingroupId = (String)treeson.get("^ot:inGroupClade");
+        parts.rootId = (String)treeson.get("^ot:rootNodeId");
+        parts.specifiedRootId = (String)treeson.get("^ot:specifiedRoot");
+        return parts.toTaxonomy(tag);
+    }
+
+    // The parts of a Nexson tree that go into the Taxonomy, however
+    // they were obtained
+
+    static class TreeParts {
+        List<String> nodeIds = new ArrayList<String>();
+        Map<String, List<String>> edges = new LinkedHashMap<String, List<String>>(); // source -> targets
+        Map<String, String> nodeOtus = new HashMap<String, String>();
+        Set<String> nonExemplars = new HashSet<String>(); // ^ot:isTaxonExemplar false
+        Map<String, String> otuLabels = new HashMap<String, String>();
+        Map<String, String> otuOttIds = new HashMap<String, String>();
+        String ingroupId = null, rootId = null, specifiedRootId = null;
+
+        void addEdge(String source, String target) {
+            List<String> targets = edges.get(source);
+            if (targets == null) {
+                targets = new ArrayList<String>(2);
+                edges.put(source, targets);
             }
+            targets.add(target);
         }
 
-        // Set the ingroup
-        String ingroupId = (String)treeson.get("^ot:inGroupClade");
-        if (ingroupId != null)
-            tax.ingroup = tax.lookupId(ingroupId);
-
-        // Set the root
-        String rootid = (String)treeson.get("^ot:rootNodeId");
-        if (rootid != null && rootid.length() == 0) rootid = null;
-        if (rootid != null) {
-            Taxon node = tax.lookupId(rootid);
-            if (node != null) {
-                String specid = (String)treeson.get("^ot:specifiedRoot");
-                if (specid != null && !specid.equals(rootid)) {
-                    // Specified root is not the represented root
-                    Taxon spec = tax.lookupId(specid);
-                    if (spec != null) {
-                        System.err.format("** Specified root %s not= represented root %s - rerooting NYI (%s)\n",
-                                          specid, rootid, tag);
-                        if (tax.ingroup != null && !tax.ingroup.descendsFrom(spec))
-                            System.err.format("** BAD: Ingroup %s does not descend from specified root %s (%s)\n",
-                                              tax.ingroup.id, specid, tag);
+        SourceTaxonomy toTaxonomy(String tag) {
+            SourceTaxonomy tax = new SourceTaxonomy(tag); // arg is idspace, should be study id
+            tax.setTag(tag);
+
+            // Make a Taxon object for each NeXML node in the tree
+            for (String id : nodeIds) {
+                // make one Taxon for every node
+                Taxon taxon = new Taxon(tax, null);    // name set later
+                taxon.setId(id);
+            }
+            // Transfer edges over from NeXML to Taxonomy instance
+            for (String id : edges.keySet()) {
+                Taxon src = tax.lookupId(id);
+                for (String targetNodeId : edges.get(id))
+                    src.addChild(tax.lookupId(targetNodeId));
+            }
+
+            // Set the ingroup
+            if (ingroupId != null)
+                tax.ingroup = tax.lookupId(ingroupId);
+
+            // Set the root
+            String rootid = rootId;
+            if (rootid != null && rootid.length() == 0) rootid = null;
+            if (rootid != null) {
+                Taxon node = tax.lookupId(rootid);
+                if (node != null) {
+                    String specid = specifiedRootId;
+                    if (specid != null && !specid.equals(rootid)) {
+                        // Specified root is not the represented root
+                        Taxon spec = tax.lookupId(specid);
+                        if (spec != null) {
+                            System.err.format("** Specified root %s not= represented root %s - rerooting NYI (%s)\n",
+                                              specid, rootid, tag);
+                            if (tax.ingroup != null && !tax.ingroup.descendsFrom(spec))
+                                System.err.format("** BAD: Ingroup %s does not descend from specified root %s (%s)\n",
+                                                  tax.ingroup.id, specid, tag);
+                        }
                     }
-                }
-                tax.addRoot(node);
+                    tax.addRoot(node);
+                } else
+                    System.err.format("** Root node %s not found in %s\n", rootid, tag);
             } else
-                System.err.format("** Root node %s not found in %s\n", rootid, tag);
-        } else
-            System.err.format("** No root node found for %s\n", tag);
-
-        // Store tip labels as Taxon names, OTT ids as sources
-        for (Taxon taxon : tax.taxa()) {
-            if (taxon.children == null) {
-                JSONObject node = (JSONObject)nodes.get(taxon.id);
-                /*
-                  "Tn10272676": {
-                  "@otu": "Tl1140566", 
-                  "^ot:isTaxonExemplar": false
-                  }, 
-                */
-                Object otuIdObj = node.get("@otu");
-                if (otuIdObj != null) {
-                    String otuId = ((String)otuIdObj);
-                    JSONObject otu = ((JSONObject)otus.get(otuId));
-                    Object label = otu.get("^ot:originalLabel");
-                    if (label == null)
-                        System.err.format("** No label for terminal node %s, otu = %s (%s)\n", taxon.id, otu, tag);
-                    taxon.setName((String)label);
-
-                    Object isExemplar = node.get("^ot:isTaxonExemplar");
-                    if (isExemplar != Boolean.FALSE) {
-                        Object ottidObj = otu.get("^ot:ottId"); // an integer
-                        if (ottidObj != null)
-                            taxon.addSourceId(new QualifiedId("ott", ottidObj.toString()));
+                System.err.format("** No root node found for %s\n", tag);
+
+            // Store tip labels as Taxon names, OTT ids as sources
+            for (Taxon taxon : tax.taxa()) {
+                if (taxon.children == null) {
+                    String otuId = nodeOtus.get(taxon.id);
+                    if (otuId != null) {
+                        String label = otuLabels.get(otuId);
+                        if (label == null)
+                            System.err.format("** No label for terminal node %s, otu = %s (%s)\n", taxon.id, otuId, tag);
+                        else
+                            taxon.setName(label);
+
+                        if (!nonExemplars.contains(taxon.id)) {
+                            String ottid = otuOttIds.get(otuId);
+                            if (ottid != null)
+                                taxon.addSourceId(new QualifiedId("ott", ottid));
+                        }
+                    } else {
+                        System.err.format("** No @otu for terminal node %s in %s\n",
+                                          taxon.id,
+                                          tag);
                     }
-                } else {
-                    System.err.format("** No @otu for terminal node %s in %s\n",
-                                      taxon.id,
-                                      tag);
                 }
             }
+            return tax;
+        }
+    }
+
+    // ----- Streaming import -----
+
+    // Reads a single tree from a Nexson (HBF 1.2) stream without
+    // making JSONObjects for the whole study.  Only the requested
+    // tree's nodes, edges, ingroup and root, and the originalLabel and
+    // ottId of each OTU, are kept; other trees and annotations are
+    // skipped as they go by.  The stream can be a Nexson file
+    // {"nexml": ...} or an API response {"data": {"nexml": ...}, ...}.
+    // Use: reader = new TreeReader(treeId); reader.parse(in); reader.importTree(tag)
+
+    public static class TreeReader implements ContentHandler {
+        private String treeId;
+        private TreeParts parts = new TreeParts();
+        private List<String> path = new ArrayList<String>();  // keys from top level down
+        private int nexmlDepth = -1;    // position of "nexml" in path
+        private boolean foundTree = false;
+        private int otuCount = 0;
+
+        public TreeReader(String treeId) {
+            this.treeId = treeId;
+        }
+
+        public void parse(Reader in) throws IOException, ParseException {
+            new JSONParser().parse(in, this);
+        }
+
+        public boolean foundNexml() { return nexmlDepth >= 0; }
+
+        public boolean foundTree() { return foundTree; }
+
+        public int otuCount() { return otuCount; }
+
+        // Returns null if the tree wasn't found
+        public SourceTaxonomy importTree(String tag) {
+            if (!foundTree) return null;
+            return parts.toTaxonomy(tag);
+        }
+
+        // Key at level i below the nexml element
+        private String key(int i) {
+            return path.get(nexmlDepth + 1 + i);
+        }
+
+        // Number of levels below the nexml element
+        private int level() {
+            return (nexmlDepth < 0 ? -1 : path.size() - nexmlDepth - 1);
+        }
+
+        // treesById / <trees> / treeById / <treeId> / ...
+        private boolean inTree() {
+            return key(0).equals("treesById") && key(2).equals("treeById") && key(3).equals(treeId);
+        }
+
+        // otusById / <otus> / otuById / <otuId> / ...
+        private boolean inOtu() {
+            return key(0).equals("otusById") && key(2).equals("otuById");
         }
-        return tax;
+
+        public boolean startObjectEntry(String key) {
+            path.add(key);
+            int level = level();
+            if (level < 0) {
+                if (key.equals("nexml") &&
+                    (path.size() == 1 || (path.size() == 2 && path.get(0).equals("data"))))
+                    nexmlDepth = path.size() - 1;
+            } else if (level == 4) {
+                if (inTree())
+                    foundTree = true;
+                else if (inOtu())
+                    ++otuCount;
+            } else if (level == 6 && key(4).equals("nodeById") && inTree())
+                parts.nodeIds.add(key);
+            return true;
+        }
+
+        public boolean endObjectEntry() {
+            path.remove(path.size() - 1);
+            return true;
+        }
+
+        public boolean primitive(Object value) {
+            int level = level();
+            if (level < 5 || value == null)
+                return true;
+            String key = path.get(path.size() - 1);
+            if (level == 5) {
+                if (inTree()) {
+                    if (key.equals("^ot:inGroupClade"))
+                        parts.ingroupId = value.toString();
+                    else if (key.equals("^ot:rootNodeId"))
+                        parts.rootId = value.toString();
+                    else if (key.equals("^ot:specifiedRoot"))
+                        parts.specifiedRootId = value.toString();
+                } else if (inOtu()) {
+                    if (key.equals("^ot:originalLabel"))
+                        parts.otuLabels.put(key(3), value.toString());
+                    else if (key.equals("^ot:ottId"))
+                        parts.otuOttIds.put(key(3), value.toString());
+                }
+            } else if (level == 7 && key(4).equals("nodeById") && inTree()) {
+                if (key.equals("@otu"))
+                    parts.nodeOtus.put(key(5), value.toString());
+                else if (key.equals("^ot:isTaxonExemplar") && value == Boolean.FALSE)
+                    parts.nonExemplars.add(key(5));
+            } else if (level == 8 && key.equals("@target") && key(4).equals("edgeBySourceId") && inTree())
+                parts.addEdge(key(5), value.toString());
+            return true;
+        }
+
+        public void startJSON() {}
+        public void endJSON() {}
+        public boolean startObject() { return true; }
+        public boolean endObject() { return true; }
+        public boolean startArray() { return true; }
+        public boolean endArray() { return true; }
     }
 
     public static JSONObject load(String path) throws IOException {
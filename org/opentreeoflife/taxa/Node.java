@@ -1,7 +1,6 @@
 package org.opentreeoflife.taxa;
 
 import java.util.List;
-import java.util.ArrayList;
 import java.util.regex.Pattern;
 
 public abstract class Node {
@@ -27,6 +26,9 @@ public abstract class Node {
 
     public abstract boolean isPruned();    // foo
 
+    // Call before changing the node (see History)
+    public abstract void changing();
+
 	public String getId() {
         return id;
     }
@@ -38,6 +40,7 @@ public abstract class Node {
             this.addId(id);
         else if (!this.id.equals(id)) {
             String wasid = this.id;
+            this.changing();
             this.id = null;
             this.addId(id);
             this.addId(wasid);
@@ -79,9 +82,12 @@ public abstract class Node {
 	// new homonyms, or vertical insertions.
 
 	public void addSourceId(QualifiedId qid) {
-		if (this.sourceIds == null)
-			this.sourceIds = new ArrayList<QualifiedId>(1);
+		if (this.sourceIds == null) {
+            this.changing();
+			this.sourceIds = new QualifiedIdList(1);
+        }
 		if (!this.sourceIds.contains(qid)) {
+            this.changing();
 			this.sourceIds.add(qid);
             this.getTaxonomy().indexByQid(this, qid);
         }
@@ -103,7 +109,8 @@ public abstract class Node {
 		if (info.equals("null")) return;	// glitch in OTT 2.2
 		String[] ids = commaPattern.split(info);
 		if (ids.length > 0) {
-			this.sourceIds = new ArrayList<QualifiedId>(ids.length);
+            this.changing();
+			this.sourceIds = new QualifiedIdList(ids.length);
 			for (String qid : ids) {
                 if (qid.length() > 0)
                     this.addSourceId(new QualifiedId(qid));
@@ -136,7 +143,8 @@ public abstract class Node {
     // hmm, I think node is always a taxon
     public void copySourceIdsFrom(Node node) {
         if (node.sourceIds != null) {
-            this.sourceIds = new ArrayList<QualifiedId>(node.sourceIds);
+            this.changing();
+            this.sourceIds = new QualifiedIdList(node.sourceIds);
             Taxonomy tax = this.getTaxonomy();
             for (QualifiedId qid : this.sourceIds)
                 tax.indexByQid(this, qid);
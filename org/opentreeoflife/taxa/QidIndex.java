@@ -0,0 +1,158 @@
+/*
+  Index from source ids (qids) to nodes, for Taxonomy.startQidIndex
+  and lookupQid.
+
+  A qid that has been seen on more than one node is ambiguous; it
+  stays in the index, marked, so that lookupQid can say so.
+
+  As with IdIndex, qids that pack into a long (see
+  QualifiedId.packed), which is nearly all of them, are kept in an
+  open addressing table keyed by the packed form, so that the union's
+  several million source ids don't each need a HashMap entry and a
+  boxed key.  The rest go in an ordinary HashMap.
+
+  Linear probing, up to 3/4 full (the index is built once and then
+  mostly read, and at 1/2 the table for the union would be bigger than
+  the HashMap); deletion shifts later entries back, so there are no
+  tombstones.  Not thread safe.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+class QidIndex {
+
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private Node[] nodes;
+    private boolean[] ambiguous;
+    private int count = 0;      // packed entries
+    private Map<QualifiedId, Node> others = new HashMap<QualifiedId, Node>();
+    private Set<QualifiedId> othersAmbiguous = new HashSet<QualifiedId>();
+
+    QidIndex() {
+        allocate(1 << 4);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        nodes = new Node[capacity];
+        ambiguous = new boolean[capacity];
+    }
+
+    // Packed forms of qids with the same prefix are dense ranges
+    private int slot(long key) {
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & (keys.length - 1);
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            if (keys[i] == key) return i;
+            if (keys[i] == EMPTY) return -1;
+        }
+    }
+
+    Node get(QualifiedId qid) {
+        long key = qid.packed();
+        if (key < 0)
+            return others.get(qid);
+        int i = find(key);
+        return (i < 0 ? null : nodes[i]);
+    }
+
+    boolean isAmbiguous(QualifiedId qid) {
+        long key = qid.packed();
+        if (key < 0)
+            return othersAmbiguous.contains(qid);
+        int i = find(key);
+        return (i >= 0 && ambiguous[i]);
+    }
+
+    // qid must already be in the index
+
+    void setAmbiguous(QualifiedId qid) {
+        long key = qid.packed();
+        if (key < 0) {
+            othersAmbiguous.add(qid);
+            return;
+        }
+        int i = find(key);
+        if (i >= 0)
+            ambiguous[i] = true;
+    }
+
+    void put(QualifiedId qid, Node node) {
+        long key = qid.packed();
+        if (key < 0) {
+            others.put(qid, node);
+            return;
+        }
+        int mask = keys.length - 1;
+        int i = slot(key);
+        while (keys[i] != EMPTY && keys[i] != key)
+            i = (i + 1) & mask;
+        nodes[i] = node;
+        if (keys[i] == EMPTY) {
+            keys[i] = key;
+            if (++count * 4 > keys.length * 3)
+                grow();
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Node[] oldNodes = nodes;
+        boolean[] oldAmbiguous = ambiguous;
+        allocate(keys.length * 2);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; ++j)
+            if (oldKeys[j] != EMPTY) {
+                int i = slot(oldKeys[j]);
+                while (keys[i] != EMPTY)
+                    i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                nodes[i] = oldNodes[j];
+                ambiguous[i] = oldAmbiguous[j];
+            }
+    }
+
+    void remove(QualifiedId qid) {
+        long key = qid.packed();
+        if (key < 0) {
+            others.remove(qid);
+            othersAmbiguous.remove(qid);
+            return;
+        }
+        int i = find(key);
+        if (i < 0) return;
+        --count;
+        // Move back any later entry in the run that would otherwise
+        // become unreachable
+        int mask = keys.length - 1;
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            // Entry at j can move to i if home is not in (i, j]
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                nodes[i] = nodes[j];
+                ambiguous[i] = ambiguous[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+        nodes[i] = null;
+        ambiguous[i] = false;
+    }
+
+    int size() {
+        return count + others.size();
+    }
+}
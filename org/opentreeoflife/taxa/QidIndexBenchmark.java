@@ -0,0 +1,155 @@
+/*
+  Compare the packed source id lists and QidIndex with the
+  ArrayList<QualifiedId> lists and HashMap/HashSet index that they
+  replaced: heap used by the lists, heap used by the index, and lookup
+  throughput.  Uses the source ids of a taxonomy (e.g. the union, or
+  OTT, whose sourceinfo column has them all), or ~6M generated ones
+  like the union's.
+
+  java -Xmx4g org.opentreeoflife.taxa.QidIndexBenchmark [designator]
+
+  Heap figures are from Runtime after a full collection, so they're
+  approximate; run with a fixed heap and nothing else going on.
+  Queries are fresh QualifiedIds, as from lookupQid's callers.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class QidIndexBenchmark {
+
+    static final int TRIALS = 5;
+    static final int QUERIES = 10000000;
+
+    public static void main(String[] argv) throws IOException {
+        // Source ids, node by node, as strings
+        List<String[]> rows = new ArrayList<String[]>();
+        if (argv.length > 0) {
+            Taxonomy tax = Taxonomy.getRawTaxonomy(argv[0], null);
+            for (Taxon node : tax.taxa())
+                if (node.sourceIds != null) {
+                    String[] row = new String[node.sourceIds.size()];
+                    for (int i = 0; i < row.length; ++i)
+                        row[i] = node.sourceIds.get(i).toString();
+                    rows.add(row);
+                }
+        } else {
+            // ~4.5M nodes; most have one source id, some have several.
+            // silva ids are accessions, which don't pack.
+            String[] prefixes = {"ncbi", "gbif", "irmng", "worms", "if", "silva"};
+            int[] weights = {15, 40, 30, 10, 4, 1};
+            Random random = new Random(3);
+            long[] next = new long[prefixes.length];
+            for (int p = 0; p < next.length; ++p) next[p] = 1000 + random.nextInt(100000);
+            while (rows.size() < 4500000) {
+                int k = (random.nextInt(4) == 0 ? 2 + random.nextInt(2) : 1);
+                String[] row = new String[k];
+                for (int i = 0; i < k; ++i) {
+                    int w = random.nextInt(100), p = 0;
+                    while (w >= weights[p]) w -= weights[p++];
+                    next[p] += (random.nextInt(10) < 8 ? 1 : 1 + random.nextInt(50));
+                    row[i] = (prefixes[p].equals("silva") ?
+                              "silva:AB" + next[p] + ".1." + (1000 + random.nextInt(1000)) :
+                              prefixes[p] + ":" + next[p]);
+                }
+                rows.add(row);
+            }
+        }
+        int refs = 0;
+        for (String[] row : rows) refs += row.length;
+        System.out.format("| %s nodes, %s source ids\n", rows.size(), refs);
+
+        // The old way: lists, then an index whose keys are the lists'
+        // QualifiedIds
+        Node node = new Taxon(new SourceTaxonomy(), null);
+        Node other = new Taxon(new SourceTaxonomy(), null);
+        long base = used();
+        List<List<QualifiedId>> arrayLists = new ArrayList<List<QualifiedId>>(rows.size());
+        for (String[] row : rows) {
+            List<QualifiedId> qids = new ArrayList<QualifiedId>(row.length);
+            for (String qid : row) qids.add(new QualifiedId(qid));
+            arrayLists.add(qids);
+        }
+        long arrayListBytes = used() - base;
+
+        base = used();
+        Map<QualifiedId, Node> map = new HashMap<QualifiedId, Node>();
+        Set<QualifiedId> ambiguous = new HashSet<QualifiedId>();
+        for (List<QualifiedId> qids : arrayLists)
+            for (QualifiedId qid : qids)
+                if (map.get(qid) != null)
+                    ambiguous.add(qid);
+                else
+                    map.put(qid, (qids.size() % 2 == 0 ? node : other));
+        long mapBytes = used() - base;
+
+        // The new way
+        base = used();
+        List<List<QualifiedId>> packedLists = new ArrayList<List<QualifiedId>>(rows.size());
+        for (String[] row : rows) {
+            List<QualifiedId> qids = new QualifiedIdList(row.length);
+            for (String qid : row) qids.add(new QualifiedId(qid));
+            packedLists.add(qids);
+        }
+        long packedBytes = used() - base;
+
+        base = used();
+        QidIndex index = new QidIndex();
+        for (List<QualifiedId> qids : packedLists)
+            for (QualifiedId qid : qids)
+                if (index.get(qid) != null)
+                    index.setAmbiguous(qid);
+                else
+                    index.put(qid, (qids.size() % 2 == 0 ? node : other));
+        long indexBytes = used() - base;
+
+        System.out.format("| lists: ArrayList %s MB, QualifiedIdList %s MB\n",
+                          arrayListBytes >> 20, packedBytes >> 20);
+        System.out.format("| index: HashMap+HashSet %s MB, QidIndex %s MB (%s entries)\n",
+                          mapBytes >> 20, indexBytes >> 20, index.size());
+
+        Random random = new Random(5);
+        for (int trial = 0; trial < TRIALS; ++trial) {
+            QualifiedId[] queries = new QualifiedId[QUERIES];
+            for (int i = 0; i < QUERIES; ++i) {
+                String[] row = rows.get(random.nextInt(rows.size()));
+                String qid = row[random.nextInt(row.length)];
+                // One in ten misses
+                queries[i] = new QualifiedId(i % 10 == 0 ? qid + "1" : qid);
+            }
+
+            long start = System.nanoTime();
+            int hits1 = 0;
+            for (QualifiedId qid : queries)
+                if (map.get(qid) != null && !ambiguous.contains(qid)) ++hits1;
+            long mapTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int hits2 = 0;
+            for (QualifiedId qid : queries)
+                if (index.get(qid) != null && !index.isAmbiguous(qid)) ++hits2;
+            long indexTime = System.nanoTime() - start;
+
+            if (hits1 != hits2)
+                System.out.format("** hits %s != %s\n", hits1, hits2);
+            System.out.format("| trial %s: HashMap %s ms, QidIndex %s ms, per second %s vs %s\n",
+                              trial, mapTime / 1000000, indexTime / 1000000,
+                              (long)(QUERIES * 1e9 / mapTime),
+                              (long)(QUERIES * 1e9 / indexTime));
+        }
+    }
+
+    static long used() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+  Randomized checks of QidIndex against HashMap and of QualifiedIdList
+  against ArrayList.  Run by Smasher --test, or on its own:
+
+  java org.opentreeoflife.taxa.QidIndexTest [seed]
+
+  Qids are drawn from small dense ranges of a few prefixes, so that
+  runs in the index's table are long and deletion has plenty of
+  entries to shift back (including runs that wrap around the end of
+  the table), plus some that don't pack (leading zeros, names, IRIs)
+  and go to the fallback map, or to the list's others array.  After
+  each step the index has to agree with the map (and a set, for
+  ambiguity) on get, isAmbiguous, and size; the list has to agree with
+  the ArrayList element by element and on indexOf, contains, and same.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class QidIndexTest {
+
+    public static void main(String[] argv) {
+        test(argv.length > 0 ? Long.parseLong(argv[0]) : 1);
+    }
+
+    public static void test(long seed) {
+        Random random = new Random(seed);
+        int steps = testIndex(random) + testList(random);
+        System.out.format("| QidIndex, QualifiedIdList: %s steps checked\n", steps);
+    }
+
+    // Qids for one round: dense ranges, a few outliers, and some that
+    // don't pack
+
+    static List<QualifiedId> universe(Random random) {
+        List<QualifiedId> universe = new ArrayList<QualifiedId>();
+        for (String prefix : new String[]{"ncbi", "gbif", "irmng"}) {
+            long base = random.nextInt(1000000);
+            int range = 1 + random.nextInt(1500);
+            for (int i = 0; i < range; ++i)
+                universe.add(new QualifiedId(prefix, Long.toString(base + i)));
+            for (int i = 0; i < 5; ++i)
+                universe.add(new QualifiedId(prefix, Long.toString(random.nextLong() & 0xffffffffffffL)));
+        }
+        universe.add(new QualifiedId("ncbi", "0"));
+        universe.add(new QualifiedId("ncbi", "007"));
+        universe.add(new QualifiedId("gbif", "-" + (1 + random.nextInt(100))));
+        universe.add(new QualifiedId("if", "h2007"));
+        universe.add(new QualifiedId("http", "//example.org/taxon/12"));
+        universe.add(new QualifiedId("ncbi", "123456789012345678901"));  // too long for 48 bits
+        return universe;
+    }
+
+    static int testIndex(Random random) {
+        Taxonomy tax = new SourceTaxonomy();
+        Node[] nodes = new Node[50];
+        for (int i = 0; i < nodes.length; ++i)
+            nodes[i] = new Taxon(tax, null);
+
+        int steps = 0;
+        for (int round = 0; round < 20; ++round) {
+            List<QualifiedId> universe = universe(random);
+            QidIndex index = new QidIndex();
+            Map<QualifiedId, Node> model = new HashMap<QualifiedId, Node>();
+            Set<QualifiedId> ambiguous = new HashSet<QualifiedId>();
+
+            // Grow to about half the universe, churn, then drain
+            int n = 20 * universe.size();
+            for (int i = 0; i < n; ++i) {
+                // A fresh QualifiedId, as lookupQid's callers have
+                QualifiedId qid = universe.get(random.nextInt(universe.size()));
+                qid = new QualifiedId(qid.prefix, qid.id);
+                int p = (i < n / 3 ? 70 : (i < 2 * n / 3 ? 50 : 20));   // percent puts
+                int r = random.nextInt(100);
+                if (r < p) {
+                    Node node = nodes[random.nextInt(nodes.length)];
+                    index.put(qid, node);
+                    model.put(qid, node);
+                } else if (r < p + 5) {
+                    if (model.containsKey(qid)) {
+                        index.setAmbiguous(qid);
+                        ambiguous.add(qid);
+                    }
+                } else {
+                    index.remove(qid);
+                    model.remove(qid);
+                    ambiguous.remove(qid);
+                }
+                ++steps;
+                if (i % 97 == 0 || i == n - 1)
+                    compareIndex(index, model, ambiguous, universe, steps);
+            }
+        }
+        return steps;
+    }
+
+    static void compareIndex(QidIndex index, Map<QualifiedId, Node> model, Set<QualifiedId> ambiguous,
+                             List<QualifiedId> universe, int step) {
+        for (QualifiedId qid : universe) {
+            if (index.get(qid) != model.get(qid))
+                fail("QidIndex", "HashMap", step, "get " + qid);
+            if (index.isAmbiguous(qid) != ambiguous.contains(qid))
+                fail("QidIndex", "HashMap", step, "isAmbiguous " + qid);
+        }
+        if (index.size() != model.size())
+            fail("QidIndex", "HashMap", step, "size " + index.size() + " != " + model.size());
+    }
+
+    static int testList(Random random) {
+        int steps = 0;
+        for (int round = 0; round < 200; ++round) {
+            List<QualifiedId> universe = universe(random);
+            // Some rounds start with qids that all pack, so that the
+            // others array gets made part way through
+            int start = random.nextInt(4);
+            List<QualifiedId> model = new ArrayList<QualifiedId>();
+            for (int i = 0; i < start; ++i)
+                model.add(universe.get(random.nextInt(universe.size() - 6)));
+            QualifiedIdList list = (random.nextBoolean()
+                                    ? new QualifiedIdList(model)
+                                    : new QualifiedIdList(random.nextInt(3)));
+            if (list.size() == 0)
+                model.clear();
+
+            for (int i = 0; i < 300; ++i) {
+                QualifiedId qid = universe.get(random.nextInt(universe.size()));
+                int r = random.nextInt(100);
+                if (r < 45 || model.size() == 0) {
+                    if (random.nextBoolean()) {
+                        list.add(qid);
+                        model.add(qid);
+                    } else {
+                        int at = random.nextInt(model.size() + 1);
+                        list.add(at, qid);
+                        model.add(at, qid);
+                    }
+                } else if (r < 75) {
+                    int at = random.nextInt(model.size());
+                    if (!model.remove(at).equals(list.remove(at)))
+                        fail("QualifiedIdList", "ArrayList", steps, "remove " + at);
+                } else {
+                    int at = random.nextInt(model.size());
+                    if (!model.set(at, qid).equals(list.set(at, qid)))
+                        fail("QualifiedIdList", "ArrayList", steps, "set " + at);
+                }
+                ++steps;
+                compareList(list, model, universe, steps);
+            }
+        }
+        return steps;
+    }
+
+    static void compareList(QualifiedIdList list, List<QualifiedId> model,
+                            List<QualifiedId> universe, int step) {
+        if (list.size() != model.size())
+            fail("QualifiedIdList", "ArrayList", step, "size " + list.size() + " != " + model.size());
+        QualifiedIdList copy = new QualifiedIdList(model);
+        for (int i = 0; i < model.size(); ++i) {
+            if (!model.get(i).equals(list.get(i)))
+                fail("QualifiedIdList", "ArrayList", step, "get " + i);
+            if (!QualifiedIdList.same(list, i, model, i))
+                fail("QualifiedIdList", "ArrayList", step, "same " + i);
+            // Packed against packed
+            int j = (i * 7 + step) % model.size();
+            if (QualifiedIdList.same(list, i, copy, j) != model.get(i).equals(model.get(j)))
+                fail("QualifiedIdList", "ArrayList", step, "same " + i + " " + j);
+        }
+        if (!list.equals(model))
+            fail("QualifiedIdList", "ArrayList", step, "equals");
+        // Everything in the list, and a few things that may not be
+        for (int i = 0; i < model.size() + 5; ++i) {
+            QualifiedId qid = (i < model.size() ? model.get(i) : universe.get((step * 31 + i) % universe.size()));
+            if (list.indexOf(qid) != model.indexOf(qid))
+                fail("QualifiedIdList", "ArrayList", step, "indexOf " + qid);
+            if (list.contains(qid) != model.contains(qid))
+                fail("QualifiedIdList", "ArrayList", step, "contains " + qid);
+        }
+    }
+
+    static void fail(String what, String model, int step, String message) {
+        throw new RuntimeException(String.format("%s differs from %s at step %s: %s",
+                                                 what, model, step, message));
+    }
+}
@@ -1,6 +1,9 @@
 
 package org.opentreeoflife.taxa;
 
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 
@@ -13,7 +16,7 @@ public class QualifiedId {
 	public QualifiedId(String prefix, String id) {
         if (prefix == null)
             throw new IllegalArgumentException("wanted non-null qid prefix");
-		this.prefix = prefix; this.id = id;
+		this.prefix = Symbols.intern(prefix); this.id = id;
 	}
 	public QualifiedId(String qid) {
         String[] foo = colonPattern.split(qid, 2);
@@ -24,10 +27,10 @@ public class QualifiedId {
             { this.prefix = qid; this.id = null; }
         else if (foo[1].length() == 0)
             // CURIE
-            { this.prefix = foo[0]; this.id = null; }
+            { this.prefix = Symbols.intern(foo[0]); this.id = null; }
         else
             // CURIE
-            { this.prefix = foo[0]; this.id = foo[1]; }
+            { this.prefix = Symbols.intern(foo[0]); this.id = foo[1]; }
 	}
 
     public String getPrefix() { return prefix; }
@@ -63,5 +66,58 @@ public class QualifiedId {
         else
             return this.prefix.hashCode() + this.id.hashCode();
     }
+
+    // Packed form.  Nearly all source ids are a prefix from a short
+    // list (ncbi, gbif, ...) and a decimal integer, so they fit in a
+    // long: a small code for the prefix in the high bits, the id in
+    // the low 48.  Two qids that both pack are equal iff their packed
+    // forms are.  Others (non-numeric ids, IRIs, ids with leading
+    // zeros, prefixes beyond MAX_PREFIXES) pack to -1, and have to be
+    // kept as QualifiedIds.  See QualifiedIdList and QidIndex.
+
+    static final int ID_BITS = 48;
+    static final int MAX_PREFIXES = 1 << 15;    // keeps packed forms >= 0
+    private static final long ID_MASK = (1L << ID_BITS) - 1;
+
+    // Prefix codes are shared by all taxonomies and never reused
+    private static final Map<String, Integer> prefixCodes = new ConcurrentHashMap<String, Integer>();
+    private static volatile String[] prefixes = new String[16];
+    private static int prefixCount = 0;
+
+    public long packed() {
+        return pack(this.prefix, this.id);
+    }
+
+    static long pack(String prefix, String id) {
+        if (id == null) return -1;
+        long n = IdIndex.numeric(id);
+        if (n < 0 || n > ID_MASK) return -1;
+        int code = prefixCode(prefix);
+        if (code < 0) return -1;
+        return ((long)code << ID_BITS) | n;
+    }
+
+    static QualifiedId unpack(long packed) {
+        return new QualifiedId(prefixes[(int)(packed >>> ID_BITS)],
+                               Long.toString(packed & ID_MASK));
+    }
+
+    private static int prefixCode(String prefix) {
+        Integer code = prefixCodes.get(prefix);
+        if (code != null) return code;
+        if (prefix.indexOf("//") >= 0) return -1;    // IRI
+        synchronized (prefixCodes) {
+            code = prefixCodes.get(prefix);
+            if (code != null) return code;
+            if (prefixCount >= MAX_PREFIXES) return -1;
+            String[] table = prefixes;
+            if (prefixCount == table.length)
+                table = Arrays.copyOf(table, table.length * 2);
+            table[prefixCount] = Symbols.intern(prefix);
+            prefixes = table;
+            prefixCodes.put(table[prefixCount], prefixCount);
+            return prefixCount++;
+        }
+    }
 }
 
@@ -0,0 +1,131 @@
+/*
+  The source ids of a node (Node.sourceIds), packed.
+
+  An ArrayList of QualifiedIds costs the list, its array, and for each
+  qid a QualifiedId and an id string, around 120 bytes for the usual
+  node with one source id.  Here each qid that packs (see
+  QualifiedId.packed) is just a long in an array; the few that don't
+  are kept as they are, in a second array that only exists if there
+  are any.
+
+  get makes a new QualifiedId each time.  contains and indexOf compare
+  packed forms, without making any.  For comparing one node's source
+  ids with another's, use same.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+public class QualifiedIdList extends AbstractList<QualifiedId> implements RandomAccess {
+
+    private long[] codes;
+    private QualifiedId[] others = null;   // others[i] is the qid if codes[i] < 0
+    private int size = 0;
+
+    public QualifiedIdList(int capacity) {
+        codes = new long[Math.max(capacity, 1)];
+    }
+
+    public QualifiedIdList(Collection<QualifiedId> qids) {
+        this(qids.size());
+        this.addAll(qids);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public QualifiedId get(int i) {
+        check(i, size);
+        long code = codes[i];
+        return (code >= 0 ? QualifiedId.unpack(code) : others[i]);
+    }
+
+    public QualifiedId set(int i, QualifiedId qid) {
+        QualifiedId old = get(i);
+        store(i, qid);
+        return old;
+    }
+
+    public void add(int i, QualifiedId qid) {
+        check(i, size + 1);
+        if (size == codes.length) {
+            codes = Arrays.copyOf(codes, size * 2);
+            if (others != null)
+                others = Arrays.copyOf(others, size * 2);
+        }
+        System.arraycopy(codes, i, codes, i + 1, size - i);
+        if (others != null)
+            System.arraycopy(others, i, others, i + 1, size - i);
+        ++size;
+        store(i, qid);
+        ++modCount;
+    }
+
+    public QualifiedId remove(int i) {
+        QualifiedId old = get(i);
+        System.arraycopy(codes, i + 1, codes, i, size - i - 1);
+        if (others != null) {
+            System.arraycopy(others, i + 1, others, i, size - i - 1);
+            others[size - 1] = null;
+        }
+        --size;
+        ++modCount;
+        return old;
+    }
+
+    public int indexOf(Object o) {
+        if (!(o instanceof QualifiedId)) return -1;
+        QualifiedId qid = (QualifiedId)o;
+        long code = qid.packed();
+        for (int i = 0; i < size; ++i)
+            if (code >= 0 ? codes[i] == code : (codes[i] < 0 && qid.equals(others[i])))
+                return i;
+        return -1;
+    }
+
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    // Packed form of the i'th qid, or -1 if it doesn't pack
+
+    long packed(int i) {
+        check(i, size);
+        return codes[i];
+    }
+
+    // Is qs1[i] equal to qs2[j]?  Doesn't make any QualifiedIds if
+    // they're both QualifiedIdLists.
+
+    public static boolean same(List<QualifiedId> qs1, int i, List<QualifiedId> qs2, int j) {
+        if (qs1 instanceof QualifiedIdList && qs2 instanceof QualifiedIdList) {
+            long code1 = ((QualifiedIdList)qs1).packed(i);
+            long code2 = ((QualifiedIdList)qs2).packed(j);
+            if (code1 >= 0 || code2 >= 0)
+                return code1 == code2;
+        }
+        return qs1.get(i).equals(qs2.get(j));
+    }
+
+    private void store(int i, QualifiedId qid) {
+        long code = qid.packed();
+        codes[i] = code;
+        if (code < 0) {
+            if (others == null)
+                others = new QualifiedId[codes.length];
+            others[i] = qid;
+        } else if (others != null)
+            others[i] = null;
+    }
+
+    private static void check(int i, int limit) {
+        if (i < 0 || i >= limit)
+            throw new IndexOutOfBoundsException(Integer.toString(i));
+    }
+}
@@ -6,6 +6,8 @@ package org.opentreeoflife.taxa;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
 
 public class Rank {
 
@@ -67,16 +69,20 @@ public class Rank {
 	};
 
 	static Map<String, Rank> ranks = new HashMap<String, Rank>();
+	static List<Rank> allRanks = new ArrayList<Rank>();
 	public static Rank NO_RANK;
 
     static {
         for (int i = 0; i < rankStrings.length; ++i)
             for (int j = 0; j < rankStrings[i].length; ++j) {
                 String name = rankStrings[i][j];
-                ranks.put(name, new Rank(name, (i+1)*100 + j*10));
+                Rank rank = new Rank(name, (i+1)*100 + j*10);
+                ranks.put(name, rank);
+                allRanks.add(rank);
             }
         NO_RANK = new Rank("no rank", -1);
         ranks.put("no rank", NO_RANK);
+        allRanks.add(NO_RANK);
     }
 
 	public static Rank SPECIES_RANK = ranks.get("species");
@@ -88,5 +94,19 @@ public class Rank {
         return ranks.get(rankstring);
     }
 
+    // Same as getRank(new String(text, start, end - start)), without
+    // making the string
+    static Rank getRank(char[] text, int start, int end) {
+        int len = end - start;
+        for (Rank rank : allRanks) {
+            String name = rank.name;
+            if (name.length() != len) continue;
+            int k = 0;
+            while (k < len && text[start + k] == name.charAt(k)) ++k;
+            if (k == len) return rank;
+        }
+        return null;
+    }
+
 
 }
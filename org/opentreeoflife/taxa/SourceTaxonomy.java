@@ -12,6 +12,15 @@ public class SourceTaxonomy extends Taxonomy {
 	public SourceTaxonomy(String idspace) {
         super(idspace);
 	}
+
+    // Compact read-only copy of this taxonomy, for when it's done
+    // being patched and will only be read from (aligned, merged, etc.).
+    // E.g. ncbi = ncbi.freeze() before u.alignment(ncbi).
+    // Nodes are made on demand; see MappedTaxonomy.
+
+    public SourceTaxonomy freeze() { // called from jython
+        return MappedTaxonomy.freeze(this);
+    }
 }
 
 
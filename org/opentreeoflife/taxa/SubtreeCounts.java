@@ -0,0 +1,75 @@
+/*
+  Aggregate counts for every subtree of a taxonomy, filled in by one
+  pass over a TreeIndex.
+
+  For the node in position i of the index, tips[i], species[i],
+  binomials[i] and visibleTips[i] are what Taxon.tipCount,
+  speciesCount, binomialCount and visibleTipCount would compute by
+  recursion.  Visiting the positions last to first visits every node
+  after all of its descendants, so each node's counts are complete
+  when it adds them into its parent's.
+
+  The counts depend on names, ranks and flags as well as on the shape
+  of the tree, so Taxonomy drops them when any of those changes (see
+  Taxonomy.countsChanged), not just when the tree index goes.
+*/
+
+package org.opentreeoflife.taxa;
+
+class SubtreeCounts {
+
+    private final TreeIndex index;
+    private final int[] tips;
+    private final int[] species;
+    private final int[] binomials;
+    private final int[] visibleTips;
+
+    SubtreeCounts(TreeIndex index) {
+        this.index = index;
+        int n = index.size();
+        tips = new int[n];
+        species = new int[n];
+        binomials = new int[n];
+        visibleTips = new int[n];
+        for (int i = n - 1; i >= 0; --i) {
+            Taxon node = index.get(i);
+            if (node.children == Taxon.NO_CHILDREN) {
+                tips[i] = 1;
+                visibleTips[i] = (node.isHidden() ? 0 : 1);
+            }
+            if (node.rank == Rank.SPECIES_RANK)
+                species[i] = 1;
+            if (Taxon.isBinomial(node.name))
+                binomials[i] = 1;
+            if (i > 0) {
+                int p = index.position(node.parent);
+                tips[p] += tips[i];
+                species[p] += species[i];
+                binomials[p] += binomials[i];
+                visibleTips[p] += visibleTips[i];
+            }
+        }
+    }
+
+    boolean contains(Taxon node) {
+        return index.contains(node);
+    }
+
+    // Node must be contained
+
+    int tipCount(Taxon node) {
+        return tips[index.position(node)];
+    }
+
+    int speciesCount(Taxon node) {
+        return species[index.position(node)];
+    }
+
+    int binomialCount(Taxon node) {
+        return binomials[index.position(node)];
+    }
+
+    int visibleTipCount(Taxon node) {
+        return visibleTips[index.position(node)];
+    }
+}
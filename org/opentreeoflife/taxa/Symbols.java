@@ -0,0 +1,30 @@
+/*
+  Shared table of strings that recur across taxonomies: taxon names,
+  synonym names and types, and QualifiedId prefixes.
+
+  The same name typically occurs in NCBI, GBIF, IRMNG, WoRMS, the
+  union taxonomy, and the union's synonyms, and a prefix such as
+  "ncbi" occurs once per source id.  Without sharing, each occurrence
+  is a separate String, read in from a separate row.  Interning makes
+  them all one instance.
+
+  The table is the JVM's own string table.  It is safe for concurrent
+  use (the parallel loader interns from its worker threads).  Each
+  distinct string is still one String on the heap; what interning
+  saves is the duplicates, which become garbage as soon as they're
+  interned.  The table's own entries are outside the heap, and they
+  don't keep their strings alive, so strings that no taxonomy uses
+  any more are garbage collected and a long-running process such as
+  the conflict service doesn't accumulate every name it has seen.
+  The table grows as needed; -XX:StringTableSize (see Makefile) sets
+  its starting size.
+*/
+
+package org.opentreeoflife.taxa;
+
+public class Symbols {
+
+    public static String intern(String s) {
+        return (s == null ? null : s.intern());
+    }
+}
@@ -7,12 +7,19 @@ public class Synonym extends Node {
     public String type;                 // synonym, authority, common name, etc.
 
     public Synonym(String name, String kind, Taxon taxon) {
-        super(name);
+        super(Symbols.intern(name));
         if (name == null)
             System.err.format("** Null name for synonym of %s\n", taxon);
         this.parent = taxon;
-        this.type = kind;
-        taxon.taxonomy.addToNameIndex(this, name);
+        this.type = Symbols.intern(kind);
+        taxon.taxonomy.addToNameIndex(this, this.name);
+    }
+
+    // For BinaryFormat, which sets the name and indexes it later
+    Synonym(Taxon taxon) {
+        super(null);
+        this.parent = taxon;
+        this.taxonomy = taxon.taxonomy;
     }
 
     public Taxon taxon() { return parent; }
@@ -35,6 +42,11 @@ public class Synonym extends Node {
         return parent.prunedp;
     }
 
+    // A synonym's state is saved with its taxon's
+    public void changing() {
+        parent.changing();
+    }
+
     public String toString() {
         return String.format("(%s %s %s)", type, name, taxon());
     }
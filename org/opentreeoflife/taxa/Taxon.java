@@ -11,6 +11,7 @@ import java.util.Iterator;
 import java.util.Comparator;
 import java.util.Collections;
 import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.File;
 import java.text.Normalizer;
 import java.text.Normalizer.Form;
@@ -25,6 +26,9 @@ public class Taxon extends Node implements Comparable<Taxon> {
 	private Collection<Synonym> synonyms = NO_SYNONYMS;
 	int count = -1;             // cache of # nodes at or below here
 	int depth = -1;             // cache of distance from root
+    int preorder = -1;          // position in taxonomy's TreeIndex, if any
+    int siblingIndex = -1;      // position in parent's ChildList
+    int savedIn = 0;            // History version when made or last saved
 	public boolean prunedp = false;    // for lazy removal from nameIndex
 	public int properFlags = 0, inferredFlags = 0;
 	Taxon division = null;  // foo.  for Alignment
@@ -40,10 +44,12 @@ public class Taxon extends Node implements Comparable<Taxon> {
 	public int end = 0;		// Next taxon *not* included
 
     public Taxon(Taxonomy tax, String name) {
-        super(name);
+        super(Symbols.intern(name));
         this.taxonomy = tax;
+        if (tax.history != null)
+            this.savedIn = tax.history.version;
         if (name != null)
-            tax.addToNameIndex(this, name);
+            tax.addToNameIndex(this, this.name);
     }
 
     public Taxon taxon() {
@@ -65,6 +71,11 @@ public class Taxon extends Node implements Comparable<Taxon> {
         return this.prunedp;
     }
 
+    public void changing() {
+        if (this.taxonomy.history != null)
+            this.taxonomy.history.save(this);
+    }
+
     public Collection<Taxon> getChildren() {
         if (children == NO_CHILDREN)
             return NO_CHILDREN_LIST;
@@ -141,8 +152,11 @@ public class Taxon extends Node implements Comparable<Taxon> {
             backtrace();
             return null;
         } else if (this.name == null) {
+            name = Symbols.intern(name);
+            this.changing();
             this.name = name;
             this.taxonomy.addToNameIndex(this, name);
+            this.taxonomy.countsChanged();
             return this;
         } else if (this.name.equals(name))
             return this;
@@ -189,6 +203,7 @@ public class Taxon extends Node implements Comparable<Taxon> {
                 else if (syn.name.equals(name))
                     return syn;
             }
+            this.changing();
             Synonym syn = new Synonym(name, type, this); // does addToNameIndex
             syn.taxonomy = this.taxonomy;
             if (sid != null)
@@ -200,6 +215,13 @@ public class Taxon extends Node implements Comparable<Taxon> {
         }
 	}
 
+    // For BinaryFormat - no checks, no indexing
+    void appendSynonym(Synonym syn) {
+        if (this.synonyms == NO_SYNONYMS)
+            this.synonyms = new ArrayList<Synonym>();
+        this.synonyms.add(syn);
+    }
+
     // Ensure that every name (synonym or not) is a name of the target
     // taxon (either synonym or not).
     // Returns number of synonyms created.
@@ -230,6 +252,7 @@ public class Taxon extends Node implements Comparable<Taxon> {
                 losers.add(syn);
         }
         for (Synonym syn : losers) {
+            this.changing();
             this.taxonomy.removeFromNameIndex(syn);
             this.synonyms.remove(syn);
             if (this.synonyms.size() == 0)
@@ -299,18 +322,22 @@ public class Taxon extends Node implements Comparable<Taxon> {
                 child.markEvent("rank inversion");
 				//Taxon.backtrace();
             }
+            this.changing();
+            child.changing();
 			child.parent = this;
 			if (this.children == NO_CHILDREN)
-				this.children = new ArrayList<Taxon>();
+				this.children = new ChildList();
             else if (this.children.contains(child))
                 System.err.format("** Adding child %s redundantly to %s\n", child, this);
 			this.children.add(child);
 			this.resetCount();	//force recalculation
+            this.taxonomy.treeChanged();
 		}
 	}
 
 	public void addChild(Taxon child, int flags) {
         this.addChild(child);
+        child.changing();
         child.properFlags &= ~Taxonomy.INCERTAE_SEDIS_ANY;
         this.addFlag(flags);
     }
@@ -320,6 +347,8 @@ public class Taxon extends Node implements Comparable<Taxon> {
 	public void detach() {
 		Taxon p = this.parent;
         if (p == null) return;  // already detached
+        this.changing();
+        p.changing();
         this.parent = null;
         // Think about this
         if (p.children.remove(this)) {
@@ -328,6 +357,7 @@ public class Taxon extends Node implements Comparable<Taxon> {
         } else
             System.err.format("** Detach didn't remove %s from children list\n", this);
         p.resetCount();
+        this.taxonomy.treeChanged();
 	}
 
     // Detach followed by addChild
@@ -345,6 +375,7 @@ public class Taxon extends Node implements Comparable<Taxon> {
             && ((this.name.hashCode() % 100) == 17))
             System.out.format("| Placing previously unplaced %s in %s\n", this, newparent);
         changeParent(newparent);
+        this.changing();
         this.properFlags &= ~Taxonomy.INCERTAE_SEDIS_ANY; // ??? think about this
         this.addFlag(flags);
 	}
@@ -363,7 +394,10 @@ public class Taxon extends Node implements Comparable<Taxon> {
             this.showLineage(this.taxonomy.forest);  // want to know the source
             //Taxon.backtrace();
         }
+        if ((this.properFlags | flags) != this.properFlags)
+            this.changing();
         this.properFlags |= flags;
+        this.taxonomy.countsChanged();
     }
 
 	// Go upwards and cache on the way back down
@@ -521,23 +555,47 @@ public class Taxon extends Node implements Comparable<Taxon> {
 	// Number of child-less nodes at and below this node.
 
 	public int count() {
-		if (this.count < 1) {
-			this.count = 1;
-			if (children != NO_CHILDREN)
-				for (Taxon child: children)
-					this.count += child.count();
-		}
+		if (this.count < 1)
+            Traversal.walk(this, countVisitor);
 		return this.count;
 	}
 
+    // Fills in count for nodes that don't have it, children first
+    private static final Traversal.Visitor countVisitor = new Traversal.Visitor() {
+            public boolean pre(Taxon node) {
+                return node.count < 1;
+            }
+            public void post(Taxon node) {
+                if (node.count < 1) {
+                    int count = 1;
+                    if (node.children != NO_CHILDREN)
+                        for (Taxon child: node.children)
+                            count += child.count;
+                    node.count = count;
+                }
+            }
+        };
+
 	void resetCount() {
 		for (Taxon n = this; n != null && n.count > 0; n = n.parent)
 			n.count = -1;
 	}
 
+	// The tip, species, binomial and visible tip counts are answered
+	// from the taxonomy's SubtreeCounts when it has them, and
+	// otherwise by recursion.
+
+	private SubtreeCounts subtreeCounts() {
+		SubtreeCounts counts = this.taxonomy.subtreeCounts();
+		return (counts != null && counts.contains(this)) ? counts : null;
+	}
+
 	// Number of tips at or below this node.
 
 	public int tipCount() {
+		SubtreeCounts counts = this.subtreeCounts();
+		if (counts != null)
+			return counts.tipCount(this);
 		if (children == NO_CHILDREN)
 			return 1;
 		else {
@@ -551,6 +609,9 @@ public class Taxon extends Node implements Comparable<Taxon> {
 	// Number of species at or below this node, i.e. exclude infraspecific taxa.
 
 	public int speciesCount() {
+		SubtreeCounts counts = this.subtreeCounts();
+		if (counts != null)
+			return counts.speciesCount(this);
         if (this.rank == Rank.SPECIES_RANK)
             return 1;
 		else if (children == NO_CHILDREN)
@@ -564,6 +625,9 @@ public class Taxon extends Node implements Comparable<Taxon> {
 	}
 
 	public int binomialCount() {
+		SubtreeCounts counts = this.subtreeCounts();
+		if (counts != null)
+			return counts.binomialCount(this);
         if (isBinomial(this.name))
             return 1;
 		else if (children == NO_CHILDREN)
@@ -576,6 +640,22 @@ public class Taxon extends Node implements Comparable<Taxon> {
 		}
 	}
 
+	// Number of tips at or below this node that aren't hidden.
+
+	public int visibleTipCount() {
+		SubtreeCounts counts = this.subtreeCounts();
+		if (counts != null)
+			return counts.visibleTipCount(this);
+		if (children == NO_CHILDREN)
+			return this.isHidden() ? 0 : 1;
+		else {
+			int count = 0;
+			for (Taxon child: children)
+				count += child.visibleTipCount();
+			return count;
+		}
+	}
+
 	// Use getDepth() only after the tree is in its final form
 	public int getDepth() {
 		if (this.depth < 0) {
@@ -588,10 +668,12 @@ public class Taxon extends Node implements Comparable<Taxon> {
 	}
 
     void resetDepths() {
-        this.depth = -1;
-        if (this.children != NO_CHILDREN)
-            for (Taxon child : this.children)
-                child.resetDepths();
+        Traversal.walk(this, new Traversal.Visitor() {
+                public boolean pre(Taxon node) {
+                    node.depth = -1;
+                    return true;
+                }
+            });
     }
 
 	// Does not use cache - depths may change during merge
@@ -609,14 +691,30 @@ public class Taxon extends Node implements Comparable<Taxon> {
 
     public Taxon carefulMrca(Taxon other) {
         if (other == null) return null; // Shouldn't happen, but...
+        Taxon m = this.indexedMrca(other);
+        if (m != null) return m;
         return this.mrca(other, this.measureDepth(), other.measureDepth());
     }
 
     public Taxon mrca(Taxon other) {
         if (other == null) return null; // Shouldn't happen, but...
+        Taxon m = this.indexedMrca(other);
+        if (m != null) return m;
         return this.mrca(other, this.getDepth(), other.getDepth());
     }
 
+    // Mrca from the taxonomy's tree index, or null if there's no index
+    // or it doesn't cover both nodes
+    private Taxon indexedMrca(Taxon other) {
+        if (this.taxonomy != other.taxonomy)
+            throw new RuntimeException(String.format("Mrca across taxonomies: %s %s %s %s",
+                                                     this, other, this.taxonomy, other.taxonomy));
+        TreeIndex index = this.taxonomy.treeIndex();
+        if (index != null && index.contains(this) && index.contains(other))
+            return index.mrca(this, other);
+        return null;
+    }
+
     // Always returns non-null (but possibly the noMrca node)
     Taxon mrca(Taxon other, int adepth, int bdepth) {
         if (this.taxonomy != other.taxonomy)
@@ -660,6 +758,13 @@ public class Taxon extends Node implements Comparable<Taxon> {
         if (a == null || b == null) return null;
 		if (a.taxonomy != b.taxonomy)
             throw new RuntimeException(String.format("Can't bridge different union taxonomies %s %s", this, other));
+        TreeIndex index = a.taxonomy.treeIndex();
+        if (index != null && index.contains(a) && index.contains(b)) {
+            Taxon m = index.mrca(a, b);
+            if (m == a || m == b) return null;
+            Taxon[] result = {index.childToward(m, a), index.childToward(m, b)};
+            return result;
+        }
 		int da = a.measureDepth();
 		int db = b.measureDepth();
 		while (db > da) {
@@ -691,6 +796,11 @@ public class Taxon extends Node implements Comparable<Taxon> {
             // I expected a significant speedup out of this hack, but
             // didn't measure any change.
             return this == b;
+        if (this.taxonomy == b.taxonomy) {
+            TreeIndex index = this.taxonomy.treeIndex();
+            if (index != null && index.contains(this) && index.contains(b))
+                return index.descendsFrom(this, b);
+        }
 		for (Taxon a = this; a != null; a = a.parent)
 			if (a == b)
 				return true;
@@ -747,6 +857,7 @@ public class Taxon extends Node implements Comparable<Taxon> {
 
     // Recursively set prunedp flag and remove from indexes
 	public boolean setRemoved(String reason) {
+        this.changing();
 		this.prunedp = true;
 		if (this.children != NO_CHILDREN)
 			for (Taxon child : new ArrayList<Taxon>(children))
@@ -939,6 +1050,7 @@ public class Taxon extends Node implements Comparable<Taxon> {
         boolean success = true;
         for (Taxon a = this; !a.isRoot(); a = a.parent) {
             if (a.isDirectlyHidden()) {
+                a.changing();
                 a.properFlags &= ~Taxonomy.HIDDEN;
                 if (a.isDirectlyHidden()) {
                     if (!a.isExtinct())
@@ -1080,8 +1192,10 @@ public class Taxon extends Node implements Comparable<Taxon> {
         // If an extinct taxon absorbs an extant one, it becomes extant
         if (other.isExtant() && this.isExtinct()) {
             System.out.format("| Extant contagion from %s to %s\n", other, this);
+            this.changing();
             this.properFlags &= ~Taxonomy.EXTINCT;
         }
+        other.changing();
         other.properFlags |= Taxonomy.MERGED;
 		other.prune(qid);    // delete the one node
         other.name = other.name + " [absorbed]";
@@ -1109,9 +1223,11 @@ public class Taxon extends Node implements Comparable<Taxon> {
 				if (node != this)
 					System.out.format("* Changing ancestor %s of %s from extinct to extant\n", node, this);
 			}
+            this.changing();
             this.properFlags &= ~Taxonomy.EXTINCT;
             this.inferredFlags &= ~Taxonomy.EXTINCT; // voodoo
         }
+        this.taxonomy.countsChanged();
 		return true;
 	}
 
@@ -1121,12 +1237,16 @@ public class Taxon extends Node implements Comparable<Taxon> {
 
     public boolean setRank(String rankstring) {
         if (rankstring == null) {
+            this.changing();
             this.rank = Rank.NO_RANK;
+            this.taxonomy.countsChanged();
             return true;
         }
         Rank r = Rank.getRank(rankstring);
         if (r != null) {
+            this.changing();
             this.rank = r;
+            this.taxonomy.countsChanged();
             return true;
         } else
             return false;
@@ -1170,6 +1290,7 @@ public class Taxon extends Node implements Comparable<Taxon> {
                 return true;    // yes, it does not have that name
             else if (this.name.equals(name)) {
                 if (setp) {
+                    this.changing();
                     this.name = this.name + " NOT"; // or maybe null
                     return true;                    // yes, it does not have this name.
                 } else
@@ -1253,6 +1374,9 @@ public class Taxon extends Node implements Comparable<Taxon> {
 	static Pattern binomialPattern = Pattern.compile("^[\\p{Upper}][\\p{Lower}\\-]+ [\\p{Lower}\\-]{2,}+$");
 
     public static boolean isBinomial(String name) {
+        // Most names have no space; skip the regex for those
+        if (name == null || name.indexOf(' ') < 0)
+            return false;
         return binomialPattern.matcher(name).find();
     }
 
@@ -1266,11 +1390,35 @@ public class Taxon extends Node implements Comparable<Taxon> {
 	//	   Xestoleberis y\u00FCchiae is not of Germanic origin.
 	//	 Convert upper case letters to lower case
 	//		e.g. genus Pechuel-Loeschea	 -- but these are all barren.
+	//
+	// Nearly all names are plain ASCII, which NFD leaves alone and in
+	// which the only characters the pattern matches are ^ and ` (both
+	// modifier symbols, Sk).  Those are returned as they are after a
+	// single scan.  The rest are cached, since the same spelling
+	// usually turns up in several sources.
 	public static String normalizeName(String str) {
         if (str.length() == 0) return null;
-		str = Normalizer.normalize(str, Normalizer.Form.NFD);
-		str = DIACRITICS_AND_FRIENDS.matcher(str).replaceAll("");
-		return str;
+        if (isPlainAscii(str)) return str;
+        String normalized = normalizedNames.get(str);
+        if (normalized == null) {
+            normalized = DIACRITICS_AND_FRIENDS.matcher(Normalizer.normalize(str, Normalizer.Form.NFD)).replaceAll("");
+            // Bounded: start over when full
+            if (normalizedNames.size() >= NORMALIZED_NAMES_MAX)
+                normalizedNames.clear();
+            normalizedNames.put(str, normalized);
+        }
+		return normalized;
 	}
 
+    private static final int NORMALIZED_NAMES_MAX = 100000;
+    private static final Map<String, String> normalizedNames = new ConcurrentHashMap<String, String>();
+
+    private static boolean isPlainAscii(String str) {
+        for (int i = 0; i < str.length(); ++i) {
+            char c = str.charAt(i);
+            if (c >= 0x80 || c == '^' || c == '`') return false;
+        }
+        return true;
+    }
+
 }
@@ -31,6 +31,8 @@ import java.util.Iterator;
 import java.util.Comparator;
 import java.util.Collections;
 import java.util.Collection;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.PrintStream;
 import java.io.BufferedWriter;
 import java.io.PrintWriter;
@@ -41,7 +43,8 @@ import org.json.simple.JSONObject;
 
 public abstract class Taxonomy {
     private Map<String, List<Node>> nameIndex = new HashMap<String, List<Node>>();
-	private Map<String, Node> idIndex = new HashMap<String, Node>();
+	IdIndex idIndex = new IdIndex();
+    History history = null;         // see getHistory
     public Taxon forest = new Taxon(this, null);
 	public String idspace = null; // "ncbi", "ott", etc.
 
@@ -53,8 +56,17 @@ public abstract class Taxonomy {
 
     public EventLogger eventLogger = new EventLogger();
 
-    Map<QualifiedId, Node> qidIndex = null;
-    Set<QualifiedId> qidAmbiguous = null;
+    QidIndex qidIndex = null;
+
+    // For mrca and descendsFrom; see TreeIndex
+    private volatile TreeIndex treeIndex = null;
+    private int treeQueries = 0;        // since last change to the tree
+    private int lastTreeSize = 0;
+    private volatile SubtreeCounts subtreeCounts = null;
+    private int countQueries = 0;       // since last change
+
+    // For alignment; see CandidateIndex
+    private volatile CandidateIndex candidateIndex = null;
 
 	public Taxonomy() {
     }
@@ -121,8 +133,10 @@ public abstract class Taxonomy {
 			nodes = new ArrayList<Node>(1); //default is 10
             nodes.add(node);
 			this.nameIndex.put(name, nodes);
+            this.namesChanged();
 		} else if (!nodes.contains(node)) {
             nodes.add(node);
+            this.namesChanged();
             if (nodes.size() == 75) {
                 // should use eventLogger
                 System.out.format("| %s is the 75th in %s to have the name '%s'\n",
@@ -139,17 +153,25 @@ public abstract class Taxonomy {
 		List<Node> nodes = this.lookup(node.name);
         // node.name is name for every node in nodes
         if (nodes != null) {
-            nodes.remove(node);
+            if (nodes.remove(node))
+                this.namesChanged();
             if (nodes.size() == 0)
                 this.nameIndex.remove(node.name);
         }
+        node.changing();
         node.name = null;
 	}
 
     // Similar, there is an idspace, but not every node has an id.
 
     public Iterable<String> allIds() {
-        return this.idIndex.keySet();
+        return this.idIndex.ids();
+    }
+
+    // Greatest id that's a number, or -1 if none
+
+    public long maxid() {
+        return this.idIndex.maxid();
     }
 
     // Cause id to be an identifier of node.
@@ -162,8 +184,10 @@ public abstract class Taxonomy {
                     System.err.format("** Id collision: attempt to add %s (= %s) as an id for %s\n",
                                       id, existing, node);
             } else {
+                node.changing();
                 if (node.id == null)
                     node.id = id;
+                this.idChanging(id);
                 this.idIndex.put(id, node);
             }
         }
@@ -171,22 +195,41 @@ public abstract class Taxonomy {
 
     // Promise not to call this when a node with this id exists
     public void initId(Node node, String id) {
+        node.changing();
         node.id = id;
+        this.idChanging(id);
         this.idIndex.put(id, node);
     }
 
 
     public void removeFromIdIndex(Node node, String id) {
         // could check that lookupId(id) == node
-        if (id != null)
+        if (id != null) {
+            this.idChanging(id);
             this.idIndex.remove(id);
+        }
+    }
+
+    // Call before binding or unbinding id (see History)
+
+    void idChanging(String id) {
+        if (this.history != null)
+            this.history.saveId(id);
+    }
+
+    // Start keeping the history of this taxonomy's changes, for
+    // snapshots
+
+    public History getHistory() {
+        if (this.history == null)
+            this.history = new History(this);
+        return this.history;
     }
 
     public void removeFromQidIndex(Taxon node, QualifiedId qid) {
         // could check that lookupQid(id) == node
         if (this.qidIndex != null) {
             this.qidIndex.remove(qid);
-            this.qidAmbiguous.remove(qid);
         }
     }
 
@@ -224,6 +267,96 @@ public abstract class Taxonomy {
             return n;
 	}
 
+    // Index of the tree as it is now, or null if the tree has changed
+    // recently.  A new index is made once the number of queries since
+    // the last change is a good fraction of the size of the tree, so
+    // that alternating edits and queries (as in merge) don't cause an
+    // index to be made after every edit.
+
+    TreeIndex treeIndex() {
+        TreeIndex index = this.treeIndex;
+        if (index != null)
+            return index;
+        if (++treeQueries < 1024 || treeQueries < lastTreeSize / 16)
+            return null;
+        synchronized (this) {
+            if (this.treeIndex == null) {
+                this.treeIndex = new TreeIndex(this);
+                lastTreeSize = this.treeIndex.size();
+            }
+            return this.treeIndex;
+        }
+    }
+
+    // Index of the tree as it is now, made now if necessary.  For code
+    // that's about to ask many mrca or descendsFrom questions (or
+    // wants the preorder intervals) of a tree that won't change
+    // meanwhile.  Null for taxonomies that don't keep one.
+
+    public TreeIndex getTreeIndex() {
+        TreeIndex index = this.treeIndex;
+        if (index != null)
+            return index;
+        treeQueries = Math.max(lastTreeSize / 16, 1024);
+        return this.treeIndex();
+    }
+
+    // Called when a node's parent changes
+    void treeChanged() {
+        if (this.treeIndex != null)
+            this.treeIndex = null;
+        treeQueries = 0;
+        this.countsChanged();
+    }
+
+    // Subtree counts (tips, species, etc.) for the tree as it is now,
+    // or null.  The first query after a change is answered by
+    // recursion, in case it's the only one; the counts for all nodes
+    // are made on the second.
+
+    SubtreeCounts subtreeCounts() {
+        SubtreeCounts counts = this.subtreeCounts;
+        if (counts != null)
+            return counts;
+        if (++countQueries < 2)
+            return null;
+        TreeIndex index = this.getTreeIndex();
+        if (index == null)
+            return null;
+        synchronized (this) {
+            if (this.subtreeCounts == null)
+                this.subtreeCounts = new SubtreeCounts(index);
+            return this.subtreeCounts;
+        }
+    }
+
+    // Called when the tree, or a name, rank, or flag, changes
+    void countsChanged() {
+        if (this.subtreeCounts != null)
+            this.subtreeCounts = null;
+        countQueries = 0;
+    }
+
+    // Candidates for alignment, by name, for the names as they are
+    // now.  Made on first use after a change.
+
+    public CandidateIndex getCandidateIndex() {
+        CandidateIndex index = this.candidateIndex;
+        if (index != null)
+            return index;
+        synchronized (this) {
+            if (this.candidateIndex == null)
+                this.candidateIndex = new CandidateIndex(this);
+            return this.candidateIndex;
+        }
+    }
+
+    // Called when a node is added to or removed from the name index
+    void namesChanged() {
+        if (this.candidateIndex != null)
+            this.candidateIndex = null;
+    }
+
     // Roots - always Taxons, never Synonyms.
 
     public Iterable<Taxon> roots() {
@@ -300,8 +433,7 @@ public abstract class Taxonomy {
 
     public void startQidIndex() {
         if (this.qidIndex == null) {
-            this.qidIndex = new HashMap<QualifiedId, Node>();
-            this.qidAmbiguous = new HashSet<QualifiedId>();
+            this.qidIndex = new QidIndex();
             for (Taxon node : this.taxa())
                 if (node.sourceIds != null)
                     for (QualifiedId qid : node.sourceIds)
@@ -318,7 +450,7 @@ public abstract class Taxonomy {
                 return null;
             if (node.isPruned())
                 return null;
-            if (this.qidAmbiguous.contains(qid)) {
+            if (this.qidIndex.isAmbiguous(qid)) {
                 System.out.format("# Ambiguous qid %s = %s + ...\n", qid, node);
                 return null;
             }
@@ -335,7 +467,7 @@ public abstract class Taxonomy {
             Node other = this.qidIndex.get(qid);
             if (other != null) {
                 if (other != node) {
-                    this.qidAmbiguous.add(qid);
+                    this.qidIndex.setAmbiguous(qid);
                     System.out.format("# Making qid ambiguous %s = %s + %s\n", qid, node, other);
                 }
             } else {
@@ -350,18 +482,40 @@ public abstract class Taxonomy {
     //   1. interim taxonomy format, if argument ends with '/'
     //   2. literal Newick string, if argument starts with '(',
     //   3. load Newick from file, if argument ends with '.tre'
+    //   4. binary snapshot of interim taxonomy foo/, if argument is foo.ottbin
+    //      (snapshot is made, or remade if foo/ has changed, as needed)
+    //   5. read-only memory-mapped snapshot of foo/ or foo.tre, if argument
+    //      is foo.ottmap (see MappedTaxonomy)
+    // parallel = load interim format taxonomy.tsv using all cores
 
 	public static SourceTaxonomy getTaxonomy(String designator, String idspace) throws IOException {
-        SourceTaxonomy tax = getRawTaxonomy(designator, idspace);
+        return getTaxonomy(designator, idspace, false);
+    }
+
+	public static SourceTaxonomy getTaxonomy(String designator, String idspace, boolean parallel) throws IOException {
+        if (designator.endsWith(BinaryFormat.SUFFIX))
+            // Snapshot is taken after postLoadActions
+            return BinaryFormat.getTaxonomy(designator, idspace, true, parallel);
+        if (designator.endsWith(MappedTaxonomy.SUFFIX))
+            return MappedTaxonomy.getTaxonomy(designator, idspace, true, parallel);
+        SourceTaxonomy tax = getRawTaxonomy(designator, idspace, parallel);
         tax.postLoadActions();
         return tax;
     }
 
 	public static SourceTaxonomy getRawTaxonomy(String designator, String idspace) throws IOException {
+        return getRawTaxonomy(designator, idspace, false);
+    }
+
+	public static SourceTaxonomy getRawTaxonomy(String designator, String idspace, boolean parallel) throws IOException {
+        if (designator.endsWith(BinaryFormat.SUFFIX))
+            return BinaryFormat.getTaxonomy(designator, idspace, false, parallel);
+        if (designator.endsWith(MappedTaxonomy.SUFFIX))
+            return MappedTaxonomy.getTaxonomy(designator, idspace, false, parallel);
 		SourceTaxonomy tax = new SourceTaxonomy(idspace);
 		if (designator.startsWith("(")) {
-            Taxon root = Newick.newickToNode(designator, tax);
-			tax.addRoot(root);
+            for (Taxon root : Newick.newickToNodes(designator, tax))
+                tax.addRoot(root);
         } else if (designator.endsWith(".tre")) {
 			System.out.println("--- Reading " + designator + " ---");
             tax.loadNewick(designator);
@@ -371,7 +525,7 @@ public abstract class Taxonomy {
 				designator = designator + "/";
 			}
 			System.out.println("--- Reading " + designator + " ---");
-			new InterimFormat(tax).loadTaxonomy(designator);
+			new InterimFormat(tax).loadTaxonomy(designator, parallel);
             tax.purgeTemporaryIds();
 		}
 		return tax;
@@ -384,14 +538,18 @@ public abstract class Taxonomy {
 
     void purgeTemporaryIds() {
         List<Node> losers = new ArrayList<Node>();
-        for (Node node : idIndex.values())
+        for (String id : idIndex.ids()) {
+            Node node = idIndex.get(id);
             if (node.id != null &&
                 NEGATIVE_NUMERAL.matcher(node.id).matches())
                 losers.add(node);
+        }
         if (losers.size() > 0)
             System.out.printf("| Removing %s temporary ids\n", losers.size());
         for (Node node : losers) {
-            idIndex.remove(node);
+            this.idChanging(node.id);
+            idIndex.remove(node.id);
+            node.changing();
             node.id = null;
         }
     }
@@ -433,11 +591,23 @@ public abstract class Taxonomy {
     }
 
     // Get rid of diacritics and similar marks.
+    // Nothing changes the name index until all the new names are known,
+    // so they can be worked out in parallel.
+
+    static final int NORMALIZE_PARALLEL_MIN = 100000;
+
     void normalizeNames() {
+        long start = System.nanoTime();
         int norm = 0;
+        final String[] names = this.allNames().toArray(new String[0]);
+        String[] newnames = new String[names.length];
+        if (names.length >= NORMALIZE_PARALLEL_MIN)
+            Arrays.parallelSetAll(newnames, i -> Taxon.normalizeName(names[i]));
+        else
+            Arrays.setAll(newnames, i -> Taxon.normalizeName(names[i]));
         List<String[]> changes = new ArrayList<String[]>();
-        for (String name : this.allNames()) {
-            String newname = Taxon.normalizeName(name);
+        for (int i = 0; i < names.length; ++i) {
+            String name = names[i], newname = newnames[i];
             if (!newname.equals(name) && this.lookup(newname) == null)
                 changes.add(new String[]{name, newname});
         }
@@ -448,8 +618,8 @@ public abstract class Taxonomy {
                     ((Taxon)node).rename(newname, "spelling variant");
             ++norm;
         }
-        if (norm > 0)
-            System.out.format("| Normalized %s names\n", norm);
+        System.out.format("| Normalized %s of %s names in %s ms\n",
+                          norm, names.length, (System.nanoTime() - start) / 1000000);
     }
 
     int synonymCount() {
@@ -559,7 +729,17 @@ public abstract class Taxonomy {
             smush(root);
     }
 
-    private void smush(Taxon node) {
+    private void smush(Taxon root) {
+        Traversal.walk(root, new Traversal.Visitor() {
+                public boolean pre(Taxon node) {
+                    smushChildren(node);
+                    return true;
+                }
+            });
+    }
+
+    // Children are visited after this returns, so it's OK to change them
+    private void smushChildren(Taxon node) {
         if (node.children == Taxon.NO_CHILDREN) return;
 
         Map<String, List<Taxon>> childrenByName = new HashMap<String, List<Taxon>>();
@@ -596,9 +776,6 @@ public abstract class Taxonomy {
                 }
 
         }
-
-        for (Taxon child : node.children)
-            smush(child);
 	}
 
     // ----- this appears to be unused at present -----
@@ -620,18 +797,23 @@ public abstract class Taxonomy {
                            Mauremys hybrids
                            Sylvaemus group
                         */
-                        if (!node.name.endsWith("group"))
+                        if (!node.name.endsWith("group")) {
+                            node.changing();
                             node.rank = Rank.SPECIES_RANK;
+                        }
                     }
                 else if (node.name.contains(" subsp.") || node.name.contains(" subsp ")) {
                     System.out.format("| Setting rank of %s to subspecies\n", node);
+                    node.changing();
                     node.rank = subspecies;
                 }
                 else if (node.name.contains(" var.")) {
                     System.out.format("| Setting rank of %s to variety\n", node);
+                    node.changing();
                     node.rank = variety;
                 }
             }
+        this.countsChanged();
     }
 
     // ----- Flags -----
@@ -727,6 +909,7 @@ public abstract class Taxonomy {
                 wrongFlags &= ~inferredOnly;
                 if (wrongFlags != 0) {
                     node.addFlag(wrongFlags); // adds to properFlags
+                    node.changing();
                     node.inferredFlags &= ~wrongFlags;
                     if (flaggers < 10)
                         System.out.format("| Fixed flags %s for %s in %s\n",
@@ -744,9 +927,10 @@ public abstract class Taxonomy {
     // Propagate heritable flags from the top down.
 
 	public void inferFlags() {
+        this.countsChanged();
         int hcount = 0;
 		for (Taxon root : this.roots())
-			hcount += this.heritFlags(root, 0);
+			hcount += this.heritFlags(root);
         System.out.format("| %s nodes inheriting flags\n", hcount);
         int bcount = 0;
 		for (Taxon root : this.roots())
@@ -756,25 +940,36 @@ public abstract class Taxonomy {
         System.out.format("| finished inferring\n");
 	}
 
-	private int heritFlags(Taxon node, int inferredFlags) {
-        int count = 0;
-        boolean before = node.isHidden();
-        if (node.inferredFlags != inferredFlags) {
-            node.inferredFlags = inferredFlags;
-            ++count;
-        }
+    // Subtrees at least this big get their own task in the flag
+    // inference passes.  The passes do little per node, so tasks
+    // need to be big to be worth it.
+    static final int FLAGS_GRAIN = 50000;
+
+	private int heritFlags(final Taxon root) {
+        final AtomicInteger count = new AtomicInteger();
+        Traversal.walkParallel(root, new Traversal.Visitor() {
+                public boolean pre(Taxon node) {
+                    // The parent's flags are already set
+                    int inferredFlags = (node == root ? 0 : bequest(node.parent));
+                    if (node.inferredFlags != inferredFlags) {
+                        node.changing();
+                        node.inferredFlags = inferredFlags;
+                        count.incrementAndGet();
+                    }
+                    return true;
+                }
+            }, FLAGS_GRAIN);
+        return count.get();
+	}
 
-        int bequest = inferredFlags | node.properFlags;		// What the children inherit
+    // What the children of node inherit
 
+    private static int bequest(Taxon node) {
+        int bequest = node.inferredFlags | node.properFlags;
 		if (node.rank == Rank.SPECIES_RANK)
             bequest |= Taxonomy.INFRASPECIFIC;
-
-		if (node.children != null) {
-			for (Taxon child : node.children)
-				count += heritFlags(child, bequest);
-		}
-        return count;
-	}
+        return bequest;
+    }
 
     // Propagate flags from the bottom up.
 
@@ -782,9 +977,22 @@ public abstract class Taxonomy {
 	// contain anything at species rank or below.
 	// 2. Propagate EXTINCT (inferred) upwards.
 
-	static private int analyzeBarren(Taxon node) {
-        int count = 0;
+	static private int analyzeBarren(Taxon root) {
+        final AtomicInteger count = new AtomicInteger();
+        Traversal.walkParallel(root, new Traversal.Visitor() {
+                public void post(Taxon node) {
+                    if (analyzeBarrenNode(node))
+                        count.incrementAndGet();
+                }
+            }, FLAGS_GRAIN);
+        return count.get();
+    }
+
+    // Children have already been done.  Returns true if barren.
+
+	static private boolean analyzeBarrenNode(Taxon node) {
 		boolean barren = true;      // No species?
+        int inferredFlags = node.inferredFlags;
 		if (node.rank != null) {
 			Rank rank = node.rank;
 			if (rank != Rank.NO_RANK) {
@@ -798,23 +1006,25 @@ public abstract class Taxonomy {
 		if (node.hasChildren()) {
 			boolean allextinct = true;	   // Any descendant is extant?
 			for (Taxon child : node.children) {
-				count += analyzeBarren(child);
 				if ((child.inferredFlags & Taxonomy.BARREN) == 0) barren = false;
 				if ((child.inferredFlags & Taxonomy.EXTINCT) == 0) allextinct = false;
 			}
 			if (allextinct) {
-				node.inferredFlags |= EXTINCT;
+				inferredFlags |= EXTINCT;
 				//if (node.sourceIds != null && node.sourceIds.get(0).prefix.equals("ncbi"))
 					//;//System.out.format("| Induced extinct: %s\n", node);
 			}
 			// We could do something similar for all of the hidden-type flags
 		}
-		if (barren) {
-			node.inferredFlags |= Taxonomy.BARREN;
-            ++count;
-		} else
-			node.inferredFlags &= ~Taxonomy.BARREN;
-        return count;
+		if (barren)
+			inferredFlags |= Taxonomy.BARREN;
+		else
+			inferredFlags &= ~Taxonomy.BARREN;
+        if (node.inferredFlags != inferredFlags) {
+            node.changing();
+            node.inferredFlags = inferredFlags;
+        }
+        return barren;
 	}
 	
 	// NCBI only (not SILVA)
@@ -827,8 +1037,16 @@ public abstract class Taxonomy {
 	// We use this for NCBI but not for SILVA.
     // (although SILVA still has to deal with INCERTAE_SEDIS, I believe).
 
-	static void analyzeOTUs(Taxon node) {
-		// Prepare for recursive descent
+	static void analyzeOTUs(Taxon root) {
+        Traversal.walk(root, new Traversal.Visitor() {
+                public boolean pre(Taxon node) {
+                    analyzeOTU(node);
+                    return true;
+                }
+            });
+    }
+
+	static void analyzeOTU(Taxon node) {
         if (node.name != null) {
             if (notOtuRegex.matcher(node.name).find()) 
                 node.addFlag(NOT_OTU);
@@ -837,11 +1055,6 @@ public abstract class Taxonomy {
             if (viralRegex.matcher(node.name).find()) 
                 node.addFlag(VIRAL);
         }
-
-		// Recursive descent
-		if (node.children != null)
-			for (Taxon child : node.children)
-				analyzeOTUs(child);
 	}
 
 	// Set SIBLING_HIGHER flags
@@ -864,11 +1077,107 @@ public abstract class Taxonomy {
 
     // We need to find major rank conflicts in GBIF and IRMNG, but not NCBI or SILVA.
 
-	public static int analyzeRankConflicts(Taxon node, boolean majorp) {
-		Integer m = -1;			// "no rank" = -1
+	public static int analyzeRankConflicts(final Taxon root, final boolean majorp) {
+        // Children before parents; skip unplaced subtrees
+        if (!majorp) {
+            Traversal.walkParallel(root, new Traversal.Visitor() {
+                    public boolean pre(Taxon node) {
+                        return node == root || node.isPlaced();
+                    }
+                    public void post(Taxon node) {
+                        if (node == root || node.isPlaced())
+                            analyzeChildRanks(node, false, null);
+                    }
+                }, FLAGS_GRAIN);
+        } else {
+            // The major pass prints, and so does addFlag for big
+            // nodes.  So work out what to do in parallel, then set
+            // the flags and print the messages in the order that a
+            // serial walk would have.  Putting off the flags changes
+            // nothing: a node's flags are set only by its parent,
+            // after the node itself has been looked at.
+            Actions actions = Traversal.foldParallel(root, new Traversal.Fold<Actions>() {
+                    public boolean descend(Taxon node) {
+                        return node == root || node.isPlaced();
+                    }
+                    public Actions combine(Actions acc, Actions value) {
+                        return (acc == null ? value : acc.append(value));
+                    }
+                    public Actions finish(Taxon node, Actions acc) {
+                        if (node == root || node.isPlaced())
+                            acc = analyzeChildRanks(node, true, acc);
+                        return acc;
+                    }
+                }, FLAGS_GRAIN);
+            if (actions != null)
+                actions.run();
+        }
+        return rankLevel(root);
+    }
+
+    // Flags to set and messages to print, in order.  Lists from
+    // sibling subtrees are joined in constant time.
+
+    private static class Actions {
+        private Link first = null, last = null;
+
+        private static class Link {
+            final Taxon node;
+            final int flag;         // set flag on node, or if 0,
+            final String message;   // print message
+            Link next = null;
+
+            Link(Taxon node, int flag, String message) {
+                this.node = node;
+                this.flag = flag;
+                this.message = message;
+            }
+        }
+
+        static Actions add(Actions actions, Taxon node, int flag, String message) {
+            if (actions == null)
+                actions = new Actions();
+            Link link = new Link(node, flag, message);
+            if (actions.first == null)
+                actions.first = link;
+            else
+                actions.last.next = link;
+            actions.last = link;
+            return actions;
+        }
+
+        Actions append(Actions other) {
+            if (other == null || other.first == null)
+                return this;
+            if (this.first == null)
+                return other;
+            this.last.next = other.first;
+            this.last = other.last;
+            return this;
+        }
+
+        void run() {
+            for (Link link = first; link != null; link = link.next)
+                if (link.flag != 0)
+                    link.node.addFlag(link.flag);
+                else
+                    System.out.print(link.message);
+        }
+    }
+
+    // "no rank" = -1
+    private static int rankLevel(Taxon node) {
 		if (node.rank != Rank.NO_RANK)
-            m = node.rank.level;
-		int myrank = m;
+            return node.rank.level;
+        else
+            return -1;
+    }
+
+    // The minor pass sets flags straight away.  The major pass adds
+    // flags and messages to actions (see analyzeRankConflicts).
+
+	private static Actions analyzeChildRanks(Taxon node, boolean majorp, Actions actions) {
+		int myrank = rankLevel(node);
 
 		if (node.children != null) {
 
@@ -876,11 +1185,10 @@ public abstract class Taxonomy {
 			int low = -1;
 			Taxon highchild = null;
 
-			// Preorder traversal
-			// In the process, calculate rank of highest child
+			// Calculate rank of highest child
 			for (Taxon child : node.children) {
                 if (!child.isPlaced()) continue;
-				int rank = analyzeRankConflicts(child, majorp);
+				int rank = rankLevel(child);
 				if (rank >= 0) {  //  && !child.isHidden()  ??
 					if (rank < high) { high = rank; highchild = child; }
 					if (rank > low)	 low = rank;
@@ -906,11 +1214,15 @@ public abstract class Taxonomy {
 							if (majorp && (chrank / 100) > (high / 100)) {
                                 // e.g. a genus that has a family [in an order] as a sibling
                                 if (child.count() > 20000)
-                                    System.out.format("!! %s %s sibling to %s %s\n",
-                                                      child.rank.name, child, highchild.rank.name, highchild);
-                                child.addFlag(MAJOR_RANK_CONFLICT);
+                                    actions = Actions.add(actions, null, 0,
+                                                          String.format("!! %s %s sibling to %s %s\n",
+                                                                        child.rank.name, child, highchild.rank.name, highchild));
+                                actions = Actions.add(actions, child, MAJOR_RANK_CONFLICT, null);
                             } else if (chrank > high) {  // if lower rank than some sibling
-								child.addFlag(SIBLING_HIGHER); //e.g. family with superfamily sibling
+                                if (majorp)
+                                    actions = Actions.add(actions, child, SIBLING_HIGHER, null);
+                                else
+                                    child.addFlag(SIBLING_HIGHER); //e.g. family with superfamily sibling
                             // tbd: should clear the flag when appropriate
 						}
 					}
@@ -919,12 +1231,13 @@ public abstract class Taxonomy {
 			// Extra informational check.  See if ranks are inverted.
 			if (majorp && high >= 0 && myrank > high)
 				// The myrank == high case is weird too; there are about 200 of those.
-				System.out.format("* Rank inversion : %s %s < %s %s\n",
-								   highchild, highchild.rank.name,
-								   node, node.rank.name);
+				actions = Actions.add(actions, null, 0,
+                                      String.format("* Rank inversion : %s %s < %s %s\n",
+                                                    highchild, highchild.rank.name,
+                                                    node, node.rank.name));
 
 		}
-		return myrank;
+        return actions;
 	}
 
 	static Pattern notOtuRegex =
@@ -1250,7 +1563,7 @@ public abstract class Taxonomy {
 
         // https://github.com/OpenTreeOfLife/reference-taxonomy/issues/36
         if (false && node.sourceIds != null)
-            newnode.sourceIds = new ArrayList<QualifiedId>(node.sourceIds);
+            newnode.sourceIds = new QualifiedIdList(node.sourceIds);
 
         // This might be the place to report on homonym creation
 
@@ -1320,7 +1633,9 @@ public abstract class Taxonomy {
         Taxon biggest = this.unique("life");
         if (biggest == null || !biggest.isRoot())
             biggest = this.normalizeRoots().get(0);  // sort the roots list
+        biggest.changing();
         biggest.properFlags &= ~Taxonomy.SUPPRESSED_FLAGS;
+        this.countsChanged();
     }
 
     // ----- Id assignment -----
@@ -1341,9 +1656,14 @@ public abstract class Taxonomy {
 
 	public void loadNewick(String filename) throws IOException {
 		BufferedReader br = Taxonomy.fileReader(filename);
-        Taxon root = Newick.newickToNode(new java.io.PushbackReader(br), this);
-		this.addRoot(root);
-        root.properFlags = 0;   // not unplaced
+        try {
+            for (Taxon root : Newick.read(br, this)) {
+                this.addRoot(root);
+                root.properFlags = 0;   // not unplaced
+            }
+        } finally {
+            br.close();
+        }
 	}
 
 	// Render this taxonomy as a Newick string.
@@ -1580,13 +1900,9 @@ public abstract class Taxonomy {
 	public void adHocReport1(Taxon node) {
 		System.out.format("%s\n", node.name);
 		System.out.format("Taxa: %s\n", node.count());
-		int tips = tipCount(node, new Filter() {
-				public boolean passes(Taxon node) { return true; }
-			});
+		int tips = node.tipCount();
 		System.out.format("Tips: %s\n", tips);
-		int hidden = tipCount(node, new Filter() {
-				public boolean passes(Taxon node) { return node.isHidden(); }
-			});
+		int hidden = tips - node.visibleTipCount();
 		System.out.format(" Visible: %s, hidden: %s\n", tips - hidden, hidden);
 		int binomial = tipCount(node, new Filter() {
 				public boolean passes(Taxon node) { return binomialPattern.matcher(node.name).find(); }
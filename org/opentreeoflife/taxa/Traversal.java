@@ -0,0 +1,252 @@
+/*
+  Depth-first traversal of a subtree without recursion.
+
+  A recursive walk uses a stack frame per level, so a deep enough tree
+  (long chains of unranked taxa, or synthetic trees) needs a large
+  thread stack (-Xss) or overflows.  These keep the path from the
+  root in arrays instead, so depth costs heap, not stack.
+
+  walk calls a Visitor's pre on each node before its descendants and
+  post after them, in the same order as the usual
+
+      void f(Taxon node) {
+          if (pre(node) && node.children != null)
+              for (Taxon child : node.children)
+                  f(child);
+          post(node);
+      }
+
+  fold is for the other common shape, where each node's result is
+  made from its children's results, as in
+
+      T f(Taxon node) {
+          T acc = null;
+          if (descend(node) && node.children != null)
+              for (Taxon child : node.children)
+                  acc = combine(acc, f(child));
+          return finish(node, acc);
+      }
+
+  A node's children are looked at after pre (or descend) returns, so
+  pre may change them (see Taxonomy.smush).  As with the recursive
+  version, changing the children of a node whose children are being
+  visited is an error.
+
+  walkParallel is walk with subtrees of at least a given size visited
+  as fork/join tasks.  pre(node) still happens before anything in
+  node's subtree, and post(node) after, but sibling subtrees may be
+  visited at the same time.  So it's only for visitors that, at a
+  node, change nothing but the node and its children, and whose other
+  effects (e.g. counts) don't depend on order.  foldParallel is the
+  same for fold; children's values are still combined in order, so the
+  result is the same as fold's.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+public class Traversal {
+
+    public interface Visitor {
+        // Called before node's descendants.  Return false to skip them.
+        default boolean pre(Taxon node) { return true; }
+
+        // Called after node's descendants (or after pre, if it
+        // returned false)
+        default void post(Taxon node) { }
+    }
+
+    public interface Fold<T> {
+        // Visit node's children?
+        default boolean descend(Taxon node) { return true; }
+
+        // Combine acc, the result so far for a node's children (null
+        // before the first), with the next child's value
+        T combine(T acc, T value);
+
+        // Value for node, given the combined values of its children
+        // (null if there are none, or they weren't visited)
+        T finish(Taxon node, T acc);
+    }
+
+    // Visit the subtree rooted at node
+
+    public static void walk(Taxon node, Visitor visitor) {
+        if (!visitor.pre(node) || node.children == null) {
+            visitor.post(node);
+            return;
+        }
+        Path path = new Path();
+        path.push(node);
+        while (path.size > 0) {
+            Iterator<Taxon> children = path.children[path.size - 1];
+            if (children.hasNext()) {
+                Taxon child = children.next();
+                if (visitor.pre(child) && child.children != null)
+                    path.push(child);
+                else
+                    visitor.post(child);
+            } else
+                visitor.post(path.pop());
+        }
+    }
+
+    public static void walk(Iterable<Taxon> roots, Visitor visitor) {
+        for (Taxon root : roots)
+            walk(root, visitor);
+    }
+
+    // Visit the subtree rooted at node, with subtrees of grain or more
+    // nodes as separate tasks
+
+    public static void walkParallel(Taxon node, Visitor visitor, int grain) {
+        if (ForkJoinPool.getCommonPoolParallelism() <= 1 || node.count() < grain)
+            walk(node, visitor);
+        else
+            ForkJoinPool.commonPool().invoke(new WalkTask(node, visitor, grain));
+    }
+
+    private static class WalkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Taxon node;
+        private final Visitor visitor;
+        private final int grain;
+
+        WalkTask(Taxon node, Visitor visitor, int grain) {
+            this.node = node;
+            this.visitor = visitor;
+            this.grain = grain;
+        }
+
+        protected void compute() {
+            if (!visitor.pre(node) || node.children == null) {
+                visitor.post(node);
+                return;
+            }
+            // Children's counts were cached by walkParallel's count()
+            List<WalkTask> tasks = new ArrayList<WalkTask>();
+            for (Taxon child : node.children)
+                if (child.count() >= grain) {
+                    WalkTask task = new WalkTask(child, visitor, grain);
+                    task.fork();
+                    tasks.add(task);
+                } else
+                    walk(child, visitor);
+            for (WalkTask task : tasks)
+                task.join();
+            visitor.post(node);
+        }
+    }
+
+    // Value of the subtree rooted at node
+
+    @SuppressWarnings("unchecked")
+    public static <T> T fold(Taxon node, Fold<T> fold) {
+        if (!fold.descend(node) || node.children == null)
+            return fold.finish(node, null);
+        Path path = new Path();
+        path.push(node);
+        while (true) {
+            int top = path.size - 1;
+            Iterator<Taxon> children = path.children[top];
+            if (children.hasNext()) {
+                Taxon child = children.next();
+                if (fold.descend(child) && child.children != null)
+                    path.push(child);
+                else
+                    path.accs[top] = fold.combine((T)path.accs[top], fold.finish(child, null));
+            } else {
+                T acc = (T)path.accs[top];
+                T value = fold.finish(path.pop(), acc);
+                if (path.size == 0)
+                    return value;
+                path.accs[top - 1] = fold.combine((T)path.accs[top - 1], value);
+            }
+        }
+    }
+
+    // Value of the subtree rooted at node, with subtrees of grain or
+    // more nodes as separate tasks
+
+    public static <T> T foldParallel(Taxon node, Fold<T> fold, int grain) {
+        if (ForkJoinPool.getCommonPoolParallelism() <= 1 || node.count() < grain)
+            return fold(node, fold);
+        else
+            return ForkJoinPool.commonPool().invoke(new FoldTask<T>(node, fold, grain));
+    }
+
+    private static class FoldTask<T> extends RecursiveTask<T> {
+        private static final long serialVersionUID = 1L;
+        private final Taxon node;
+        private final Fold<T> fold;
+        private final int grain;
+
+        FoldTask(Taxon node, Fold<T> fold, int grain) {
+            this.node = node;
+            this.fold = fold;
+            this.grain = grain;
+        }
+
+        @SuppressWarnings("unchecked")
+        protected T compute() {
+            if (!fold.descend(node) || node.children == null)
+                return fold.finish(node, null);
+            // Fork the big children, do the rest here, then combine
+            // all of them in order
+            int n = node.children.size(), i = 0;
+            FoldTask<T>[] tasks = (FoldTask<T>[])new FoldTask<?>[n];
+            Object[] values = new Object[n];
+            for (Taxon child : node.children) {
+                if (child.count() >= grain) {
+                    tasks[i] = new FoldTask<T>(child, fold, grain);
+                    tasks[i].fork();
+                } else
+                    values[i] = fold(child, fold);
+                ++i;
+            }
+            T acc = null;
+            for (i = 0; i < n; ++i)
+                acc = fold.combine(acc, (tasks[i] != null ? tasks[i].join() : (T)values[i]));
+            return fold.finish(node, acc);
+        }
+    }
+
+    // Nodes from the root of the walk down to the current node, each
+    // with the iterator over its children and (for fold) the combined
+    // values of the children done so far
+
+    private static class Path {
+        Taxon[] nodes = new Taxon[64];
+        @SuppressWarnings("unchecked")
+        Iterator<Taxon>[] children = (Iterator<Taxon>[])new Iterator<?>[64];
+        Object[] accs = new Object[64];
+        int size = 0;
+
+        void push(Taxon node) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                children = Arrays.copyOf(children, size * 2);
+                accs = Arrays.copyOf(accs, size * 2);
+            }
+            nodes[size] = node;
+            children[size] = node.children.iterator();
+            ++size;
+        }
+
+        Taxon pop() {
+            --size;
+            Taxon node = nodes[size];
+            nodes[size] = null;
+            children[size] = null;
+            accs[size] = null;
+            return node;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+  Compare Traversal.walk and Traversal.fold with the recursive code
+  they replace, over a taxonomy (e.g. all of OTT) or over a generated
+  tree of similar size and shape.
+
+  java org.opentreeoflife.taxa.TraversalBenchmark [designator]
+
+  Each trial does a preorder walk (resetting depths, as
+  Taxonomy.reset does) and a fold (tips below each node, as
+  ConflictAnalysis.mapTips does), both ways.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TraversalBenchmark {
+
+    static final int TRIALS = 5;
+
+    public static void main(String[] argv) throws IOException {
+        Taxonomy tax;
+        if (argv.length > 0)
+            tax = Taxonomy.getRawTaxonomy(argv[0], null);
+        else {
+            // ~2M nodes, mostly bushy, with some long chains
+            tax = new SourceTaxonomy();
+            Random random = new Random(3);
+            List<Taxon> nodes = new ArrayList<Taxon>();
+            for (int i = 0; i < 2000000; ++i) {
+                Taxon node = new Taxon(tax, null);
+                if (i == 0)
+                    tax.addRoot(node);
+                else if (random.nextInt(100) == 0)
+                    nodes.get(i - 1).addChild(node);
+                else
+                    nodes.get(random.nextInt(i)).addChild(node);
+                nodes.add(node);
+            }
+        }
+        System.out.format("| %s nodes\n", tax.count());
+
+        for (int trial = 0; trial < TRIALS; ++trial) {
+            long start = System.nanoTime();
+            for (Taxon root : tax.roots())
+                recursiveReset(root);
+            long recursiveWalk = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Traversal.walk(tax.roots(), resetVisitor);
+            long walk = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int tips1 = 0;
+            for (Taxon root : tax.roots())
+                tips1 += recursiveTips(root);
+            long recursiveFold = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int tips2 = 0;
+            for (Taxon root : tax.roots())
+                tips2 += Traversal.fold(root, tipsFold);
+            long fold = System.nanoTime() - start;
+
+            if (tips1 != tips2)
+                System.out.format("** tips %s != %s\n", tips1, tips2);
+            System.out.format("| trial %s: walk %s ms (recursive %s ms), fold %s ms (recursive %s ms)\n",
+                              trial,
+                              walk / 1000000, recursiveWalk / 1000000,
+                              fold / 1000000, recursiveFold / 1000000);
+        }
+    }
+
+    static void recursiveReset(Taxon node) {
+        node.depth = -1;
+        if (node.children != null)
+            for (Taxon child : node.children)
+                recursiveReset(child);
+    }
+
+    static final Traversal.Visitor resetVisitor = new Traversal.Visitor() {
+            public boolean pre(Taxon node) {
+                node.depth = -1;
+                return true;
+            }
+        };
+
+    static int recursiveTips(Taxon node) {
+        if (node.children == null)
+            return 1;
+        int tips = 0;
+        for (Taxon child : node.children)
+            tips += recursiveTips(child);
+        return tips;
+    }
+
+    static final Traversal.Fold<Integer> tipsFold = new Traversal.Fold<Integer>() {
+            public Integer combine(Integer tips, Integer value) {
+                return (tips == null ? value : tips + value);
+            }
+            public Integer finish(Taxon node, Integer tips) {
+                return (node.children == null ? 1 : tips);
+            }
+        };
+}
@@ -0,0 +1,224 @@
+/*
+  Preorder numbering of a taxonomy's tree, for answering mrca and
+  descendsFrom without walking lineages.
+
+  nodes[i] is the node in position i of a preorder traversal starting
+  at the forest, and the nodes at or below nodes[i] are those in
+  positions i up to but not including ends[i].  So 'a descends from b'
+  is two comparisons.
+
+  For the mrca of a and b, where a comes first and b is not a's
+  descendant: among the nodes in positions (a, b], the shallowest is a
+  child of the mrca.  The shallowest node in a range is found with a
+  sparse table over blocks of BLOCK positions (the minimum of 2^k
+  consecutive blocks, for each k), plus, for the blocks at either end,
+  the shallowest from the start of the block up to each position and
+  from each position to the end of the block.  Only a range within a
+  single block needs a scan.  The table is small, about
+  n/BLOCK * log(n/BLOCK) ints, and the within-block minima are a byte
+  per position each.
+
+  The index describes the tree as it was when the index was made.
+  Taxonomy drops it when the tree changes (Taxon.addChild, detach) and
+  makes a new one once there have been enough queries to pay for it
+  (see Taxonomy.treeIndex), or when asked to (Taxonomy.getTreeIndex).
+  A node that isn't in the tree it was made from (e.g. one made since)
+  isn't in the index; Taxon.mrca, descendsFrom etc. then fall back to
+  walking.
+
+  Code that wants the intervals themselves, e.g. to compare positions
+  across taxonomies, can use position and end.
+*/
+
+package org.opentreeoflife.taxa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+public class TreeIndex {
+
+    static final int BLOCK = 32;
+
+    private final Taxon[] nodes;
+    private final int[] ends;
+    private final int[] depths;
+    private final int[][] blockMins;    // blockMins[k][b] = position of shallowest in blocks b .. b+2^k-1
+    private final byte[] fromStart;     // offset in block of shallowest from block start to here
+    private final byte[] toEnd;         // offset in block of shallowest from here to block end
+
+    TreeIndex(Taxonomy tax) {
+        // Preorder, with an explicit stack so that depth doesn't matter
+        List<Taxon> order = new ArrayList<Taxon>();
+        List<Taxon> stack = new ArrayList<Taxon>();
+        stack.add(tax.forest);
+        while (stack.size() > 0) {
+            Taxon node = stack.remove(stack.size() - 1);
+            node.preorder = order.size();
+            order.add(node);
+            Collection<Taxon> children = node.children;
+            if (children != null && children.size() > 0) {
+                int mark = stack.size();
+                stack.addAll(children);
+                // Reverse them so that the first child comes off first
+                for (int i = mark, j = stack.size() - 1; i < j; ++i, --j) {
+                    Taxon temp = stack.get(i);
+                    stack.set(i, stack.get(j));
+                    stack.set(j, temp);
+                }
+            }
+        }
+        int n = order.size();
+        nodes = order.toArray(new Taxon[n]);
+        order = null;
+
+        depths = new int[n];
+        ends = new int[n];
+        for (int i = 1; i < n; ++i)
+            depths[i] = depths[nodes[i].parent.preorder] + 1;
+        for (int i = n - 1; i >= 0; --i) {
+            if (ends[i] == 0) ends[i] = i + 1;
+            if (i > 0) {
+                int p = nodes[i].parent.preorder;
+                if (ends[i] > ends[p]) ends[p] = ends[i];
+            }
+        }
+
+        fromStart = new byte[n];
+        toEnd = new byte[n];
+        for (int i = 0; i < n; ++i) {
+            int start = i - i % BLOCK;
+            fromStart[i] = (byte)(i == start ? 0 : shallower(start + fromStart[i - 1], i) - start);
+        }
+        for (int i = n - 1; i >= 0; --i) {
+            int start = i - i % BLOCK;
+            toEnd[i] = (byte)(i == n - 1 || (i + 1) % BLOCK == 0 ?
+                              i - start :
+                              shallower(i, start + toEnd[i + 1]) - start);
+        }
+
+        int blocks = (n + BLOCK - 1) / BLOCK;
+        int levels = 1;
+        while ((1 << levels) <= blocks) ++levels;
+        blockMins = new int[levels][];
+        blockMins[0] = new int[blocks];
+        for (int b = 0; b < blocks; ++b)
+            blockMins[0][b] = b * BLOCK + toEnd[b * BLOCK];
+        for (int k = 1; k < levels; ++k) {
+            int[] prev = blockMins[k - 1];
+            int[] mins = new int[blocks - (1 << k) + 1];
+            for (int b = 0; b < mins.length; ++b)
+                mins[b] = shallower(prev[b], prev[b + (1 << (k - 1))]);
+            blockMins[k] = mins;
+        }
+    }
+
+    // Number of positions, including the forest's
+
+    public int size() {
+        return nodes.length;
+    }
+
+    // Node at the given position
+
+    public Taxon get(int position) {
+        return nodes[position];
+    }
+
+    // Is node in the tree that the index was made from?
+
+    public boolean contains(Taxon node) {
+        int i = node.preorder;
+        return i >= 0 && i < nodes.length && nodes[i] == node;
+    }
+
+    // Position of node, or -1 if not contained.  The forest is at 0.
+
+    public int position(Taxon node) {
+        return contains(node) ? node.preorder : -1;
+    }
+
+    // Position just after node's last descendant.  Node must be
+    // contained.
+
+    public int end(Taxon node) {
+        return ends[node.preorder];
+    }
+
+    // Is a at or under b?  Both must be contained.
+
+    public boolean descendsFrom(Taxon a, Taxon b) {
+        return b.preorder <= a.preorder && a.preorder < ends[b.preorder];
+    }
+
+    // Both must be contained
+
+    public Taxon mrca(Taxon a, Taxon b) {
+        int i = a.preorder, j = b.preorder;
+        if (i > j) {
+            int temp = i; i = j; j = temp;
+        }
+        if (j < ends[i])
+            return nodes[i];    // includes i == j
+        return nodes[shallowest(i + 1, j)].parent;
+    }
+
+    // The child of ancestor that node is in.  Both must be contained,
+    // with node a proper descendant of ancestor.
+    Taxon childToward(Taxon ancestor, Taxon node) {
+        Collection<Taxon> children = ancestor.children;
+        // Binary search only if get is constant time
+        boolean randomAccess = (children instanceof ChildList
+                                ? !((ChildList)children).hasHoles()
+                                : children instanceof List && children instanceof RandomAccess);
+        if (randomAccess) {
+            // Children are in preorder, unless they've been reordered
+            // since the index was made; check the answer
+            List<Taxon> list = (List<Taxon>)children;
+            int lo = 0, hi = list.size() - 1, pos = node.preorder;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (list.get(mid).preorder <= pos)
+                    lo = mid;
+                else
+                    hi = mid - 1;
+            }
+            Taxon child = list.get(lo);
+            if (contains(child) && descendsFrom(node, child))
+                return child;
+        }
+        Taxon child = node;
+        while (child.parent != ancestor)
+            child = child.parent;
+        return child;
+    }
+
+    // Position of the shallowest node in positions lo..hi inclusive;
+    // the first such, if there are several
+    private int shallowest(int lo, int hi) {
+        int blo = lo / BLOCK, bhi = hi / BLOCK;
+        if (blo == bhi)
+            return scan(lo, hi);
+        int best = blo * BLOCK + toEnd[lo];
+        if (blo + 1 < bhi) {
+            int first = blo + 1, count = bhi - first;
+            int k = 31 - Integer.numberOfLeadingZeros(count);
+            best = shallower(best, blockMins[k][first]);
+            best = shallower(best, blockMins[k][bhi - (1 << k)]);
+        }
+        return shallower(best, bhi * BLOCK + fromStart[hi]);
+    }
+
+    private int scan(int lo, int hi) {
+        int best = lo;
+        for (int i = lo + 1; i <= hi; ++i)
+            if (depths[i] < depths[best])
+                best = i;
+        return best;
+    }
+
+    private int shallower(int i, int j) {
+        return (depths[j] < depths[i] || (depths[j] == depths[i] && j < i)) ? j : i;
+    }
+}